@@ -0,0 +1,24 @@
+package com.interface21.context;
+
+/**
+ * Extension of the ApplicationListener interface, to be implemented by
+ * listeners that are only interested in specific types of events.
+ *
+ * <p>Multicasters only notify such a listener of events of supported types,
+ * caching the matching listeners per event class. The result of
+ * supportsEventType must thus not change for a given event class.
+ *
+ * @see com.interface21.context.support.ApplicationEventMulticasterImpl
+ */
+public interface SmartApplicationListener extends ApplicationListener {
+
+	/**
+	 * Determine whether this listener wants to be notified of events
+	 * of the given type.
+	 * @param eventType the concrete class of the event
+	 * @return whether events of the given type should be passed
+	 * to onApplicationEvent
+	 */
+	boolean supportsEventType(Class eventType);
+
+}
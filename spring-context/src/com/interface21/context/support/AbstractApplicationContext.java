@@ -16,9 +16,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -56,6 +58,11 @@ import com.interface21.util.StringUtils;
  * with the name "messageSource". Else, message resolution is delegated to the
  * parent context.
  *
+ * <p>An event multicaster may be supplied as a bean in the default bean factory,
+ * with the name "applicationEventMulticaster", e.g. to deliver events in
+ * background threads. Else, a default multicaster notifies listeners in the
+ * publishing thread.
+ *
  * @author Rod Johnson
  * @version $Revision: 1.22 $
  * @see #refreshBeanFactory
@@ -82,6 +89,15 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 	 */
 	public static final String MESSAGE_SOURCE_BEAN_NAME = "messageSource";
 
+	/**
+	 * Name of the ApplicationEventMulticaster bean in the factory.
+	 * If none is supplied, a default ApplicationEventMulticasterImpl is used.
+	 *
+	 * @see ApplicationEventMulticaster
+	 * @see AsyncApplicationEventMulticaster
+	 */
+	public static final String EVENT_MULTICASTER_BEAN_NAME = "applicationEventMulticaster";
+
 	//---------------------------------------------------------------------
 	// Instance data
 	//---------------------------------------------------------------------
@@ -113,16 +129,27 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 
 	/**
 	 * Helper class used in event publishing.
-	 * TODO: This could be parameterized as a JavaBean (with a distinguished name
-	 * specified), enabling a different thread usage policy for event publication.
+	 * Can be replaced by a bean with the name "applicationEventMulticaster",
+	 * enabling a different thread usage policy for event publication.
 	 */
 	private ApplicationEventMulticaster eventMulticaster = new ApplicationEventMulticasterImpl();
 
+	/**
+	 * Listeners added from the bean factory on the last refresh,
+	 * to tell them apart from listeners added programmatically
+	 */
+	private List beanListeners = new ArrayList();
+
 	/**
 	 * MessageSource helper we delegate our implementation of this interface to
 	 */
 	private MessageSource messageSource;
 
+	/**
+	 * Whether the message source is defined in this context, not in a parent
+	 */
+	private boolean localMessageSource;
+
 	/**
 	 * Hash table of shared objects, keyed by String.
 	 */
@@ -230,6 +257,7 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 			logger.info(getBeanDefinitionCount() + " beans defined in ApplicationContext: " + getDisplayName());
 
 		configureAllManagedObjects();
+		initEventMulticaster();
 		refreshListeners();
 
 		try {
@@ -238,12 +266,13 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 			throw new ApplicationContextException("Unexpected error loading context options", ex);
 		}
 
+		MessageSource oldMessageSource = (this.localMessageSource ? this.messageSource : null);
+		this.localMessageSource = isLocalBean(MESSAGE_SOURCE_BEAN_NAME);
 		try {
 			this.messageSource = (MessageSource) getBeanFactory().getBean(MESSAGE_SOURCE_BEAN_NAME);
 			// set parent message source if applicable,
 			// and if the message source is defined in this context, not in a parent
-			if (this.parent != null && (this.messageSource instanceof NestingMessageSource) &&
-					Arrays.asList(getBeanFactory().getBeanDefinitionNames()).contains(MESSAGE_SOURCE_BEAN_NAME)) {
+			if (this.parent != null && (this.messageSource instanceof NestingMessageSource) && this.localMessageSource) {
 				((NestingMessageSource) this.messageSource).setParent(this.parent);
 			}
 		} catch (NoSuchBeanDefinitionException ex) {
@@ -251,11 +280,49 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 			// use empty message source to be able to accept getMessage calls
 			this.messageSource = new StaticMessageSource();
 		}
+		if (oldMessageSource != null && oldMessageSource != this.messageSource) {
+			// replaced by the refreshed bean factory
+			shutdownMessageSource(oldMessageSource);
+		}
 
 		onRefresh();
 		publishEvent(new ContextRefreshedEvent(this));
 	}
 
+	/**
+	 * Close this context, stopping the background threads of its message
+	 * source and event multicaster: i.e. the refresh thread of a
+	 * ReloadableResourceBundleMessageSource and the worker threads of an
+	 * AsyncApplicationEventMulticaster, if defined in this context.
+	 * Other beans are not affected.
+	 * <p>Should be called when the context is no longer needed, e.g. on
+	 * shutdown of a web application, as these threads would otherwise
+	 * keep the context and its class loader alive.
+	 */
+	public void close() {
+		logger.info("Closing application context [" + getDisplayName() + "]");
+		if (this.localMessageSource) {
+			shutdownMessageSource(this.messageSource);
+		}
+		if (this.eventMulticaster instanceof AsyncApplicationEventMulticaster) {
+			((AsyncApplicationEventMulticaster) this.eventMulticaster).shutdown();
+		}
+	}
+
+	/**
+	 * Return whether the bean with the given name is defined in this context,
+	 * not in a parent.
+	 */
+	private boolean isLocalBean(String name) {
+		return Arrays.asList(getBeanFactory().getBeanDefinitionNames()).contains(name);
+	}
+
+	private void shutdownMessageSource(MessageSource messageSource) {
+		if (messageSource instanceof ReloadableResourceBundleMessageSource) {
+			((ReloadableResourceBundleMessageSource) messageSource).shutdown();
+		}
+	}
+
 	/**
 	 * Callback method which can be overridden to add context-specific refresh work.
 	 *
@@ -303,6 +370,51 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 		}
 	}
 
+	/**
+	 * Use the ApplicationEventMulticaster bean of this context, if defined.
+	 * Keeps the current multicaster else.
+	 * <p>A multicaster that gets replaced on refresh hands its listeners that
+	 * aren't beans over to the new one, and is shut down if asynchronous.
+	 */
+	private void initEventMulticaster() throws ApplicationContextException {
+		if (Arrays.asList(getBeanFactory().getBeanDefinitionNames()).contains(EVENT_MULTICASTER_BEAN_NAME)) {
+			ApplicationEventMulticaster multicaster = null;
+			try {
+				multicaster = (ApplicationEventMulticaster) getBeanFactory().getBean(EVENT_MULTICASTER_BEAN_NAME);
+			} catch (BeansException ex) {
+				throw new ApplicationContextException("Couldn't load ApplicationEventMulticaster with name '" +
+						EVENT_MULTICASTER_BEAN_NAME + "'", ex);
+			}
+			if (multicaster != this.eventMulticaster) {
+				ApplicationEventMulticaster oldMulticaster = this.eventMulticaster;
+				this.eventMulticaster = multicaster;
+				logger.info("Using ApplicationEventMulticaster [" + this.eventMulticaster + "]");
+				retireEventMulticaster(oldMulticaster);
+			}
+		}
+	}
+
+	/**
+	 * Add the listeners of the given replaced multicaster that aren't beans
+	 * to the current multicaster, as the bean listeners will be added anew.
+	 * Stops the worker threads of the replaced multicaster, if any.
+	 */
+	private void retireEventMulticaster(ApplicationEventMulticaster oldMulticaster) {
+		if (oldMulticaster instanceof ApplicationEventMulticasterImpl) {
+			List listeners = ((ApplicationEventMulticasterImpl) oldMulticaster).getApplicationListeners();
+			for (int i = 0; i < listeners.size(); i++) {
+				ApplicationListener l = (ApplicationListener) listeners.get(i);
+				if (!this.beanListeners.contains(l) && l != this.eventMulticaster) {
+					addListener(l);
+					logger.info("Listener carried over to new ApplicationEventMulticaster: [" + l + "]");
+				}
+			}
+		}
+		if (oldMulticaster instanceof AsyncApplicationEventMulticaster) {
+			((AsyncApplicationEventMulticaster) oldMulticaster).shutdown();
+		}
+	}
+
 	/**
 	 * Add beans that implement listener as listeners.
 	 * Doesn't affect other listeners, that can be added without being beans.
@@ -312,13 +424,17 @@ public abstract class AbstractApplicationContext implements ApplicationContext {
 		String[] listenerNames = getBeanDefinitionNames(ApplicationListener.class);
 		logger.debug("Found " + listenerNames.length + " listeners in bean factory: names=[" +
 				StringUtils.arrayToDelimitedString(listenerNames, ",") + "]");
+		this.beanListeners.clear();
 		for (int i = 0; i < listenerNames.length; i++) {
 			String beanName = listenerNames[i];
 			try {
 				Object bean = getBeanFactory().getBean(beanName);
 				ApplicationListener l = (ApplicationListener) bean;
-				addListener(l);
-				logger.info("Bean listener added: [" + l + "]");
+				if (l != this.eventMulticaster) {
+					this.beanListeners.add(l);
+					addListener(l);
+					logger.info("Bean listener added: [" + l + "]");
+				}
 			} catch (BeansException ex) {
 				throw new ApplicationContextException("Couldn't load config listener with name '" + beanName + "'", ex);
 			}
@@ -15,8 +15,11 @@ import com.interface21.context.NoSuchMessageException;
  * Abstract implementation of NestingMessageSource interface, making it
  * easy to implement custom MessageSources. Subclasses must implement the
  * abstract resolve() method.
- * <br/>This class does not currently implement caching, thus subclasses can
- * dynamically change messages over time.
+ * <br/>This class does not cache resolved messages, thus subclasses can
+ * dynamically change messages over time. It caches the compiled MessageFormat
+ * per locale and code though, recompiling it if the resolved message changes.
+ * Message formats are compiled outside of the cache's lock.
+ * Messages are only passed through MessageFormat if there are arguments.
  * NOTE: Some methods of this class are based on code from Struts 1.1b3 implementation.
  *
  * @author Rod Johnson
@@ -38,10 +41,10 @@ public abstract class AbstractNestingMessageSource implements NestingMessageSour
 	private Locale defaultLocale = Locale.getDefault();
 
 	/**
-	 * The set of previously created MessageFormat objects, keyed by the
-	 * key computed in <code>messageKey()</code>.
+	 * Cache of previously compiled messages: Locale -> Map of code -> MessageTemplate.
+	 * Synchronized on this object. Messages are compiled outside of the lock.
 	 */
-	private Map formats = new HashMap();
+	private final Map templates = new HashMap();
 
 
 	//---------------------------------------------------------------------
@@ -132,24 +135,21 @@ public abstract class AbstractNestingMessageSource implements NestingMessageSour
 
 			if (mesg == null) {
 				if (parent != null)
-					mesg = parent.getMessage(code, args, locale);
+					// already formatted by the parent
+					return parent.getMessage(code, args, locale);
 				else
 					throw new NoSuchMessageException(code, locale);
 			}
 
-			// Cache MessageFormat instances as they are accessed
+			if (args == null || args.length == 0) {
+				// nothing to fill in: no need for MessageFormat
+				return mesg;
+			}
+
+			// Cache compiled MessageFormat instances as they are accessed
 			if (locale == null)
 				locale = defaultLocale;
-			MessageFormat format = null;
-			String formatKey = messageKey(locale, code);
-			synchronized (formats) {
-				format = (MessageFormat) formats.get(formatKey);
-				if (format == null) {
-					format = new MessageFormat(escape(mesg));
-					formats.put(formatKey, format);
-				}
-			}
-			return (format.format(args));
+			return getMessageTemplate(code, locale, mesg).format(args);
 		} catch (NoSuchMessageException ex) {
 			throw ex;
 		} catch (Exception ex) {
@@ -157,6 +157,33 @@ public abstract class AbstractNestingMessageSource implements NestingMessageSour
 		}
 	}
 
+	/**
+	 * Return the compiled template for the given message,
+	 * compiling and caching it if necessary.
+	 */
+	private MessageTemplate getMessageTemplate(String code, Locale locale, String mesg) {
+		MessageTemplate template = null;
+		synchronized (this) {
+			Map codeMap = (Map) this.templates.get(locale);
+			if (codeMap != null) {
+				template = (MessageTemplate) codeMap.get(code);
+			}
+		}
+		if (template == null || !template.getMessage().equals(mesg)) {
+			// may compile the same message concurrently, but without harm
+			template = new MessageTemplate(mesg, new MessageFormat(escape(mesg)));
+			synchronized (this) {
+				Map codeMap = (Map) this.templates.get(locale);
+				if (codeMap == null) {
+					codeMap = new HashMap();
+					this.templates.put(locale, codeMap);
+				}
+				codeMap.put(code, template);
+			}
+		}
+		return template;
+	}
+
 
 	/**
 	 * Subclasses must implement this method to resolve a message
@@ -238,4 +265,29 @@ public abstract class AbstractNestingMessageSource implements NestingMessageSour
 	}
 
 
+	/**
+	 * A message with its compiled MessageFormat. As MessageFormat instances are
+	 * not thread-safe, the compiled format serves as prototype that gets cloned
+	 * for each formatting operation, avoiding to parse the message again.
+	 */
+	private static class MessageTemplate {
+
+		private final String message;
+
+		private final MessageFormat format;
+
+		private MessageTemplate(String message, MessageFormat format) {
+			this.message = message;
+			this.format = format;
+		}
+
+		private String getMessage() {
+			return message;
+		}
+
+		private String format(Object[] args) {
+			return ((MessageFormat) this.format.clone()).format(args);
+		}
+	}
+
 }
@@ -1,30 +1,36 @@
 package com.interface21.context.support;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.interface21.context.ApplicationEvent;
 import com.interface21.context.ApplicationEventMulticaster;
 import com.interface21.context.ApplicationListener;
+import com.interface21.context.SmartApplicationListener;
 
 
 /**
  * Concrete implementation of ApplicationEventMulticaster
  * Doesn't permit multiple instances of the same listener.
- * <br/>Note that this class doesn't try to do anything clever to
- * ensure thread safety if listeners are added or removed at runtime.
- * A technique such as Copy-on-Write (Lea:137) could be used to ensure this,
- * but the assumption in this version of this framework is that listeners
- * will be added at application configuration time and not
- * added or removed as the application runs.
- * <br/>All listeners are invoked in the calling thread. This allows the
- * danger of a rogue listener blocking the entire application, but adds minimal
- * overhead.
- * <br/>An alternative implementation could be more sophisticated in both
- * these respects.
+ * <br/>Listeners are kept in a Copy-on-Write list (Lea:137): adding or
+ * removing a listener replaces the list, while event notification only
+ * synchronizes to fetch the current list and iterates over it without
+ * holding the lock. Listeners can thus be added and removed at runtime,
+ * concurrently with event publication; registration is assumed to be
+ * rare compared to notification.
+ * <br/>All listeners are invoked in the calling thread, in registration order.
+ * This allows the danger of a rogue listener blocking the entire application,
+ * but adds minimal overhead. See AsyncApplicationEventMulticaster for an
+ * alternative that delivers events in background threads.
+ * <br/>Listeners that implement SmartApplicationListener are only notified
+ * of the event types they support. The matching listeners are cached per
+ * event class, so publishing an event only touches interested listeners.
  *
  * @author Rod Johnson
+ * @see AsyncApplicationEventMulticaster
+ * @see com.interface21.context.SmartApplicationListener
  */
 public class ApplicationEventMulticasterImpl implements ApplicationEventMulticaster {
 
@@ -32,9 +38,16 @@ public class ApplicationEventMulticasterImpl implements ApplicationEventMulticas
 	// Instance data
 	//---------------------------------------------------------------------
 	/**
-	 * Set of listeners
+	 * List of listeners. Never modified once published:
+	 * replaced on every change, with changes synchronized on this object.
 	 */
-	private Set eventListeners = new HashSet();
+	private List eventListeners = new ArrayList();
+
+	/**
+	 * Cache of listeners per event type: Class -> ApplicationListener[].
+	 * Synchronized on this object, reset on every listener change.
+	 */
+	private Map listenersByEventType = new HashMap();
 
 
 	//---------------------------------------------------------------------
@@ -55,15 +68,25 @@ public class ApplicationEventMulticasterImpl implements ApplicationEventMulticas
 	/**
 	 * @see ApplicationEventMulticaster#addApplicationListener(ApplicationListener)
 	 */
-	public void addApplicationListener(ApplicationListener l) {
-		eventListeners.add(l);
+	public synchronized void addApplicationListener(ApplicationListener l) {
+		if (!this.eventListeners.contains(l)) {
+			List newListeners = new ArrayList(this.eventListeners);
+			newListeners.add(l);
+			this.eventListeners = newListeners;
+			this.listenersByEventType = new HashMap();
+		}
 	}
 
 	/**
 	 * @see ApplicationEventMulticaster#removeApplicationListener(ApplicationListener)
 	 */
-	public void removeApplicationListener(ApplicationListener l) {
-		eventListeners.remove(l);
+	public synchronized void removeApplicationListener(ApplicationListener l) {
+		if (this.eventListeners.contains(l)) {
+			List newListeners = new ArrayList(this.eventListeners);
+			newListeners.remove(l);
+			this.eventListeners = newListeners;
+			this.listenersByEventType = new HashMap();
+		}
 	}
 
 
@@ -71,18 +94,60 @@ public class ApplicationEventMulticasterImpl implements ApplicationEventMulticas
 	 * @see ApplicationListener#onApplicationEvent(ApplicationEvent)
 	 */
 	public void onApplicationEvent(ApplicationEvent e) {
-		Iterator i = eventListeners.iterator();
-		while (i.hasNext()) {
-			ApplicationListener l = (ApplicationListener) i.next();
-			l.onApplicationEvent(e);
+		ApplicationListener[] listeners = getApplicationListeners(e.getClass());
+		for (int i = 0; i < listeners.length; i++) {
+			invokeListener(listeners[i], e);
 		}
 	}
 
 	/**
 	 * @see ApplicationEventMulticaster#removeAllListeners()
 	 */
-	public void removeAllListeners() {
-		eventListeners.clear();
+	public synchronized void removeAllListeners() {
+		this.eventListeners = new ArrayList();
+		this.listenersByEventType = new HashMap();
+	}
+
+	/**
+	 * Return a snapshot of the currently registered listeners.
+	 * The returned List must not be modified.
+	 */
+	protected synchronized List getApplicationListeners() {
+		return this.eventListeners;
+	}
+
+	/**
+	 * Return the listeners that want to be notified of events of the given type,
+	 * in registration order. The returned array must not be modified.
+	 * @param eventType the concrete class of the event
+	 * @see com.interface21.context.SmartApplicationListener#supportsEventType
+	 */
+	protected synchronized ApplicationListener[] getApplicationListeners(Class eventType) {
+		ApplicationListener[] listeners = (ApplicationListener[]) this.listenersByEventType.get(eventType);
+		if (listeners == null) {
+			List matching = new ArrayList();
+			for (int i = 0; i < this.eventListeners.size(); i++) {
+				ApplicationListener l = (ApplicationListener) this.eventListeners.get(i);
+				if (!(l instanceof SmartApplicationListener) ||
+						((SmartApplicationListener) l).supportsEventType(eventType)) {
+					matching.add(l);
+				}
+			}
+			listeners = (ApplicationListener[]) matching.toArray(new ApplicationListener[matching.size()]);
+			this.listenersByEventType.put(eventType, listeners);
+		}
+		return listeners;
+	}
+
+	/**
+	 * Notify the given listener of the given event.
+	 * <p>This implementation invokes the listener in the calling thread.
+	 * Can be overridden to change the way listeners are invoked.
+	 * @param l listener to notify
+	 * @param e event to notify the listener of
+	 */
+	protected void invokeListener(ApplicationListener l, ApplicationEvent e) {
+		l.onApplicationEvent(e);
 	}
 
 }    // class ApplicationEventMulticasterImpl
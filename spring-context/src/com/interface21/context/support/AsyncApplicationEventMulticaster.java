@@ -0,0 +1,448 @@
+package com.interface21.context.support;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.interface21.context.ApplicationEvent;
+import com.interface21.context.ApplicationListener;
+import com.interface21.util.Constants;
+import com.interface21.util.ResponseTimeMonitor;
+import com.interface21.util.ResponseTimeMonitorImpl;
+
+/**
+ * ApplicationEventMulticaster that delivers events to its listeners in
+ * background worker threads, so that slow listeners do not add to the
+ * latency of the publishing thread (e.g. a FrameworkServlet publishing
+ * a RequestHandledEvent at the end of each request).
+ *
+ * <p>Each listener has its own bounded event queue. A listener is only
+ * served by one worker thread at a time, so it receives events in the
+ * order they were published, even with multiple worker threads.
+ * If a listener's queue is full, the publishing thread either blocks
+ * until there is space or drops the event for that listener,
+ * according to the "fullQueuePolicy" property. Events published by
+ * listeners, i.e. in a worker thread, are always dropped if the queue
+ * is full: blocking could deadlock the worker that has to drain it.
+ *
+ * <p>Exposes the current queue depth, the number of dropped events,
+ * and a ResponseTimeMonitor per listener for monitoring purposes.
+ *
+ * <p>Can be used as application context multicaster by defining a bean
+ * named "applicationEventMulticaster" in the context. Worker threads are
+ * daemon threads; call shutdown to stop them explicitly.
+ *
+ * @see #setThreadCount
+ * @see #setQueueCapacity
+ * @see #setFullQueuePolicyName
+ * @see AbstractApplicationContext#EVENT_MULTICASTER_BEAN_NAME
+ */
+public class AsyncApplicationEventMulticaster extends ApplicationEventMulticasterImpl {
+
+	/**
+	 * Block the publishing thread until the listener's queue has space.
+	 * Worker threads never block: events they publish are dropped instead.
+	 */
+	public static final int FULL_QUEUE_BLOCK = 0;
+
+	/**
+	 * Drop the event for the listener whose queue is full.
+	 */
+	public static final int FULL_QUEUE_DROP = 1;
+
+	/** Prefix for the full queue policy constants */
+	public static final String FULL_QUEUE_CONSTANT_PREFIX = "FULL_QUEUE";
+
+	private static final Constants constants = new Constants(AsyncApplicationEventMulticaster.class);
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private int threadCount = 1;
+
+	private int queueCapacity = 1000;
+
+	private int fullQueuePolicy = FULL_QUEUE_BLOCK;
+
+	/**
+	 * Map from ApplicationListener to ListenerQueue. Replaced on every change,
+	 * with changes synchronized on this object.
+	 */
+	private Map listenerQueues = new HashMap();
+
+	/**
+	 * ListenerQueues with pending events that are not being served by a worker
+	 */
+	private final LinkedList readyQueues = new LinkedList();
+
+	private Thread[] workers;
+
+	private boolean shutdown = false;
+
+	private int droppedEventCount = 0;
+
+
+	/**
+	 * Set the number of worker threads that deliver events. Default is 1.
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount must be at least 1");
+		}
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Return the number of worker threads that deliver events.
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Set the maximum number of pending events per listener. Default is 1000.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be at least 1");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Return the maximum number of pending events per listener.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Set what to do if a listener's queue is full, according to the
+	 * FULL_QUEUE_ constants of this class. Default is FULL_QUEUE_BLOCK.
+	 * @see #FULL_QUEUE_BLOCK
+	 * @see #FULL_QUEUE_DROP
+	 */
+	public void setFullQueuePolicy(int fullQueuePolicy) {
+		if (fullQueuePolicy != FULL_QUEUE_BLOCK && fullQueuePolicy != FULL_QUEUE_DROP) {
+			throw new IllegalArgumentException("Invalid full queue policy");
+		}
+		this.fullQueuePolicy = fullQueuePolicy;
+	}
+
+	/**
+	 * Set the full queue policy by the name of the respective constant
+	 * of this class (e.g. "FULL_QUEUE_DROP").
+	 * @param constantName name of the constant
+	 * @throws IllegalArgumentException if an invalid constant was specified
+	 */
+	public void setFullQueuePolicyName(String constantName) throws IllegalArgumentException {
+		if (constantName == null || !constantName.startsWith(FULL_QUEUE_CONSTANT_PREFIX)) {
+			throw new IllegalArgumentException("Only full queue policy constants allowed");
+		}
+		setFullQueuePolicy(constants.asInt(constantName));
+	}
+
+	/**
+	 * Return what to do if a listener's queue is full.
+	 */
+	public int getFullQueuePolicy() {
+		return fullQueuePolicy;
+	}
+
+
+	public synchronized void addApplicationListener(ApplicationListener l) {
+		super.addApplicationListener(l);
+		if (!this.listenerQueues.containsKey(l)) {
+			Map newQueues = new HashMap(this.listenerQueues);
+			newQueues.put(l, new ListenerQueue(l));
+			this.listenerQueues = newQueues;
+		}
+	}
+
+	/**
+	 * Removes the listener's queue too: pending events for it will not be delivered.
+	 */
+	public synchronized void removeApplicationListener(ApplicationListener l) {
+		super.removeApplicationListener(l);
+		if (this.listenerQueues.containsKey(l)) {
+			Map newQueues = new HashMap(this.listenerQueues);
+			ListenerQueue queue = (ListenerQueue) newQueues.remove(l);
+			this.listenerQueues = newQueues;
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Removes all queues too: pending events will not be delivered.
+	 */
+	public synchronized void removeAllListeners() {
+		super.removeAllListeners();
+		Map oldQueues = this.listenerQueues;
+		this.listenerQueues = new HashMap();
+		for (Iterator it = oldQueues.values().iterator(); it.hasNext();) {
+			((ListenerQueue) it.next()).clear();
+		}
+	}
+
+	/**
+	 * Queues the event for the given listener. Invokes the listener in the calling
+	 * thread if this multicaster has been shut down.
+	 */
+	protected void invokeListener(ApplicationListener l, ApplicationEvent e) {
+		ListenerQueue queue = getListenerQueue(l);
+		if (queue == null) {
+			// removed concurrently
+			return;
+		}
+		int result = queue.add(e, !isWorkerThread(Thread.currentThread()));
+		if (result == ListenerQueue.ADDED_AND_SCHEDULE) {
+			schedule(queue);
+		} else if (result == ListenerQueue.DROPPED) {
+			eventDropped(l, e);
+		}
+	}
+
+	/**
+	 * Hand the given queue to the worker threads, starting them if necessary.
+	 */
+	private void schedule(ListenerQueue queue) {
+		synchronized (this.readyQueues) {
+			if (!this.shutdown) {
+				if (this.workers == null) {
+					startWorkers();
+				}
+				this.readyQueues.addLast(queue);
+				this.readyQueues.notify();
+				return;
+			}
+		}
+		// deliver in the calling thread
+		queue.deliverAll();
+	}
+
+	/**
+	 * Return whether the given thread is one of this multicaster's workers.
+	 * A worker must never block on a full queue: it might be the thread
+	 * that has to drain that queue.
+	 */
+	private boolean isWorkerThread(Thread thread) {
+		synchronized (this.readyQueues) {
+			if (this.workers != null) {
+				for (int i = 0; i < this.workers.length; i++) {
+					if (this.workers[i] == thread) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private void startWorkers() {
+		logger.info("Starting " + this.threadCount + " event delivery threads");
+		this.workers = new Thread[this.threadCount];
+		for (int i = 0; i < this.workers.length; i++) {
+			this.workers[i] = new Thread(new Worker(), getClass().getName() + "-" + (i + 1));
+			this.workers[i].setDaemon(true);
+			this.workers[i].start();
+		}
+	}
+
+	/**
+	 * Stop the worker threads once they have delivered all pending events.
+	 * Events published afterwards are delivered in the publishing thread.
+	 */
+	public void shutdown() {
+		synchronized (this.readyQueues) {
+			this.shutdown = true;
+			this.readyQueues.notifyAll();
+		}
+	}
+
+	/**
+	 * Return the total number of events waiting for delivery.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		List listeners = getApplicationListeners();
+		for (int i = 0; i < listeners.size(); i++) {
+			depth += getQueueDepth((ApplicationListener) listeners.get(i));
+		}
+		return depth;
+	}
+
+	/**
+	 * Return the number of events waiting for delivery to the given listener.
+	 */
+	public int getQueueDepth(ApplicationListener l) {
+		ListenerQueue queue = getListenerQueue(l);
+		return (queue != null ? queue.size() : 0);
+	}
+
+	/**
+	 * Return the number of events that have been dropped because of full queues.
+	 * @see #FULL_QUEUE_DROP
+	 */
+	public synchronized int getDroppedEventCount() {
+		return droppedEventCount;
+	}
+
+	/**
+	 * Return the delivery statistics for the given listener,
+	 * i.e. the time spent in its onApplicationEvent method.
+	 * @return the monitor, or null if the listener isn't registered
+	 */
+	public ResponseTimeMonitor getResponseTimeMonitor(ApplicationListener l) {
+		ListenerQueue queue = getListenerQueue(l);
+		return (queue != null ? queue.getResponseTimeMonitor() : null);
+	}
+
+	private synchronized ListenerQueue getListenerQueue(ApplicationListener l) {
+		return (ListenerQueue) this.listenerQueues.get(l);
+	}
+
+	private synchronized void eventDropped(ApplicationListener l, ApplicationEvent e) {
+		this.droppedEventCount++;
+		logger.warn("Event queue of listener [" + l + "] is full: dropping event " + e);
+	}
+
+
+	/**
+	 * Bounded queue of events for a single listener.
+	 * At most one worker thread delivers its events at any time.
+	 */
+	private class ListenerQueue {
+
+		private static final int ADDED = 0;
+
+		private static final int ADDED_AND_SCHEDULE = 1;
+
+		private static final int DROPPED = 2;
+
+		private final ApplicationListener listener;
+
+		private final LinkedList events = new LinkedList();
+
+		private final ResponseTimeMonitorImpl monitor = new ResponseTimeMonitorImpl();
+
+		/** Whether this queue is in the ready list or being served */
+		private boolean scheduled = false;
+
+		private ListenerQueue(ApplicationListener listener) {
+			this.listener = listener;
+		}
+
+		/**
+		 * Add the given event, blocking or dropping it if the queue is full.
+		 * @param mayBlock whether the calling thread may wait for space
+		 * @return ADDED, ADDED_AND_SCHEDULE if the queue needs to be scheduled,
+		 * or DROPPED
+		 */
+		private synchronized int add(ApplicationEvent e, boolean mayBlock) {
+			while (this.events.size() >= queueCapacity) {
+				if (fullQueuePolicy == FULL_QUEUE_DROP || !mayBlock) {
+					return DROPPED;
+				}
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					// keep the interrupt for the caller to see
+					Thread.currentThread().interrupt();
+					return DROPPED;
+				}
+			}
+			this.events.addLast(e);
+			if (this.scheduled) {
+				return ADDED;
+			}
+			this.scheduled = true;
+			return ADDED_AND_SCHEDULE;
+		}
+
+		/**
+		 * Deliver the next event, if any.
+		 * @return whether there are more events to deliver
+		 */
+		private boolean deliverNext() {
+			ApplicationEvent e = null;
+			synchronized (this) {
+				if (this.events.isEmpty()) {
+					this.scheduled = false;
+					return false;
+				}
+				e = (ApplicationEvent) this.events.removeFirst();
+				notifyAll();
+			}
+			long start = System.currentTimeMillis();
+			try {
+				this.listener.onApplicationEvent(e);
+			} catch (RuntimeException ex) {
+				logger.error("Listener [" + this.listener + "] failed to handle event " + e, ex);
+			}
+			synchronized (this) {
+				this.monitor.recordResponseTime(System.currentTimeMillis() - start);
+				if (this.events.isEmpty()) {
+					this.scheduled = false;
+					return false;
+				}
+				return true;
+			}
+		}
+
+		private void deliverAll() {
+			while (deliverNext()) {
+			}
+		}
+
+		private synchronized int size() {
+			return this.events.size();
+		}
+
+		private synchronized void clear() {
+			this.events.clear();
+			notifyAll();
+		}
+
+		private synchronized ResponseTimeMonitor getResponseTimeMonitor() {
+			return this.monitor;
+		}
+	}
+
+
+	/**
+	 * Serves ready queues one event at a time, so that listeners
+	 * get a fair share of the worker threads.
+	 */
+	private class Worker implements Runnable {
+
+		public void run() {
+			while (true) {
+				ListenerQueue queue = null;
+				synchronized (readyQueues) {
+					while (readyQueues.isEmpty()) {
+						if (shutdown) {
+							return;
+						}
+						try {
+							readyQueues.wait();
+						} catch (InterruptedException ex) {
+							return;
+						}
+					}
+					queue = (ListenerQueue) readyQueues.removeFirst();
+				}
+				if (queue.deliverNext()) {
+					synchronized (readyQueues) {
+						readyQueues.addLast(queue);
+						readyQueues.notify();
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -14,7 +14,7 @@ import com.interface21.beans.BeansException;
 import com.interface21.beans.factory.BeanFactory;
 import com.interface21.context.ApplicationContext;
 import com.interface21.context.ApplicationEvent;
-import com.interface21.context.ApplicationListener;
+import com.interface21.context.SmartApplicationListener;
 
 /**
  * Allows for configuration of individual bean properties from a
@@ -28,7 +28,7 @@ import com.interface21.context.ApplicationListener;
  * @author Juergen Hoeller
  * @since 12.03.2003
  */
-public class PropertyResourceConfigurer implements ApplicationListener {
+public class PropertyResourceConfigurer implements SmartApplicationListener {
 
 	private final Log logger = LogFactory.getLog(getClass());
 
@@ -47,6 +47,10 @@ public class PropertyResourceConfigurer implements ApplicationListener {
 		this.location = location;
 	}
 
+	public boolean supportsEventType(Class eventType) {
+		return ContextRefreshedEvent.class.isAssignableFrom(eventType);
+	}
+
 	public void onApplicationEvent(ApplicationEvent e) {
 		if (e instanceof ContextRefreshedEvent) {
 			ApplicationContext ctx = ((ContextRefreshedEvent) e).getApplicationContext();
@@ -0,0 +1,248 @@
+package com.interface21.context.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * ResourceBundleMessageSource that reads the properties files of its
+ * bundle directly and reloads them when they change on disk, without
+ * restarting the application.
+ *
+ * <p>The files are located like ResourceBundle.getBundle would locate
+ * PropertyResourceBundles: e.g. for basename "messages" and locale en_US,
+ * "messages_en_US.properties", "messages_en.properties" and
+ * "messages.properties" are merged, with more specific files overriding
+ * less specific ones. If there is no file for the requested locale, the
+ * files for the default locale are used. Class-based bundles are not
+ * supported.
+ *
+ * <p>A background daemon thread checks the files that have been loaded
+ * every "refreshCheckInterval" milliseconds. The messages of a locale with
+ * changed files are reloaded and then swapped in as a whole, so readers
+ * are never blocked and never see a partially loaded bundle. Only files
+ * that reside in the file system can be watched, not files in jars.
+ * Files are only watched once a locale has been loaded: a more specific
+ * file that is added afterwards (e.g. "messages_de.properties" when
+ * "messages.properties" was used for German) is not picked up.
+ *
+ * <p>The refresh thread keeps this object and its class loader alive
+ * until shutdown is called. AbstractApplicationContext.close does this
+ * for the context's "messageSource" bean.
+ *
+ * @see #setRefreshCheckInterval
+ * @see #shutdown
+ * @see AbstractApplicationContext#close
+ */
+public class ReloadableResourceBundleMessageSource extends ResourceBundleMessageSource {
+
+	private static final String PROPERTIES_SUFFIX = ".properties";
+
+	private long refreshCheckInterval = 10000;
+
+	/**
+	 * Watched files per locale: Locale -> Map of File -> Long last modified.
+	 * Replaced on every change, so that it can be iterated without the lock,
+	 * with reads and changes of the reference synchronized on this object.
+	 */
+	private Map watchedFiles = new HashMap();
+
+	private Timer refreshTimer;
+
+	private boolean shutdown = false;
+
+
+	/**
+	 * Set the number of milliseconds between two checks for changed files.
+	 * Default is 10000, i.e. 10 seconds. A value of 0 or less means
+	 * to never check, i.e. to load each locale's files only once.
+	 */
+	public void setRefreshCheckInterval(long refreshCheckInterval) {
+		this.refreshCheckInterval = refreshCheckInterval;
+	}
+
+	/**
+	 * Return the number of milliseconds between two checks for changed files.
+	 */
+	public long getRefreshCheckInterval() {
+		return refreshCheckInterval;
+	}
+
+	/**
+	 * Loads the properties files for the given locale,
+	 * remembering them for the refresh checks.
+	 */
+	protected Map loadMessages(Locale locale) {
+		Map messages = new HashMap();
+		Map files = new HashMap();
+		List resources = findResources(locale);
+		if (resources.isEmpty()) {
+			logger.warn("No properties files found for MessageSource with basename '" + getBasename() +
+			            "' and locale '" + locale + "'");
+		}
+		// merge from the least specific file to the most specific one
+		for (int i = resources.size() - 1; i >= 0; i--) {
+			URL url = (URL) resources.get(i);
+			try {
+				messages.putAll(loadProperties(url));
+			} catch (IOException ex) {
+				logger.warn("Could not load properties file [" + url + "] for MessageSource", ex);
+			}
+			File file = getFile(url);
+			if (file != null) {
+				files.put(file, new Long(file.lastModified()));
+			}
+		}
+		watchFiles(locale, files);
+		return messages;
+	}
+
+	/**
+	 * Return the URLs of the properties files for the given locale,
+	 * from the most specific one to the base file.
+	 */
+	protected List findResources(Locale locale) {
+		String basePath = getBasename().replace('.', '/');
+		List resources = findLocaleResources(basePath, locale);
+		if (resources.isEmpty() && !locale.equals(Locale.getDefault())) {
+			resources = findLocaleResources(basePath, Locale.getDefault());
+		}
+		URL baseUrl = getResource(basePath + PROPERTIES_SUFFIX);
+		if (baseUrl != null) {
+			resources.add(baseUrl);
+		}
+		return resources;
+	}
+
+	/**
+	 * Return the URLs of the locale-specific properties files for the given
+	 * locale, from the most specific one to the language-only one.
+	 */
+	private List findLocaleResources(String basePath, Locale locale) {
+		List resources = new ArrayList();
+		String language = locale.getLanguage();
+		String country = locale.getCountry();
+		String variant = locale.getVariant();
+		List names = new ArrayList();
+		if (variant.length() > 0) {
+			names.add(basePath + "_" + language + "_" + country + "_" + variant);
+		}
+		if (country.length() > 0) {
+			names.add(basePath + "_" + language + "_" + country);
+		}
+		if (language.length() > 0) {
+			names.add(basePath + "_" + language);
+		}
+		for (int i = 0; i < names.size(); i++) {
+			URL url = getResource(names.get(i) + PROPERTIES_SUFFIX);
+			if (url != null) {
+				resources.add(url);
+			}
+		}
+		return resources;
+	}
+
+	private URL getResource(String path) {
+		return Thread.currentThread().getContextClassLoader().getResource(path);
+	}
+
+	private Properties loadProperties(URL url) throws IOException {
+		Properties props = new Properties();
+		InputStream is = url.openStream();
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+		return props;
+	}
+
+	/**
+	 * Return the file for the given URL, or null if it isn't a file URL.
+	 */
+	private File getFile(URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		return new File(URLDecoder.decode(url.getFile()));
+	}
+
+	private synchronized void watchFiles(Locale locale, Map files) {
+		Map newWatchedFiles = new HashMap(this.watchedFiles);
+		newWatchedFiles.put(locale, files);
+		this.watchedFiles = newWatchedFiles;
+		if (this.refreshTimer == null && !this.shutdown && this.refreshCheckInterval > 0 && !files.isEmpty()) {
+			logger.info("Checking properties files of MessageSource with basename '" + getBasename() +
+			            "' for changes every " + this.refreshCheckInterval + " milliseconds");
+			this.refreshTimer = new Timer(true);
+			this.refreshTimer.schedule(new RefreshTask(), this.refreshCheckInterval, this.refreshCheckInterval);
+		}
+	}
+
+	/**
+	 * Reload the messages of all locales whose files have changed.
+	 * Called by the background thread; can also be called explicitly.
+	 */
+	public void refresh() {
+		Map currentWatchedFiles = null;
+		synchronized (this) {
+			currentWatchedFiles = this.watchedFiles;
+		}
+		for (Iterator it = currentWatchedFiles.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if (isModified((Map) entry.getValue())) {
+				Locale locale = (Locale) entry.getKey();
+				logger.info("Reloading messages with basename '" + getBasename() + "' for locale '" + locale + "'");
+				cacheMessages(locale, Collections.unmodifiableMap(loadMessages(locale)));
+			}
+		}
+	}
+
+	private boolean isModified(Map files) {
+		for (Iterator it = files.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			File file = (File) entry.getKey();
+			if (file.lastModified() != ((Long) entry.getValue()).longValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stop checking for changed files, ending the refresh thread.
+	 * The messages that have been loaded remain available.
+	 */
+	public synchronized void shutdown() {
+		this.shutdown = true;
+		if (this.refreshTimer != null) {
+			this.refreshTimer.cancel();
+			this.refreshTimer = null;
+		}
+	}
+
+
+	private class RefreshTask extends TimerTask {
+
+		public void run() {
+			try {
+				refresh();
+			} catch (RuntimeException ex) {
+				logger.error("Could not refresh MessageSource with basename '" + getBasename() + "'", ex);
+			}
+		}
+	}
+
+}
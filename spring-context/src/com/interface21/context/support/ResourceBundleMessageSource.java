@@ -1,28 +1,41 @@
 package com.interface21.context.support;
 
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.ResourceBundle;
+import java.util.Map;
 import java.util.MissingResourceException;
+import java.util.ResourceBundle;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * MessageSource that
+ * MessageSource that resolves messages from ResourceBundles.
  * <br/>This class is a JavaBean, exposing a 'basename'
  * property.
- * <br/>This class relies on the caching of the underlying
- * core library ResourceBundle implementation.
+ * <br/>The ResourceBundle for each locale is loaded once and flattened into
+ * an immutable Map that contains the messages of the whole fallback chain
+ * (e.g. "messages_en_US", "messages_en", "messages"). Resolving a message
+ * thus takes a single cache lookup.
  *
  * @author Rod Johnson
  * @version $RevisionId$
+ * @see ReloadableResourceBundleMessageSource
  */
 public class ResourceBundleMessageSource extends AbstractNestingMessageSource {
 
-	private final Log logger = LogFactory.getLog(getClass());
+	protected final Log logger = LogFactory.getLog(getClass());
 
 	private String basename;
 
+	/**
+	 * Flattened messages per locale: Locale -> Map of code -> message.
+	 * Synchronized on this object. Messages are loaded outside of the lock.
+	 */
+	private final Map cachedMessages = new HashMap();
+
 	/**
 	 * Set the basename property. The basename follows ResourceBundle conventions.
 	 * It is a fully-qualified classname. If it doesn't contain a package qualifier
@@ -36,28 +49,91 @@ public class ResourceBundleMessageSource extends AbstractNestingMessageSource {
 	 */
 	public void setBasename(String basename) {
 		this.basename = basename;
+		synchronized (this) {
+			this.cachedMessages.clear();
+		}
+	}
+
+	/**
+	 * Return the basename, following ResourceBundle conventions.
+	 */
+	public String getBasename() {
+		return basename;
 	}
 
 	/**
 	 * @see AbstractNestingMessageSource#resolve(String, Locale)
 	 */
-	protected String resolve(String code, Locale locale) throws MissingResourceException {
+	protected String resolve(String code, Locale locale) {
+		// assume key not found if null
+		// -> do NOT throw an exception to allow for checking parent message source
+		return (String) getMessages(locale).get(code);
+	}
+
+	/**
+	 * Return the flattened messages for the given locale,
+	 * loading them if not cached yet.
+	 * @param locale locale to return the messages for (null for the default locale)
+	 * @return the immutable Map of code to message
+	 */
+	protected Map getMessages(Locale locale) {
+		if (locale == null) {
+			locale = getDefaultLocale();
+		}
+		Map messages = null;
+		synchronized (this) {
+			messages = (Map) this.cachedMessages.get(locale);
+		}
+		if (messages == null) {
+			// may load the same messages concurrently, but without harm
+			messages = Collections.unmodifiableMap(loadMessages(locale));
+			cacheMessages(locale, messages);
+		}
+		return messages;
+	}
+
+	/**
+	 * Publish the given messages for the given locale, replacing the current ones.
+	 * Readers will either see the old or the new messages, never a mix of both.
+	 */
+	protected synchronized void cacheMessages(Locale locale, Map messages) {
+		this.cachedMessages.put(locale, messages);
+	}
+
+	/**
+	 * Return the locales that messages have been loaded for.
+	 */
+	protected synchronized Locale[] getCachedLocales() {
+		return (Locale[]) this.cachedMessages.keySet().toArray(new Locale[0]);
+	}
+
+	/**
+	 * Load the messages for the given locale, including the messages
+	 * of all fallback bundles.
+	 * <p>This implementation uses ResourceBundle.getBundle with the context
+	 * class loader, flattening the bundle with its parents. Can be overridden
+	 * to load messages in a different way.
+	 * @param locale locale to load the messages for
+	 * @return a Map of code to message, empty if there is no bundle
+	 */
+	protected Map loadMessages(Locale locale) {
+		Map messages = new HashMap();
 		ResourceBundle bundle = null;
 		try {
 			bundle = ResourceBundle.getBundle(this.basename, locale, Thread.currentThread().getContextClassLoader());
 		} catch (MissingResourceException ex) {
 			logger.warn("No ResourceBundle found for MessageSource: " + ex.getMessage());
-			// assume bundle not found
-			// -> do NOT throw the exception to allow for checking parent message source
-			return null;
+			return messages;
 		}
-		try {
-			return bundle.getString(code);
-		} catch (MissingResourceException ex) {
-			// assume key not found
-			// -> do NOT throw the exception to allow for checking parent message source
-			return null;
+		// keys include the ones of the parent bundles
+		for (Enumeration keys = bundle.getKeys(); keys.hasMoreElements();) {
+			String code = (String) keys.nextElement();
+			Object message = bundle.getObject(code);
+			if (message instanceof String) {
+				messages.put(code, message);
+			}
 		}
+		return messages;
 	}
 
 	/**
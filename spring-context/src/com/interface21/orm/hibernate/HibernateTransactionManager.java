@@ -11,6 +11,8 @@ import net.sf.hibernate.SessionFactory;
 
 import com.interface21.beans.factory.InitializingBean;
 import com.interface21.dao.CleanupFailureDataAccessException;
+import com.interface21.dao.DataAccessException;
+import com.interface21.jdbc.core.UpdateBatch;
 import com.interface21.jdbc.datasource.ConnectionHolder;
 import com.interface21.jdbc.datasource.DataSourceUtils;
 import com.interface21.transaction.CannotCreateTransactionException;
@@ -19,6 +21,7 @@ import com.interface21.transaction.TransactionDefinition;
 import com.interface21.transaction.TransactionException;
 import com.interface21.transaction.TransactionStatus;
 import com.interface21.transaction.TransactionSystemException;
+import com.interface21.transaction.UnexpectedRollbackException;
 import com.interface21.transaction.support.AbstractPlatformTransactionManager;
 
 /**
@@ -189,6 +192,7 @@ public class HibernateTransactionManager extends AbstractPlatformTransactionMana
 		} else {
 			logger.debug("Committing Hibernate transaction");
 			try {
+				flushUpdateBatch(txObject);
 				txObject.getSessionHolder().getTransaction().commit();
 			} catch (net.sf.hibernate.TransactionException ex) {
 				throw new TransactionSystemException("Cannot commit Hibernate transaction", ex.getCause());
@@ -205,11 +209,16 @@ public class HibernateTransactionManager extends AbstractPlatformTransactionMana
 		HibernateTransactionObject txObject = (HibernateTransactionObject) status.getTransaction();
 		logger.debug("Rolling back Hibernate transaction");
 		try {
+			if (this.dataSource != null) {
+				UpdateBatch.closeBatch(txObject.getSessionHolder().getSession().connection(), false);
+			}
 			txObject.getSessionHolder().getTransaction().rollback();
 		} catch (net.sf.hibernate.TransactionException ex) {
 			throw new TransactionSystemException("Cannot rollback Hibernate transaction", ex.getCause());
 		} catch (HibernateException ex) {
 			throw new TransactionSystemException("Cannot rollback Hibernate transaction", ex);
+		} catch (SQLException ex) {
+			throw new TransactionSystemException("Cannot rollback Hibernate transaction", ex);
 		} finally {
 			closeSession(txObject);
 		}
@@ -221,6 +230,25 @@ public class HibernateTransactionManager extends AbstractPlatformTransactionMana
 		txObject.getSessionHolder().setRollbackOnly();
 	}
 
+	/**
+	 * Flush JdbcTemplate updates that have been batched for the transaction's
+	 * JDBC connection, rolling back the transaction if they fail.
+	 * @see com.interface21.jdbc.core.UpdateBatch
+	 */
+	private void flushUpdateBatch(HibernateTransactionObject txObject) throws HibernateException {
+		if (this.dataSource != null) {
+			try {
+				UpdateBatch.closeBatch(txObject.getSessionHolder().getSession().connection(), true);
+			} catch (SQLException ex) {
+				txObject.getSessionHolder().getTransaction().rollback();
+				throw new UnexpectedRollbackException("Batched JDBC update failed", ex);
+			} catch (DataAccessException ex) {
+				txObject.getSessionHolder().getTransaction().rollback();
+				throw new UnexpectedRollbackException("Batched JDBC update failed", ex);
+			}
+		}
+	}
+
 	private void closeSession(HibernateTransactionObject txObject) {
 		if (txObject.isNewSessionHolder()) {
 			// remove the session holder from the thread
@@ -7,6 +7,8 @@ import javax.sql.DataSource;
 
 import com.interface21.beans.factory.InitializingBean;
 import com.interface21.dao.CleanupFailureDataAccessException;
+import com.interface21.dao.DataAccessException;
+import com.interface21.jdbc.core.UpdateBatch;
 import com.interface21.jdbc.datasource.ConnectionHolder;
 import com.interface21.jdbc.datasource.DataSourceUtils;
 import com.interface21.transaction.CannotCreateTransactionException;
@@ -46,6 +48,8 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 
 	private DataSource dataSource;
 
+	private boolean batchUpdates = false;
+
 	/**
 	 * Create a new DataSourceTransactionManager instance.
 	 * A DataSource has to be set to be able to use it.
@@ -79,6 +83,27 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 		return dataSource;
 	}
 
+	/**
+	 * Set whether JdbcTemplate updates within transactions of this manager should
+	 * be queued and sent to the database via JDBC batch updates. Pending updates
+	 * get flushed before queries on the transactional connection and on commit,
+	 * and are discarded on rollback. Default is false.
+	 * <p>Updates of a JdbcTemplate with "batchUpdates" set to true get batched
+	 * in any transaction of this manager, independent of this setting.
+	 * @see com.interface21.jdbc.core.UpdateBatch
+	 * @see com.interface21.jdbc.core.JdbcTemplate#setBatchUpdates
+	 */
+	public final void setBatchUpdates(boolean batchUpdates) {
+		this.batchUpdates = batchUpdates;
+	}
+
+	/**
+	 * Return whether JdbcTemplate updates within transactions get batched.
+	 */
+	public final boolean getBatchUpdates() {
+		return batchUpdates;
+	}
+
 	public void afterPropertiesSet() {
 		if (this.dataSource == null) {
 			throw new IllegalArgumentException("dataSource is required");
@@ -122,6 +147,9 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 			throw new CannotCreateTransactionException("Cannot configure connection", ex);
 		}
 		DataSourceUtils.getThreadObjectManager().bindThreadObject(this.dataSource, txObject.getConnectionHolder());
+		if (this.batchUpdates) {
+			UpdateBatch.openBatch(con);
+		}
 	}
 
 	protected void doCommit(TransactionStatus status) {
@@ -130,9 +158,11 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 			// nested JDBC transaction demanded rollback-only
 			rollback(status);
 		} else {
-			logger.debug("Committing JDBC transaction [" + txObject.getConnectionHolder().getConnection() + "]");
+			Connection con = txObject.getConnectionHolder().getConnection();
+			logger.debug("Committing JDBC transaction [" + con + "]");
 			try {
-				txObject.getConnectionHolder().getConnection().commit();
+				flushUpdateBatch(con);
+				con.commit();
 			} catch (SQLException ex) {
 				throw new UnexpectedRollbackException("Cannot commit", ex);
 			} finally {
@@ -143,9 +173,11 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 
 	protected void doRollback(TransactionStatus status) {
 		DataSourceTransactionObject txObject = (DataSourceTransactionObject) status.getTransaction();
-		logger.debug("Rolling back JDBC transaction [" + txObject.getConnectionHolder().getConnection() + "]");
+		Connection con = txObject.getConnectionHolder().getConnection();
+		logger.debug("Rolling back JDBC transaction [" + con + "]");
 		try {
-			txObject.getConnectionHolder().getConnection().rollback();
+			UpdateBatch.closeBatch(con, false);
+			con.rollback();
 		} catch (SQLException ex) {
 			throw new TransactionSystemException("Cannot rollback", ex);
 		} finally {
@@ -159,6 +191,30 @@ public class DataSourceTransactionManager extends AbstractPlatformTransactionMan
 		txObject.getConnectionHolder().setRollbackOnly();
 	}
 
+	/**
+	 * Flush updates that have been batched for the given transactional connection,
+	 * rolling back the transaction if they cannot be executed as expected.
+	 */
+	private void flushUpdateBatch(Connection con) throws SQLException {
+		try {
+			UpdateBatch.closeBatch(con, true);
+		} catch (SQLException ex) {
+			rollbackAfterFlushFailure(con);
+			throw ex;
+		} catch (DataAccessException ex) {
+			rollbackAfterFlushFailure(con);
+			throw new UnexpectedRollbackException("Batched update failed", ex);
+		}
+	}
+
+	private void rollbackAfterFlushFailure(Connection con) {
+		try {
+			con.rollback();
+		} catch (SQLException ex) {
+			logger.error("Cannot rollback after failure of batched updates", ex);
+		}
+	}
+
 	private void closeConnection(DataSourceTransactionObject txObject) {
 		// remote the connection holder from the thread
 		DataSourceUtils.getThreadObjectManager().removeThreadObject(this.dataSource);
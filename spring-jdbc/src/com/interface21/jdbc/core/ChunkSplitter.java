@@ -0,0 +1,25 @@
+package com.interface21.jdbc.core;
+
+/**
+ * Strategy interface used by ParallelJdbcTemplate to split a query into
+ * chunks that can be executed independently, e.g. by key range.
+ * Each chunk is the same SQL statement with different parameter values.
+ *
+ * @see ParallelJdbcTemplate
+ * @see LongRangeSplitter
+ */
+public interface ChunkSplitter {
+
+	/**
+	 * Return the parameter values for each chunk, in chunk order.
+	 * @return an array with one parameter array per chunk
+	 */
+	Object[][] getChunkParameters();
+
+	/**
+	 * Return the SQL types of the parameters of each chunk,
+	 * as defined in java.sql.Types.
+	 */
+	int[] getParameterTypes();
+
+}
@@ -105,6 +105,36 @@ public class JdbcTemplate implements InitializingBean {
 	 */
 	private SQLExceptionTranslater exceptionTranslater;
 
+	/**
+	 * If this variable is true, we will queue updates on transactional
+	 * connections in an UpdateBatch
+	 */
+	private boolean batchUpdates = false;
+
+	/**
+	 * If this variable is set to a positive value, it will be used for
+	 * setting the fetchSize property on statements used for query processing
+	 */
+	private int fetchSize = 0;
+
+	/**
+	 * If this variable is set to a positive value, it will be used for
+	 * setting the maxRows property on statements used for query processing
+	 */
+	private int maxRows = 0;
+
+	/**
+	 * If this variable is set to a positive value, it will be used for
+	 * setting the queryTimeout property on all statements
+	 */
+	private int queryTimeout = 0;
+
+	/**
+	 * If this variable is false, RowCallbackHandlers and cursors
+	 * will see the JDBC ResultSet directly
+	 */
+	private boolean guardResultSets = true;
+
 
 	//-------------------------------------------------------------------------
 	// Constructors
@@ -191,6 +221,105 @@ public class JdbcTemplate implements InitializingBean {
 		return this.exceptionTranslater;
 	}
 
+	/**
+	 * Set whether updates on transactional connections should be queued
+	 * and sent to the database via JDBC batch updates. Consecutive updates
+	 * with identical SQL are executed with a single round trip then.
+	 * Default is false.
+	 * <p>Batching only applies to connections bound to the thread, e.g. by
+	 * DataSourceTransactionManager, which flushes pending updates on commit.
+	 * Pending updates are also flushed before any query on the same connection.
+	 * Queued updates return UpdateBatch.DEFERRED_UPDATE_COUNT as update count;
+	 * use flushBatchedUpdates to obtain the actual counts.
+	 * <p>Batching can also be activated for all transactions of a
+	 * DataSourceTransactionManager, via its "batchUpdates" property.
+	 * @see UpdateBatch
+	 * @see #flushBatchedUpdates
+	 * @see com.interface21.transaction.datasource.DataSourceTransactionManager#setBatchUpdates
+	 */
+	public void setBatchUpdates(boolean batchUpdates) {
+		this.batchUpdates = batchUpdates;
+	}
+
+	/**
+	 * Return whether updates on transactional connections get batched.
+	 */
+	public boolean getBatchUpdates() {
+		return batchUpdates;
+	}
+
+	/**
+	 * Set the fetch size for queries, i.e. the number of rows that the driver
+	 * should fetch from the database per round trip. Default is 0, meaning
+	 * the driver's default. Setting this is important for processing large
+	 * results with drivers that fetch the whole result by default.
+	 * @see java.sql.Statement#setFetchSize
+	 * @see #openCursor(PreparedStatementCreator, RowExtracter)
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Return the fetch size specified for queries.
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Set the maximum number of rows that queries should return.
+	 * Further rows are silently dropped by the driver. Default is 0,
+	 * meaning no limit.
+	 * @see java.sql.Statement#setMaxRows
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * Return the maximum number of rows specified for queries.
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	/**
+	 * Set the number of seconds the driver should wait for a statement
+	 * to execute. Default is 0, meaning no limit.
+	 * @see java.sql.Statement#setQueryTimeout
+	 */
+	public void setQueryTimeout(int queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+
+	/**
+	 * Return the query timeout for statements, in seconds.
+	 */
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * Set whether RowCallbackHandlers and ResultSetCursors should see the
+	 * ResultSet through a ReadOnlyResultSet, which throws an exception on
+	 * navigation and update calls. Default is true.
+	 * <p>Turn this off in production to pass the JDBC ResultSet through
+	 * directly, avoiding the delegation on every column access, once the
+	 * application's callbacks are known not to navigate the ResultSet.
+	 * @see ReadOnlyResultSet
+	 */
+	public void setGuardResultSets(boolean guardResultSets) {
+		this.guardResultSets = guardResultSets;
+	}
+
+	/**
+	 * Return whether callbacks see the ResultSet through a ReadOnlyResultSet.
+	 */
+	public boolean getGuardResultSets() {
+		return guardResultSets;
+	}
+
 	public void afterPropertiesSet() {
 		if (this.dataSource == null) {
 			throw new IllegalArgumentException("dataSource is required");
@@ -245,7 +374,9 @@ public class JdbcTemplate implements InitializingBean {
 		ResultSet rs = null;
 		try {
 			con = DataSourceUtils.getConnection(this.dataSource);
+			flushUpdateBatchIfNecessary(con);
 			s = con.createStatement();
+			applyQuerySettings(s);
 			rs = s.executeQuery(sql);
 
 			if (logger.isInfoEnabled())
@@ -292,7 +423,9 @@ public class JdbcTemplate implements InitializingBean {
 		ResultSet rs = null;
 		try {
 			con = DataSourceUtils.getConnection(this.dataSource);
+			flushUpdateBatchIfNecessary(con);
 			PreparedStatement ps = psc.createPreparedStatement(con);
+			applyQuerySettings(ps);
 			if (logger.isInfoEnabled())
 				logger.info("Executing SQL query using PreparedStatement: [" + psc + "]");
 			rs = ps.executeQuery();
@@ -348,6 +481,89 @@ public class JdbcTemplate implements InitializingBean {
 		}
 	}
 
+	/**
+	 * Open a cursor over the results of the given static SQL query.
+	 * Uses a JDBC Statement, not a PreparedStatement.
+	 * <p>In contrast to the query methods, rows are only read from the
+	 * ResultSet when the cursor is advanced, so large results can be processed
+	 * in constant memory, given a suitable fetch size. The connection is held
+	 * until the cursor is closed: callers must close it in a finally block.
+	 *
+	 * @param sql          SQL query to execute
+	 * @param rowExtracter object that will extract an object from each row,
+	 *                     or null to expose the rows themselves
+	 * @return the cursor, positioned before the first row
+	 * @throws DataAccessException if there is any problem executing the query
+	 * @see #setFetchSize
+	 */
+	public ResultSetCursor openCursor(String sql, RowExtracter rowExtracter) throws DataAccessException {
+		if (sql == null)
+			throw new InvalidDataAccessApiUsageException("SQL may not be null");
+		if (containsBindVariables(sql))
+			throw new InvalidDataAccessApiUsageException("Cannot execute '" + sql + "' as a static query: it contains bind variables");
+
+		Connection con = null;
+		Statement s = null;
+		try {
+			con = DataSourceUtils.getConnection(this.dataSource);
+			flushUpdateBatchIfNecessary(con);
+			s = con.createStatement();
+			applyQuerySettings(s);
+			if (logger.isInfoEnabled())
+				logger.info("Opening cursor for static SQL query '" + sql + "' using a java.sql.Statement");
+			ResultSet rs = s.executeQuery(sql);
+			return new ResultSetCursor(con, this.dataSource, s, rs, this.guardResultSets, rowExtracter,
+			                           getExceptionTranslater(), sql);
+		} catch (SQLException ex) {
+			closeStatementAfterFailure(s);
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+			throw getExceptionTranslater().translate("JdbcTemplate.openCursor(sql)", sql, ex);
+		} catch (RuntimeException ex) {
+			closeStatementAfterFailure(s);
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Open a cursor over the results of a query using a prepared statement.
+	 * <p>In contrast to the query methods, rows are only read from the
+	 * ResultSet when the cursor is advanced, so large results can be processed
+	 * in constant memory, given a suitable fetch size. The connection is held
+	 * until the cursor is closed: callers must close it in a finally block.
+	 *
+	 * @param psc          Callback handler that can create a PreparedStatement
+	 *                     given a Connection
+	 * @param rowExtracter object that will extract an object from each row,
+	 *                     or null to expose the rows themselves
+	 * @return the cursor, positioned before the first row
+	 * @throws DataAccessException if there is any problem executing the query
+	 * @see #setFetchSize
+	 */
+	public ResultSetCursor openCursor(PreparedStatementCreator psc, RowExtracter rowExtracter) throws DataAccessException {
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DataSourceUtils.getConnection(this.dataSource);
+			flushUpdateBatchIfNecessary(con);
+			ps = psc.createPreparedStatement(con);
+			applyQuerySettings(ps);
+			if (logger.isInfoEnabled())
+				logger.info("Opening cursor for SQL query using PreparedStatement: [" + psc + "]");
+			ResultSet rs = ps.executeQuery();
+			return new ResultSetCursor(con, this.dataSource, ps, rs, this.guardResultSets, rowExtracter,
+			                           getExceptionTranslater(), psc.getSql());
+		} catch (SQLException ex) {
+			closeStatementAfterFailure(ps);
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+			throw getExceptionTranslater().translate("JdbcTemplate.openCursor(psc) with PreparedStatementCreator [" + psc + "]", null, ex);
+		} catch (RuntimeException ex) {
+			closeStatementAfterFailure(ps);
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+			throw ex;
+		}
+	}
+
 	/**
 	 * Return whether the given SQL String contains bind variables
 	 */
@@ -373,35 +589,69 @@ public class JdbcTemplate implements InitializingBean {
 	 * parameters
 	 *
 	 * @param psc helper: callback object that provides SQL and any necessary parameters
-	 * @return the number of rows affected
+	 * @return the number of rows affected, or UpdateBatch.DEFERRED_UPDATE_COUNT
+	 * if the update has been queued in a batch
 	 * @throws DataAccessException if there is any problem issuing the update
+	 * @see #setBatchUpdates
 	 */
 	public int update(PreparedStatementCreator psc) throws DataAccessException {
 		return update(new PreparedStatementCreator[]{psc})[0];
 	}
 
+	/**
+	 * Issue an update using a PreparedStatementCreator to provide SQL and any required
+	 * parameters, checking the number of rows affected. If the update gets queued
+	 * in a batch, the check will be performed when the batch is flushed.
+	 *
+	 * @param psc helper: callback object that provides SQL and any necessary parameters
+	 * @param maxRowsAffected the maximum number of rows that may be affected (0 for no limit)
+	 * @param requiredRowsAffected the exact number of rows that must be affected (0 for any)
+	 * @return the number of rows affected, or UpdateBatch.DEFERRED_UPDATE_COUNT
+	 * if the update has been queued in a batch
+	 * @throws JdbcUpdateAffectedIncorrectNumberOfRowsException if the update
+	 * did not affect the expected number of rows
+	 * @throws DataAccessException if there is any problem issuing the update
+	 */
+	public int update(PreparedStatementCreator psc, int maxRowsAffected, int requiredRowsAffected)
+	    throws DataAccessException {
+		return doUpdate(new PreparedStatementCreator[]{psc}, maxRowsAffected, requiredRowsAffected)[0];
+	}
+
 	/**
 	 * Issue multiple updates using multiple PreparedStatementCreators to provide SQL and any required
 	 * parameters
 	 *
 	 * @param pscs array of helpers: callback object that provides SQL and any necessary parameters
 	 * @return an array of the number of rows affected by each statement
+	 * (UpdateBatch.DEFERRED_UPDATE_COUNT for each update queued in a batch)
 	 * @throws DataAccessException if there is any problem issuing the update
 	 */
 	public int[] update(PreparedStatementCreator[] pscs) throws DataAccessException {
+		return doUpdate(pscs, 0, 0);
+	}
+
+	private int[] doUpdate(PreparedStatementCreator[] pscs, int maxRowsAffected, int requiredRowsAffected)
+	    throws DataAccessException {
 		Connection con = null;
 		int index = 0;
 		try {
 			con = DataSourceUtils.getConnection(this.dataSource);
+			UpdateBatch batch = getUpdateBatch(con);
 			int[] retvals = new int[pscs.length];
 			for (index = 0; index < retvals.length; index++) {
+				if (batch != null) {
+					retvals[index] = batch.addUpdate(pscs[index], maxRowsAffected, requiredRowsAffected);
+					continue;
+				}
 				PreparedStatement ps = pscs[index].createPreparedStatement(con);
+				applyStatementSettings(ps);
 				if (logger.isInfoEnabled())
 					logger.info("Executing SQL update using PreparedStatement: [" + pscs[index] + "]");
 				retvals[index] = ps.executeUpdate();
 				if (logger.isInfoEnabled())
 					logger.info("JDBCTemplate: update affected " + retvals[index] + " rows");
 				ps.close();
+				UpdateBatch.checkRowsAffected(pscs[index].getSql(), maxRowsAffected, requiredRowsAffected, retvals[index]);
 			}
 
 			// Don't worry about warnings, as we're more likely to get exception on updates
@@ -459,29 +709,162 @@ public class JdbcTemplate implements InitializingBean {
 	 * @throws DataAccessException if there is any problem issuing the update
 	 */
 	public int[] batchUpdate(String sql, BatchPreparedStatementSetter setter) throws DataAccessException {
+		return batchUpdate(sql, setter, 0);
+	}
+
+	/**
+	 * Issue multiple updates using JDBC 2.0 batch updates, sending them to the
+	 * database in chunks of the given size. Many drivers limit the number of
+	 * statements per batch or buffer the whole batch in memory, so large numbers
+	 * of updates should be split into chunks of a few hundred or thousand each.
+	 * <p>If a chunk fails, the exception message indicates the rows of that
+	 * chunk; the previous chunks have been executed at that point.
+	 *
+	 * @param sql       defining PreparedStatement that will be reused.
+	 *                  All statements in the batch will use the same SQL.
+	 * @param setter    object to set parameters on the
+	 *                  PreparedStatement created by this method
+	 * @param chunkSize maximum number of statements per JDBC batch,
+	 *                  or 0 to send all statements in a single batch
+	 * @return an array of the number of rows affected by each statement
+	 * @throws DataAccessException if there is any problem issuing the update
+	 */
+	public int[] batchUpdate(String sql, BatchPreparedStatementSetter setter, int chunkSize) throws DataAccessException {
+		int batchSize = setter.getBatchSize();
+		if (chunkSize <= 0 || chunkSize > batchSize) {
+			chunkSize = batchSize;
+		}
+		int[] retvals = new int[batchSize];
+		int chunkStart = 0;
 		Connection con = null;
 		try {
 			con = DataSourceUtils.getConnection(this.dataSource);
+			flushUpdateBatchIfNecessary(con);
 			PreparedStatement ps = con.prepareStatement(sql);
-			int batchSize = setter.getBatchSize();
-			for (int i = 0; i < batchSize; i++) {
-				setter.setValues(ps, i);
-				ps.addBatch();
+			applyStatementSettings(ps);
+			while (chunkStart < batchSize) {
+				int chunkEnd = Math.min(chunkStart + chunkSize, batchSize);
+				for (int i = chunkStart; i < chunkEnd; i++) {
+					setter.setValues(ps, i);
+					ps.addBatch();
+				}
+				int[] chunkRetvals = ps.executeBatch();
+				System.arraycopy(chunkRetvals, 0, retvals, chunkStart, Math.min(chunkRetvals.length, chunkEnd - chunkStart));
+				chunkStart = chunkEnd;
 			}
 
-			int[] retvals = ps.executeBatch();
-
 			ps.close();
 			return retvals;
 		} catch (SQLException ex) {
-			throw getExceptionTranslater().translate("processing batch update " +
-					" with size=" + setter.getBatchSize() + "; update was [" + sql + "]", sql, ex);
+			String task = "processing batch update with size=" + batchSize;
+			if (chunkSize < batchSize) {
+				task += "; failed in chunk of rows " + chunkStart + " to " + (Math.min(chunkStart + chunkSize, batchSize) - 1) +
+				    ", with previous rows executed";
+			}
+			throw getExceptionTranslater().translate(task + "; update was [" + sql + "]", sql, ex);
 		} finally {
 			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
 		}
 	}
 
 
+	/**
+	 * Flush the updates that have been queued in a batch for the connection
+	 * bound to the current thread, if any.
+	 *
+	 * @return the update counts of all updates flushed in the current batch
+	 * so far, in submission order, or null if there is no batch
+	 * @throws JdbcUpdateAffectedIncorrectNumberOfRowsException if a flushed
+	 * update did not affect the expected number of rows
+	 * @throws DataAccessException if there is any problem flushing the updates
+	 * @see #setBatchUpdates
+	 */
+	public int[] flushBatchedUpdates() throws DataAccessException {
+		Connection con = null;
+		try {
+			con = DataSourceUtils.getConnection(this.dataSource);
+			UpdateBatch batch = UpdateBatch.getBatch(con);
+			if (batch == null) {
+				return null;
+			}
+			batch.flush();
+			return batch.getUpdateCounts();
+		} catch (SQLException ex) {
+			throw getExceptionTranslater().translate("flushing batched updates", null, ex);
+		} finally {
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+		}
+	}
+
+	/**
+	 * Return the batch to queue updates on the given connection in,
+	 * opening one if batching is active for this template.
+	 *
+	 * @return the batch, or null if updates should be executed immediately
+	 */
+	private UpdateBatch getUpdateBatch(Connection con) {
+		UpdateBatch batch = UpdateBatch.getBatch(con);
+		if (batch == null && this.batchUpdates && DataSourceUtils.isConnectionBoundToThread(con, this.dataSource)) {
+			// will be flushed and released by the transaction manager
+			batch = UpdateBatch.openBatch(con);
+		}
+		return batch;
+	}
+
+	/**
+	 * Flush pending updates for the given connection, so that
+	 * subsequent statements see their effects.
+	 */
+	private void flushUpdateBatchIfNecessary(Connection con) throws SQLException {
+		UpdateBatch batch = UpdateBatch.getBatch(con);
+		if (batch != null && batch.hasPendingUpdates()) {
+			batch.flush();
+		}
+	}
+
+	/**
+	 * Apply the statement settings specified for this template
+	 * (currently the query timeout) to the given statement.
+	 * Used for updates.
+	 *
+	 * @param stmt the JDBC Statement to prepare
+	 */
+	protected void applyStatementSettings(Statement stmt) throws SQLException {
+		if (this.queryTimeout > 0) {
+			stmt.setQueryTimeout(this.queryTimeout);
+		}
+	}
+
+	/**
+	 * Apply the statement settings and the query settings specified for this
+	 * template (fetch size and maximum number of rows) to the given statement.
+	 * Used for queries.
+	 *
+	 * @param stmt the JDBC Statement to prepare
+	 */
+	protected void applyQuerySettings(Statement stmt) throws SQLException {
+		applyStatementSettings(stmt);
+		if (this.fetchSize > 0) {
+			stmt.setFetchSize(this.fetchSize);
+		}
+		if (this.maxRows > 0) {
+			stmt.setMaxRows(this.maxRows);
+		}
+	}
+
+	/**
+	 * Close the given statement after a failure, ignoring any exception.
+	 */
+	private void closeStatementAfterFailure(Statement stmt) {
+		if (stmt != null) {
+			try {
+				stmt.close();
+			} catch (SQLException ex) {
+				logger.warn("Could not close JDBC Statement", ex);
+			}
+		}
+	}
+
 	/**
 	 * Convenience method to throw a JdbcSqlWarningException if we're
 	 * not ignoring warnings
@@ -504,7 +887,8 @@ public class JdbcTemplate implements InitializingBean {
 	 * Adapter to enable use of a RowCallbackHandler inside a
 	 * ResultSetExtracter. Uses a ReadOnlyResultSet to
 	 * ensure that the underlying ResultSet isn't used illegally
-	 * (for example, for navigation).
+	 * (for example, for navigation), unless guarding is turned off.
+	 * @see #setGuardResultSets
 	 */
 	private final class RowCallbackHandlerResultSetExtracter implements ResultSetExtracter {
 
@@ -525,7 +909,7 @@ public class JdbcTemplate implements InitializingBean {
 		 * @see com.interface21.jdbc.core.ResultSetExtracter#extractData(java.sql.ResultSet)
 		 */
 		public void extractData(ResultSet rs) throws SQLException {
-			ReadOnlyResultSet rors = new ReadOnlyResultSet(rs);
+			ResultSet rors = (guardResultSets ? new ReadOnlyResultSet(rs) : rs);
 			while (rs.next()) {
 				this.callbackHandler.processRow(rors);
 			}
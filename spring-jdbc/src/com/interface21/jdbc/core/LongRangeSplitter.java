@@ -0,0 +1,58 @@
+package com.interface21.jdbc.core;
+
+import java.sql.Types;
+
+/**
+ * ChunkSplitter that splits a range of numeric keys into contiguous
+ * ranges of about equal size. Each chunk gets two BIGINT parameters:
+ * the lower bound (inclusive) and the upper bound (exclusive) of its
+ * range, to be used in SQL like "... where id >= ? and id < ?".
+ */
+public class LongRangeSplitter implements ChunkSplitter {
+
+	private static final int[] PARAMETER_TYPES = new int[] {Types.BIGINT, Types.BIGINT};
+
+	private final long minKey;
+
+	private final long maxKey;
+
+	private final int chunkCount;
+
+	/**
+	 * Create a new LongRangeSplitter.
+	 * @param minKey the lowest key to include
+	 * @param maxKey the key after the highest key to include
+	 * @param chunkCount the number of chunks to split the range into.
+	 * Fewer chunks are created if the range has fewer keys.
+	 */
+	public LongRangeSplitter(long minKey, long maxKey, int chunkCount) {
+		if (maxKey < minKey) {
+			throw new IllegalArgumentException("maxKey must not be less than minKey");
+		}
+		if (chunkCount <= 0) {
+			throw new IllegalArgumentException("chunkCount must be greater than 0");
+		}
+		this.minKey = minKey;
+		this.maxKey = maxKey;
+		this.chunkCount = chunkCount;
+	}
+
+	public Object[][] getChunkParameters() {
+		long range = this.maxKey - this.minKey;
+		int count = (int) Math.max(1, Math.min(this.chunkCount, range));
+		Object[][] chunks = new Object[count][];
+		long lower = this.minKey;
+		for (int i = 0; i < count; i++) {
+			// distribute the remainder over the first chunks
+			long upper = lower + range / count + (i < range % count ? 1 : 0);
+			chunks[i] = new Object[] {new Long(lower), new Long(upper)};
+			lower = upper;
+		}
+		return chunks;
+	}
+
+	public int[] getParameterTypes() {
+		return PARAMETER_TYPES;
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.interface21.jdbc.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.interface21.dao.InvalidDataAccessApiUsageException;
+
+/**
+ * Helper methods for SQL statements with named parameters like ":name".
+ *
+ * <p>Parsed statements are cached by SQL string, so each statement is
+ * normally only parsed once, outside of the cache's lock. The cache holds
+ * up to CACHE_LIMIT statements, evicting the least recently used one when
+ * full, so that dynamically built SQL does not make it grow without bounds.
+ * Statements longer than CACHE_SQL_LENGTH_LIMIT characters are not cached.
+ *
+ * <p>Placeholders within single or double quotes, "--" line comments and
+ * C-style block comments are ignored, as are PostgreSQL-style "::" casts.
+ * Whether named parameters are actually used for a statement is up to the
+ * caller: see PreparedStatementCreatorFactory.
+ *
+ * @see ParsedSql
+ * @see PreparedStatementCreatorFactory
+ */
+public abstract class NamedParameterUtils {
+
+	/** Maximum number of parsed statements to cache */
+	public static final int CACHE_LIMIT = 256;
+
+	/** Maximum length of statements to cache */
+	public static final int CACHE_SQL_LENGTH_LIMIT = 4096;
+
+	/**
+	 * Cache of parsed statements: SQL String -> CachedParsedSql.
+	 * Synchronized on this class. Statements are parsed outside of the lock.
+	 */
+	private static final Map parsedSqlCache = new HashMap();
+
+	/** Counter for the last access of cached statements, for LRU eviction */
+	private static long accessCount = 0;
+
+
+	/**
+	 * Parse the given SQL statement, returning a cached result if available.
+	 * @param sql the SQL statement, with named parameters or "?" placeholders
+	 * @return the parsed statement
+	 */
+	public static ParsedSql parseSqlStatement(String sql) {
+		synchronized (NamedParameterUtils.class) {
+			CachedParsedSql cached = (CachedParsedSql) parsedSqlCache.get(sql);
+			if (cached != null) {
+				cached.lastAccess = ++accessCount;
+				return cached.parsedSql;
+			}
+		}
+		ParsedSql parsedSql = doParseSqlStatement(sql);
+		if (sql.length() <= CACHE_SQL_LENGTH_LIMIT) {
+			synchronized (NamedParameterUtils.class) {
+				if (parsedSqlCache.size() >= CACHE_LIMIT && !parsedSqlCache.containsKey(sql)) {
+					evictLeastRecentlyUsed();
+				}
+				parsedSqlCache.put(sql, new CachedParsedSql(parsedSql, ++accessCount));
+			}
+		}
+		return parsedSql;
+	}
+
+	/**
+	 * Remove the least recently used statement from the cache.
+	 * Must be called with the lock on this class held.
+	 */
+	private static void evictLeastRecentlyUsed() {
+		Object lruKey = null;
+		long lruAccess = Long.MAX_VALUE;
+		for (Iterator it = parsedSqlCache.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			CachedParsedSql cached = (CachedParsedSql) entry.getValue();
+			if (cached.lastAccess < lruAccess) {
+				lruKey = entry.getKey();
+				lruAccess = cached.lastAccess;
+			}
+		}
+		parsedSqlCache.remove(lruKey);
+	}
+
+	private static ParsedSql doParseSqlStatement(String sql) {
+		List names = new ArrayList();
+		List startIndexes = new ArrayList();
+		List endIndexes = new ArrayList();
+		StringBuffer jdbcSql = new StringBuffer(sql.length());
+		int len = sql.length();
+		int i = 0;
+		while (i < len) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				// skip literal, escaped quotes are just two adjacent literals
+				int end = sql.indexOf(c, i + 1);
+				if (end == -1) {
+					end = len - 1;
+				}
+				jdbcSql.append(sql.substring(i, end + 1));
+				i = end + 1;
+			} else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				// skip comment up to the end of the line
+				int end = sql.indexOf('\n', i + 2);
+				if (end == -1) {
+					end = len - 1;
+				}
+				jdbcSql.append(sql.substring(i, end + 1));
+				i = end + 1;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				// skip comment up to the closing "*/"
+				int end = sql.indexOf("*/", i + 2);
+				end = (end != -1 ? end + 2 : len);
+				jdbcSql.append(sql.substring(i, end));
+				i = end;
+			} else if (c == ':' && i + 1 < len && sql.charAt(i + 1) == ':') {
+				jdbcSql.append("::");
+				i += 2;
+			} else if (c == ':' && i + 1 < len && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+				int end = i + 2;
+				while (end < len && Character.isJavaIdentifierPart(sql.charAt(end))) {
+					end++;
+				}
+				names.add(sql.substring(i + 1, end));
+				startIndexes.add(new Integer(i));
+				endIndexes.add(new Integer(end));
+				jdbcSql.append('?');
+				i = end;
+			} else {
+				if (c == '?') {
+					names.add(null);
+					startIndexes.add(new Integer(i));
+					endIndexes.add(new Integer(i + 1));
+				}
+				jdbcSql.append(c);
+				i++;
+			}
+		}
+		int[] starts = new int[names.size()];
+		int[] ends = new int[names.size()];
+		for (int j = 0; j < starts.length; j++) {
+			starts[j] = ((Integer) startIndexes.get(j)).intValue();
+			ends[j] = ((Integer) endIndexes.get(j)).intValue();
+		}
+		return new ParsedSql(sql, jdbcSql.toString(), (String[]) names.toArray(new String[names.size()]), starts, ends);
+	}
+
+	/**
+	 * Build the JDBC form of the given statement for the given placeholder
+	 * values, expanding each Collection value into a list of "?" placeholders,
+	 * one per element: e.g. for use in an IN clause.
+	 * @param parsedSql the parsed statement
+	 * @param values the value for each placeholder, in order of occurrence
+	 * @return the SQL statement to prepare
+	 * @throws InvalidDataAccessApiUsageException if a Collection value is empty
+	 */
+	public static String substituteParameters(ParsedSql parsedSql, Object[] values)
+	    throws InvalidDataAccessApiUsageException {
+		String sql = parsedSql.getSql();
+		StringBuffer sb = new StringBuffer(sql.length() + 16);
+		int last = 0;
+		for (int i = 0; i < parsedSql.getPlaceholderCount(); i++) {
+			sb.append(sql.substring(last, parsedSql.getStartIndex(i)));
+			if (values[i] instanceof Collection) {
+				int size = ((Collection) values[i]).size();
+				if (size == 0) {
+					throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': cannot expand empty Collection for parameter " +
+					                                             (i + 1));
+				}
+				for (int j = 0; j < size; j++) {
+					if (j > 0) {
+						sb.append(", ");
+					}
+					sb.append('?');
+				}
+			} else {
+				sb.append('?');
+			}
+			last = parsedSql.getEndIndex(i);
+		}
+		sb.append(sql.substring(last));
+		return sb.toString();
+	}
+
+
+	/**
+	 * Cache entry: parsed statement and the time of its last access.
+	 */
+	private static class CachedParsedSql {
+
+		private final ParsedSql parsedSql;
+
+		private long lastAccess;
+
+		private CachedParsedSql(ParsedSql parsedSql, long lastAccess) {
+			this.parsedSql = parsedSql;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+}
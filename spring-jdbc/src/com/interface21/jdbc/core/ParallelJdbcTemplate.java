@@ -0,0 +1,406 @@
+package com.interface21.jdbc.core;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.interface21.dao.DataAccessException;
+import com.interface21.dao.DataAccessResourceFailureException;
+
+/**
+ * JdbcTemplate that can split a query into chunks, e.g. by key range,
+ * and execute the chunks concurrently. Intended for queries over large
+ * tables, like reporting or extracts, that would otherwise be limited
+ * to a single database connection and thread.
+ *
+ * <p>The chunks are executed by a pool of at most "maxConcurrency" daemon
+ * threads, shared by all queries of this template. The threads are started
+ * on demand and reused, ending after being idle for a minute. Each chunk is
+ * executed with the settings of this template, on its own connection from
+ * the DataSource: it does not participate in a transaction of the calling
+ * thread. A connection pool should thus allow for at least maxConcurrency
+ * additional connections. As the calling thread waits for the pool threads,
+ * a RowCallbackHandler must not execute a chunked query with the same
+ * template itself.
+ *
+ * <p>If a chunk fails, no further chunks are started, and the exception of
+ * the first failed chunk is thrown to the caller once the running chunks
+ * have finished. Rows of chunks that did succeed may already have been
+ * passed to a RowCallbackHandler at that point. If the calling thread is
+ * interrupted, the running chunks are stopped at their next row, and the
+ * handlers are not called anymore once the query method has returned.
+ *
+ * @see ChunkSplitter
+ * @see #setMaxConcurrency
+ */
+public class ParallelJdbcTemplate extends JdbcTemplate {
+
+	/** Milliseconds after which an idle worker thread ends */
+	private static final long WORKER_IDLE_TIMEOUT = 60000;
+
+	private int maxConcurrency = 4;
+
+	/**
+	 * Chunked queries that may have chunks left to execute: ChunkExecution
+	 * objects. Also the lock for the worker thread count.
+	 */
+	private final LinkedList executions = new LinkedList();
+
+	private int workerCount = 0;
+
+
+	/**
+	 * Construct a new ParallelJdbcTemplate.
+	 * Note: The DataSource has to be set before using the instance.
+	 * @see #setDataSource
+	 */
+	public ParallelJdbcTemplate() {
+	}
+
+	/**
+	 * Construct a new ParallelJdbcTemplate, given a DataSource to obtain connections from.
+	 * @param dataSource J2EE DataSource to obtain connections from
+	 * @throws InvalidParameterException when dataSource is null
+	 */
+	public ParallelJdbcTemplate(DataSource dataSource) throws InvalidParameterException {
+		super(dataSource);
+	}
+
+	/**
+	 * Set the maximum number of chunks to execute concurrently, i.e. the
+	 * maximum number of threads and connections used by this template's
+	 * chunked queries. Default is 4.
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency <= 0) {
+			throw new IllegalArgumentException("maxConcurrency must be greater than 0");
+		}
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * Return the maximum number of chunks to execute concurrently.
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+
+	/**
+	 * Execute the given query once per chunk, concurrently, passing all rows
+	 * to the given callback handler. The handler will be called by multiple
+	 * threads at the same time, so it needs to be thread-safe. Rows arrive
+	 * in no particular order.
+	 * @param sql SQL with placeholders for the parameters of each chunk
+	 * @param splitter strategy that determines the chunks
+	 * @param callbackHandler thread-safe handler for the rows of all chunks
+	 * @throws DataAccessException if a chunk failed
+	 */
+	public void queryInChunks(String sql, ChunkSplitter splitter, RowCallbackHandler callbackHandler)
+	    throws DataAccessException {
+		Object[][] chunkParameters = splitter.getChunkParameters();
+		RowCallbackHandler[] handlers = new RowCallbackHandler[chunkParameters.length];
+		for (int i = 0; i < handlers.length; i++) {
+			handlers[i] = callbackHandler;
+		}
+		executeChunks(sql, splitter.getParameterTypes(), chunkParameters, handlers);
+	}
+
+	/**
+	 * Execute the given query once per chunk, concurrently, and return the
+	 * extracted rows of all chunks in chunk order: i.e. in the same order as
+	 * a single query would return them, if ordered by the split key.
+	 * The row number passed to the RowExtracter is the number of the row
+	 * within its chunk.
+	 * @param sql SQL with placeholders for the parameters of each chunk
+	 * @param splitter strategy that determines the chunks
+	 * @param rowExtracter object to turn each row into a result object.
+	 * Called by multiple threads at the same time.
+	 * @return the List of result objects of all chunks
+	 * @throws DataAccessException if a chunk failed
+	 */
+	public List queryInChunks(String sql, ChunkSplitter splitter, RowExtracter rowExtracter)
+	    throws DataAccessException {
+		Object[][] chunkParameters = splitter.getChunkParameters();
+		ChunkResultCollector[] collectors = new ChunkResultCollector[chunkParameters.length];
+		for (int i = 0; i < collectors.length; i++) {
+			collectors[i] = new ChunkResultCollector(rowExtracter);
+		}
+		executeChunks(sql, splitter.getParameterTypes(), chunkParameters, collectors);
+		int size = 0;
+		for (int i = 0; i < collectors.length; i++) {
+			size += collectors[i].results.size();
+		}
+		List results = new ArrayList(size);
+		for (int i = 0; i < collectors.length; i++) {
+			results.addAll(collectors[i].results);
+		}
+		return results;
+	}
+
+	/**
+	 * Execute the chunks with the given parameters, each with its
+	 * respective callback handler, and wait for all of them to finish.
+	 */
+	private void executeChunks(String sql, int[] types, Object[][] chunkParameters, RowCallbackHandler[] handlers)
+	    throws DataAccessException {
+		PreparedStatementCreatorFactory pscf = new PreparedStatementCreatorFactory(sql, types);
+		ChunkExecution execution = new ChunkExecution(pscf, chunkParameters, handlers);
+		logger.info("Executing SQL query [" + sql + "] in " + chunkParameters.length + " chunks");
+		submit(execution);
+		try {
+			execution.waitForCompletion();
+		} catch (InterruptedException ex) {
+			execution.abort();
+			execution.waitForAbortedChunks();
+			// keep the interrupt for the caller to see
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException("Interrupted while waiting for chunked query", ex);
+		}
+		execution.rethrowFailure();
+	}
+
+	/**
+	 * Hand the given execution to the worker threads, starting more
+	 * threads if there are fewer than maxConcurrency.
+	 */
+	private void submit(ChunkExecution execution) {
+		synchronized (this.executions) {
+			this.executions.addLast(execution);
+			int threadCount = Math.min(this.maxConcurrency, execution.chunkParameters.length);
+			while (this.workerCount < threadCount) {
+				this.workerCount++;
+				Thread worker = new Thread(new Worker(), "ParallelJdbcTemplate-" + this.workerCount);
+				worker.setDaemon(true);
+				worker.start();
+			}
+			this.executions.notifyAll();
+		}
+	}
+
+	/**
+	 * Return an execution that has chunks left, waiting for one if necessary.
+	 * Called by the worker threads.
+	 * @return the execution, or null if the calling worker thread has been
+	 * idle for WORKER_IDLE_TIMEOUT and should end
+	 */
+	private ChunkExecution awaitExecution() {
+		synchronized (this.executions) {
+			long idleEnd = System.currentTimeMillis() + WORKER_IDLE_TIMEOUT;
+			while (true) {
+				for (Iterator it = this.executions.iterator(); it.hasNext();) {
+					ChunkExecution execution = (ChunkExecution) it.next();
+					if (execution.hasChunksLeft()) {
+						return execution;
+					}
+					it.remove();
+				}
+				long timeout = idleEnd - System.currentTimeMillis();
+				if (timeout <= 0) {
+					this.workerCount--;
+					return null;
+				}
+				try {
+					this.executions.wait(timeout);
+				} catch (InterruptedException ex) {
+					// only an aborted execution interrupts, and none is running here
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Executes chunks of any chunked query of this template.
+	 */
+	private class Worker implements Runnable {
+
+		public void run() {
+			ChunkExecution execution;
+			while ((execution = awaitExecution()) != null) {
+				int chunk = execution.takeChunk();
+				if (chunk != -1) {
+					execution.executeChunk(chunk);
+					// clear an interrupt from an abort, before the next chunk
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * State of the execution of a chunked query, shared by the worker threads.
+	 */
+	private class ChunkExecution {
+
+		private final PreparedStatementCreatorFactory preparedStatementFactory;
+
+		private final Object[][] chunkParameters;
+
+		private final RowCallbackHandler[] handlers;
+
+		private int nextChunk = 0;
+
+		/** Handlers of the chunks being executed: ChunkHandler objects */
+		private final List runningChunks = new ArrayList();
+
+		private boolean aborted = false;
+
+		private RuntimeException failure;
+
+		private ChunkExecution(PreparedStatementCreatorFactory pscf, Object[][] chunkParameters,
+		                       RowCallbackHandler[] handlers) {
+			this.preparedStatementFactory = pscf;
+			this.chunkParameters = chunkParameters;
+			this.handlers = handlers;
+		}
+
+		private synchronized boolean hasChunksLeft() {
+			return (!this.aborted && this.failure == null && this.nextChunk < this.chunkParameters.length);
+		}
+
+		/**
+		 * Return the index of the next chunk to execute,
+		 * or -1 if there are no more chunks or the execution failed.
+		 */
+		private synchronized int takeChunk() {
+			if (!hasChunksLeft()) {
+				return -1;
+			}
+			return this.nextChunk++;
+		}
+
+		/**
+		 * Execute the given chunk in the calling thread.
+		 */
+		private void executeChunk(int chunk) {
+			ChunkHandler handler = new ChunkHandler(this.handlers[chunk]);
+			synchronized (this) {
+				if (this.aborted) {
+					return;
+				}
+				this.runningChunks.add(handler);
+			}
+			try {
+				query(this.preparedStatementFactory.newPreparedStatementCreator(this.chunkParameters[chunk]), handler);
+			} catch (RuntimeException ex) {
+				chunkFailed(chunk, ex);
+			} finally {
+				synchronized (this) {
+					this.runningChunks.remove(handler);
+					notifyAll();
+				}
+			}
+		}
+
+		private synchronized void chunkFailed(int chunk, RuntimeException ex) {
+			if (this.aborted) {
+				logger.debug("Chunk " + chunk + " of chunked query aborted", ex);
+			} else if (this.failure == null) {
+				this.failure = ex;
+			} else {
+				logger.warn("Chunk " + chunk + " of chunked query failed as well", ex);
+			}
+		}
+
+		/**
+		 * Wait until all chunks have been executed, or a chunk has failed
+		 * and the other running chunks have finished.
+		 */
+		private synchronized void waitForCompletion() throws InterruptedException {
+			while (hasChunksLeft() || !this.runningChunks.isEmpty()) {
+				wait();
+			}
+		}
+
+		/**
+		 * Stop starting chunks, and stop the running ones at their next row,
+		 * interrupting their threads.
+		 */
+		private synchronized void abort() {
+			this.aborted = true;
+			for (Iterator it = this.runningChunks.iterator(); it.hasNext();) {
+				((ChunkHandler) it.next()).abort();
+			}
+		}
+
+		/**
+		 * Wait until the running chunks have stopped after an abort,
+		 * so that they won't call the handlers anymore.
+		 */
+		private synchronized void waitForAbortedChunks() {
+			while (!this.runningChunks.isEmpty()) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					// keep waiting: the interrupt will be restored by the caller
+				}
+			}
+		}
+
+		private synchronized void rethrowFailure() {
+			if (this.failure != null) {
+				throw this.failure;
+			}
+		}
+	}
+
+
+	/**
+	 * RowCallbackHandler for a running chunk, that stops the query
+	 * once the chunked query has been aborted.
+	 */
+	private static class ChunkHandler implements RowCallbackHandler {
+
+		private final RowCallbackHandler targetHandler;
+
+		private final Thread thread = Thread.currentThread();
+
+		private boolean aborted = false;
+
+		private ChunkHandler(RowCallbackHandler targetHandler) {
+			this.targetHandler = targetHandler;
+		}
+
+		private synchronized void abort() {
+			this.aborted = true;
+			this.thread.interrupt();
+		}
+
+		public void processRow(ResultSet rs) throws SQLException {
+			synchronized (this) {
+				if (this.aborted) {
+					throw new SQLException("Chunked query has been aborted");
+				}
+			}
+			this.targetHandler.processRow(rs);
+		}
+	}
+
+
+	/**
+	 * RowCallbackHandler that collects the extracted rows of a chunk.
+	 * Only ever used by one thread at a time.
+	 */
+	private static class ChunkResultCollector implements RowCallbackHandler {
+
+		private final RowExtracter rowExtracter;
+
+		private final List results = new ArrayList();
+
+		private ChunkResultCollector(RowExtracter rowExtracter) {
+			this.rowExtracter = rowExtracter;
+		}
+
+		public void processRow(ResultSet rs) throws SQLException {
+			this.results.add(this.rowExtracter.extractRow(rs, this.results.size()));
+		}
+	}
+
+}
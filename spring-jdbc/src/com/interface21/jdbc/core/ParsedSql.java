@@ -0,0 +1,127 @@
+package com.interface21.jdbc.core;
+
+/**
+ * Result of parsing a SQL statement for parameter placeholders:
+ * either named parameters like ":name", or JDBC-style "?" placeholders.
+ * Immutable, thus safe to be shared by any number of threads.
+ *
+ * <p>Gives access to the name and position of each placeholder, in order
+ * of occurrence, and to the JDBC form of the statement with all named
+ * parameters replaced by "?".
+ *
+ * @see NamedParameterUtils#parseSqlStatement
+ */
+public class ParsedSql {
+
+	private final String sql;
+
+	private final String jdbcSql;
+
+	/** Name of each placeholder, null for a "?" placeholder */
+	private final String[] parameterNames;
+
+	/** Start and end index of each placeholder in the original SQL */
+	private final int[] startIndexes;
+
+	private final int[] endIndexes;
+
+	private final int namedParameterCount;
+
+
+	ParsedSql(String sql, String jdbcSql, String[] parameterNames, int[] startIndexes, int[] endIndexes) {
+		this.sql = sql;
+		this.jdbcSql = jdbcSql;
+		this.parameterNames = parameterNames;
+		this.startIndexes = startIndexes;
+		this.endIndexes = endIndexes;
+		int count = 0;
+		for (int i = 0; i < parameterNames.length; i++) {
+			if (parameterNames[i] != null) {
+				count++;
+			}
+		}
+		this.namedParameterCount = count;
+	}
+
+	/**
+	 * Return the SQL statement as passed in.
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Return the SQL statement with named parameters replaced by "?".
+	 */
+	public String getJdbcSql() {
+		return jdbcSql;
+	}
+
+	/**
+	 * Return the number of placeholders, named ones and "?" ones.
+	 * A named parameter that occurs twice counts as two placeholders.
+	 */
+	public int getPlaceholderCount() {
+		return parameterNames.length;
+	}
+
+	/**
+	 * Return the number of named parameter placeholders.
+	 */
+	public int getNamedParameterCount() {
+		return namedParameterCount;
+	}
+
+	/**
+	 * Return the name of the given placeholder.
+	 * @param index the index of the placeholder, starting at 0
+	 * @return the parameter name, or null for a "?" placeholder
+	 */
+	public String getParameterName(int index) {
+		return parameterNames[index];
+	}
+
+	/**
+	 * Return the index of the first character of the given
+	 * placeholder in the original SQL statement.
+	 */
+	public int getStartIndex(int index) {
+		return startIndexes[index];
+	}
+
+	/**
+	 * Return the index after the last character of the given
+	 * placeholder in the original SQL statement.
+	 */
+	public int getEndIndex(int index) {
+		return endIndexes[index];
+	}
+
+	/**
+	 * Return the form of this statement that treats named parameters as
+	 * plain SQL text, e.g. Oracle's ":NEW.column" in a trigger: only the
+	 * "?" placeholders remain, and the JDBC form is the SQL as passed in.
+	 */
+	public ParsedSql withoutNamedParameters() {
+		if (namedParameterCount == 0) {
+			return this;
+		}
+		int count = parameterNames.length - namedParameterCount;
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		int j = 0;
+		for (int i = 0; i < parameterNames.length; i++) {
+			if (parameterNames[i] == null) {
+				starts[j] = startIndexes[i];
+				ends[j] = endIndexes[i];
+				j++;
+			}
+		}
+		return new ParsedSql(sql, sql, new String[count], starts, ends);
+	}
+
+	public String toString() {
+		return sql;
+	}
+
+}
@@ -4,9 +4,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import com.interface21.dao.InvalidDataAccessApiUsageException;
 
@@ -15,6 +18,20 @@ import com.interface21.dao.InvalidDataAccessApiUsageException;
  * PreparedStatementCreator objects with different
  * parameters based on a SQL statement and a single set of parameter declarations.
  *
+ * <p>The SQL can either contain "?" placeholders, bound to the declared
+ * parameters in declaration order, or named parameters like ":name", bound
+ * to the declared parameters with the same name. A named parameter may occur
+ * multiple times. Named parameters are only used if all declared parameters
+ * have a name and the SQL does not contain any "?" placeholder; else the SQL
+ * is passed to the driver as is, so that vendor syntax like ":NEW.column"
+ * keeps working. The statement is parsed once, and the way to bind each
+ * declared parameter is determined once, when the factory is created or
+ * a parameter is added, according to its SQL type.
+ *
+ * <p>A Collection value is expanded into one placeholder per element,
+ * e.g. for "where id in (:ids)", binding each element with the SQL type
+ * of the declared parameter.
+ *
  * @author Rod Johnson
  * @version $Id: PreparedStatementCreatorFactory.java,v 1.2 2003/03/08 20:44:12 trisberg Exp $
  */
@@ -78,6 +95,18 @@ public class PreparedStatementCreatorFactory {
 	 */
 	private String sql;
 
+	/**
+	 * The parsed Sql, with the positions of named parameters and "?" placeholders
+	 */
+	private ParsedSql parsedSql;
+
+	/**
+	 * How to bind the declared parameters, determined when the factory is
+	 * created and whenever a parameter is added: thus parameters need to be
+	 * added before the factory is used by multiple threads.
+	 */
+	private ParameterBinding parameterBinding;
+
 	//---------------------------------------------------------------------
 	// Constructors
 	//---------------------------------------------------------------------
@@ -106,9 +135,12 @@ public class PreparedStatementCreatorFactory {
 	 * @param sql                SQL
 	 * @param declaredParameters list of SqlParameter objects
 	 */
-	public PreparedStatementCreatorFactory(String sql, List declaredParameters) {
+	public PreparedStatementCreatorFactory(String sql, List declaredParameters) throws InvalidDataAccessApiUsageException {
 		this.sql = sql;
+		this.parsedSql = NamedParameterUtils.parseSqlStatement(sql);
 		this.declaredParameters = declaredParameters;
+		this.parameterBinding = new ParameterBinding();
+		this.parameterBinding.validate();
 	}
 
 
@@ -118,6 +150,14 @@ public class PreparedStatementCreatorFactory {
 	 */
 	public void addParameter(SqlParameter p) {
 		declaredParameters.add(p);
+		this.parameterBinding = new ParameterBinding();
+	}
+
+	/**
+	 * Return whether the SQL is bound by parameter name rather than by position.
+	 */
+	public boolean isUsingNamedParameters() {
+		return this.parameterBinding.parameterIndexes != null;
 	}
 
 
@@ -128,19 +168,80 @@ public class PreparedStatementCreatorFactory {
 	/**
 	 * Return a new PreparedStatementCreator given these parameters
 	 *
-	 * @param params parameter array. May be null.
+	 * @param params parameter array, in the order of the declared parameters.
+	 * May be null.
 	 */
 	public PreparedStatementCreator newPreparedStatementCreator(Object[] params) {
-		return new PreparedStatementCreatorImpl((params != null) ? Arrays.asList(params) : new LinkedList());
+		return new PreparedStatementCreatorImpl((params != null) ? params : new Object[0]);
 	}
 
 	/**
 	 * Return a new PreparedStatementCreator instance given this parameters.
 	 *
-	 * @param params List of parameters. May be null.
+	 * @param params List of parameters, in the order of the declared parameters.
+	 * May be null.
 	 */
 	public PreparedStatementCreator newPreparedStatementCreator(List params) {
-		return new PreparedStatementCreatorImpl(params != null ? params : new LinkedList());
+		return new PreparedStatementCreatorImpl((params != null) ? params.toArray() : new Object[0]);
+	}
+
+	/**
+	 * Return a new PreparedStatementSetter that sets the given parameters
+	 * on a PreparedStatement for the SQL of this factory, e.g. for batch
+	 * updates. Collection values are not supported, as they would change the SQL.
+	 *
+	 * @param params parameter array, in the order of the declared parameters.
+	 * May be null.
+	 */
+	public PreparedStatementSetter newPreparedStatementSetter(Object[] params) throws InvalidDataAccessApiUsageException {
+		PreparedStatementCreatorImpl pscImpl = new PreparedStatementCreatorImpl((params != null) ? params : new Object[0]);
+		if (!pscImpl.actualSql.equals(getJdbcSql()))
+			throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': Collection values are not supported for reusable statements");
+		return pscImpl;
+	}
+
+	/**
+	 * Return the SQL to prepare for parameters without Collection values,
+	 * i.e. with named parameters replaced by "?".
+	 */
+	public String getJdbcSql() {
+		return this.parameterBinding.parsedSql.getJdbcSql();
+	}
+
+	/**
+	 * Return a new PreparedStatementCreator instance given these named parameters.
+	 *
+	 * @param paramMap Map of parameter name to value, containing
+	 * a value for each declared parameter
+	 * @throws InvalidDataAccessApiUsageException if a parameter value is missing
+	 */
+	public PreparedStatementCreator newPreparedStatementCreator(Map paramMap) throws InvalidDataAccessApiUsageException {
+		Object[] params = new Object[declaredParameters.size()];
+		for (int i = 0; i < params.length; i++) {
+			String name = ((SqlParameter) declaredParameters.get(i)).getName();
+			if (name == null || !paramMap.containsKey(name))
+				throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': no value given for parameter '" + name + "'");
+			params[i] = paramMap.get(name);
+		}
+		return new PreparedStatementCreatorImpl(params);
+	}
+
+	/**
+	 * Determine how to set parameters of the given SQL type.
+	 */
+	private static ParameterSetter getParameterSetter(int sqlType) {
+		switch (sqlType) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+				return new StringSetter(sqlType);
+			case Types.INTEGER:
+				return new IntSetter(sqlType);
+			case Types.BIGINT:
+				return new LongSetter(sqlType);
+			default:
+				return new ParameterSetter(sqlType);
+		}
 	}
 
 
@@ -148,63 +249,227 @@ public class PreparedStatementCreatorFactory {
 	// Inner classes
 	//---------------------------------------------------------------------
 
+	/**
+	 * Binding of the declared parameters to the placeholders of the SQL
+	 */
+	private class ParameterBinding {
+
+		/** The parsed Sql, without named parameters if bound by position */
+		private final ParsedSql parsedSql;
+
+		/** Index of the declared parameter for each placeholder, or null if in declaration order */
+		private final int[] parameterIndexes;
+
+		/** Setter for each declared parameter */
+		private final ParameterSetter[] setters;
+
+		/** Name of the first named parameter that has not been declared, if any */
+		private final String undeclaredParameterName;
+
+		private ParameterBinding() {
+			int paramCount = declaredParameters.size();
+			this.setters = new ParameterSetter[paramCount];
+			Map indexByName = new HashMap();
+			for (int i = 0; i < paramCount; i++) {
+				SqlParameter param = (SqlParameter) declaredParameters.get(i);
+				this.setters[i] = getParameterSetter(param.getSqlType());
+				if (param.getName() != null)
+					indexByName.put(param.getName(), new Integer(i));
+			}
+			ParsedSql fullSql = PreparedStatementCreatorFactory.this.parsedSql;
+			int placeholderCount = fullSql.getPlaceholderCount();
+			boolean named = (paramCount > 0 && indexByName.size() == paramCount &&
+			                 fullSql.getNamedParameterCount() > 0 && fullSql.getNamedParameterCount() == placeholderCount);
+			String undeclaredName = null;
+			if (!named) {
+				this.parsedSql = fullSql.withoutNamedParameters();
+				this.parameterIndexes = null;
+			} else {
+				this.parsedSql = fullSql;
+				this.parameterIndexes = new int[placeholderCount];
+				for (int i = 0; i < placeholderCount && undeclaredName == null; i++) {
+					Integer index = (Integer) indexByName.get(fullSql.getParameterName(i));
+					if (index != null)
+						this.parameterIndexes[i] = index.intValue();
+					else
+						undeclaredName = fullSql.getParameterName(i);
+				}
+			}
+			this.undeclaredParameterName = undeclaredName;
+		}
+
+		/**
+		 * Check that each named parameter in the SQL has been declared.
+		 * Not done on creation, as parameters may still be added.
+		 */
+		private void validate() throws InvalidDataAccessApiUsageException {
+			if (this.undeclaredParameterName != null)
+				throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': parameter '" + this.undeclaredParameterName +
+				                                             "' has not been declared");
+		}
+
+		/**
+		 * Return the values for each placeholder, in order of occurrence.
+		 */
+		private Object[] getPlaceholderValues(Object[] params) {
+			if (this.parameterIndexes == null)
+				return params;
+			Object[] values = new Object[this.parameterIndexes.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = params[this.parameterIndexes[i]];
+			}
+			return values;
+		}
+	}
+
+
 	/**
 	 * PreparedStatementCreator implementation returned by this class
 	 */
-	private class PreparedStatementCreatorImpl implements PreparedStatementCreator {
-		private List parameters;
+	private class PreparedStatementCreatorImpl implements PreparedStatementCreator, PreparedStatementSetter {
+
+		private final Object[] parameters;
+
+		private final ParameterBinding binding;
+
+		private final String actualSql;
 
 		/**
-		 * @param params list of SqlParameter objects. May not be null
+		 * @param params parameter values, in declaration order. May not be null
 		 */
-		private PreparedStatementCreatorImpl(List params) {
+		private PreparedStatementCreatorImpl(Object[] params) throws InvalidDataAccessApiUsageException {
 			this.parameters = params;
-			if (parameters.size() != declaredParameters.size())
-				throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': given " + parameters.size() + " parameter but expected " + declaredParameters.size());
+			if (parameters.length != declaredParameters.size())
+				throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': given " + parameters.length + " parameter but expected " + declaredParameters.size());
+			this.binding = parameterBinding;
+			this.binding.validate();
+			this.actualSql = (hasCollectionValue() ? expandSql() : binding.parsedSql.getJdbcSql());
+		}
+
+		private boolean hasCollectionValue() {
+			for (int i = 0; i < parameters.length; i++) {
+				if (parameters[i] instanceof Collection)
+					return true;
+			}
+			return false;
+		}
+
+		private String expandSql() throws InvalidDataAccessApiUsageException {
+			if (binding.parameterIndexes == null && binding.parsedSql.getPlaceholderCount() != parameters.length)
+				throw new InvalidDataAccessApiUsageException("SQL='" + sql + "': cannot expand Collection value, found " +
+				                                             binding.parsedSql.getPlaceholderCount() + " placeholders but " +
+				                                             parameters.length + " declared parameters");
+			return NamedParameterUtils.substituteParameters(binding.parsedSql, binding.getPlaceholderValues(parameters));
 		}
 
 		public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-			PreparedStatement ps = conn.prepareStatement(sql);
+			PreparedStatement ps = conn.prepareStatement(actualSql);
+			setValues(ps);
+			return ps;
+		}
 
+		public void setValues(PreparedStatement ps) throws SQLException {
 			// Set arguments: does nothing if there are no parameters
-			for (int i = 0; i < parameters.size(); i++) {
-				SqlParameter declaredParameter = (SqlParameter) PreparedStatementCreatorFactory.this.declaredParameters.get(i);
-				// We need SQL type to be able to set null
-				if (parameters.get(i) == null) {
-					ps.setNull(i + 1, declaredParameter.getSqlType());
-				} else {
-					// Documentation?
-
-					// PARAMETERIZE THIS TO A TYPE MAP INTERFACE?
-					switch (declaredParameter.getSqlType()) {
-						case Types.VARCHAR:
-							ps.setString(i + 1, (String) parameters.get(i));
-							break;
-						//case Types. : 
-						//	ps.setString(i + 1, (String) parameters.get(i));
-						//	break;
-						default:
-							ps.setObject(i + 1, parameters.get(i), declaredParameter.getSqlType());
-							break;
+			int count = (binding.parameterIndexes != null) ? binding.parameterIndexes.length : parameters.length;
+			int index = 1;
+			for (int i = 0; i < count; i++) {
+				int paramIndex = (binding.parameterIndexes != null) ? binding.parameterIndexes[i] : i;
+				ParameterSetter setter = binding.setters[paramIndex];
+				Object value = parameters[paramIndex];
+				if (value instanceof Collection) {
+					for (Iterator it = ((Collection) value).iterator(); it.hasNext();) {
+						setter.setParameter(ps, index++, it.next());
 					}
+				} else {
+					setter.setParameter(ps, index++, value);
 				}
 			}
-			return ps;
 		}
 
 		public String getSql() {
-			return sql;
+			return actualSql;
 		}
 
 		public String toString() {
 			StringBuffer sbuf = new StringBuffer("PreparedStatementCreatorFactory.PreparedStatementCreatorImpl: sql={" + sql + "}: params={");
-			for (int i = 0; i < parameters.size(); i++) {
+			for (int i = 0; i < parameters.length; i++) {
 				if (i > 0)
 					sbuf.append(",");
-				sbuf.append(parameters.get(i));
+				sbuf.append(parameters[i]);
 			}
 			return sbuf.toString() + "}";
 		}
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Sets a parameter of a given SQL type. This implementation uses setObject;
+	 * subclasses use the specific setter for well-known value types.
+	 */
+	private static class ParameterSetter {
+
+		protected final int sqlType;
+
+		private ParameterSetter(int sqlType) {
+			this.sqlType = sqlType;
+		}
+
+		public final void setParameter(PreparedStatement ps, int index, Object value) throws SQLException {
+			// We need SQL type to be able to set null
+			if (value == null)
+				ps.setNull(index, this.sqlType);
+			else
+				setValue(ps, index, value);
+		}
+
+		protected void setValue(PreparedStatement ps, int index, Object value) throws SQLException {
+			ps.setObject(index, value, this.sqlType);
+		}
+	}
+
+
+	private static class StringSetter extends ParameterSetter {
+
+		private StringSetter(int sqlType) {
+			super(sqlType);
+		}
+
+		protected void setValue(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof String)
+				ps.setString(index, (String) value);
+			else
+				super.setValue(ps, index, value);
+		}
+	}
+
+
+	private static class IntSetter extends ParameterSetter {
+
+		private IntSetter(int sqlType) {
+			super(sqlType);
+		}
+
+		protected void setValue(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Integer)
+				ps.setInt(index, ((Integer) value).intValue());
+			else
+				super.setValue(ps, index, value);
+		}
+	}
+
+
+	private static class LongSetter extends ParameterSetter {
+
+		private LongSetter(int sqlType) {
+			super(sqlType);
+		}
+
+		protected void setValue(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Long)
+				ps.setLong(index, ((Long) value).longValue());
+			else
+				super.setValue(ps, index, value);
+		}
+	}
+
+}
@@ -21,7 +21,13 @@ import java.net.URL;
  * reason, the wrapped methods are not documented here. Please refer to the
  * official ResultSet Javadoc for more information.</P>
  *
+ * <P>Authorised methods delegate straight to the wrapped ResultSet without
+ * any checks, so the only cost is one extra call per column access. Where
+ * even that matters, JdbcTemplate can be told to pass the ResultSet through
+ * without this wrapper.</P>
+ *
  * @author Yann Caroff
+ * @see JdbcTemplate#setGuardResultSets
  */
 public class ReadOnlyResultSet implements ResultSet {
 
@@ -0,0 +1,181 @@
+package com.interface21.jdbc.core;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.interface21.dao.DataAccessException;
+import com.interface21.jdbc.datasource.DataSourceUtils;
+
+/**
+ * Iterator over the rows of an open, forward-only JDBC ResultSet, as
+ * returned by JdbcTemplate's openCursor methods. Rows are only read
+ * when the cursor is advanced, so large results can be processed in
+ * constant memory, given a suitable fetch size.
+ *
+ * <p>Each call to next returns the object extracted from the next row
+ * by the cursor's RowExtracter, or a read-only view of the ResultSet
+ * positioned at that row if there is no RowExtracter. The read-only view
+ * is omitted if the JdbcTemplate does not guard ResultSets.
+ *
+ * <p>The cursor holds the ResultSet, its Statement and the Connection
+ * until it is closed. It closes itself once all rows have been read or
+ * if a SQLException occurs, but callers must always close it in a finally
+ * block to release the connection if they stop iterating early. A cursor
+ * must not be shared between threads.
+ *
+ * @see JdbcTemplate#openCursor(String, RowExtracter)
+ * @see JdbcTemplate#openCursor(PreparedStatementCreator, RowExtracter)
+ * @see JdbcTemplate#setFetchSize
+ */
+public class ResultSetCursor implements Iterator {
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private Connection connection;
+
+	private final DataSource dataSource;
+
+	private final Statement statement;
+
+	private final ResultSet resultSet;
+
+	private final ResultSet exposedResultSet;
+
+	private final RowExtracter rowExtracter;
+
+	private final SQLExceptionTranslater exceptionTranslater;
+
+	private final String sql;
+
+	/** Whether the ResultSet has been advanced for the next element */
+	private boolean advanced = false;
+
+	private boolean hasRow = false;
+
+	private int rowNum = 0;
+
+	/**
+	 * Create a new cursor for the given ResultSet.
+	 * @param connection the Connection to release when the cursor is closed
+	 * @param dataSource the DataSource that the Connection came from
+	 * @param statement the Statement that produced the ResultSet
+	 * @param resultSet the ResultSet, positioned before the first row
+	 * @param guardResultSet whether to expose the ResultSet through a ReadOnlyResultSet
+	 * @param rowExtracter object that will extract an object from each row (can be null)
+	 * @param exceptionTranslater translater for SQLExceptions while iterating
+	 * @param sql the SQL of the query, for exception messages (can be null)
+	 */
+	ResultSetCursor(Connection connection, DataSource dataSource, Statement statement, ResultSet resultSet,
+	                boolean guardResultSet, RowExtracter rowExtracter, SQLExceptionTranslater exceptionTranslater,
+	                String sql) {
+		this.connection = connection;
+		this.dataSource = dataSource;
+		this.statement = statement;
+		this.resultSet = resultSet;
+		this.exposedResultSet = (guardResultSet ? new ReadOnlyResultSet(resultSet) : resultSet);
+		this.rowExtracter = rowExtracter;
+		this.exceptionTranslater = exceptionTranslater;
+		this.sql = sql;
+	}
+
+	/**
+	 * Return whether there is another row, reading it from the ResultSet if necessary.
+	 * Closes the cursor if there are no more rows.
+	 * @throws DataAccessException if reading from the ResultSet failed
+	 */
+	public boolean hasNext() throws DataAccessException {
+		if (!this.advanced) {
+			if (this.connection == null) {
+				return false;
+			}
+			try {
+				this.hasRow = this.resultSet.next();
+			} catch (SQLException ex) {
+				close();
+				throw this.exceptionTranslater.translate("ResultSetCursor.hasNext", this.sql, ex);
+			}
+			this.advanced = true;
+			if (!this.hasRow) {
+				close();
+			}
+		}
+		return this.hasRow;
+	}
+
+	/**
+	 * Return the object for the next row: the result of the RowExtracter,
+	 * or the read-only ResultSet positioned at the row if there is no RowExtracter.
+	 * Note that the ResultSet can only be used until the cursor is advanced.
+	 * @throws NoSuchElementException if there are no more rows
+	 * @throws DataAccessException if reading from the ResultSet failed
+	 */
+	public Object next() throws DataAccessException {
+		if (!hasNext()) {
+			throw new NoSuchElementException("No more rows in ResultSetCursor");
+		}
+		this.advanced = false;
+		int currentRowNum = this.rowNum++;
+		if (this.rowExtracter == null) {
+			return this.exposedResultSet;
+		}
+		try {
+			return this.rowExtracter.extractRow(this.exposedResultSet, currentRowNum);
+		} catch (SQLException ex) {
+			close();
+			throw this.exceptionTranslater.translate("ResultSetCursor.next", this.sql, ex);
+		}
+	}
+
+	/**
+	 * Not supported: cursors are read-only.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException("ResultSetCursor is read-only");
+	}
+
+	/**
+	 * Return the number of rows returned by next so far.
+	 */
+	public int getRowCount() {
+		return rowNum;
+	}
+
+	/**
+	 * Return whether this cursor has been closed.
+	 */
+	public boolean isClosed() {
+		return (this.connection == null);
+	}
+
+	/**
+	 * Close the ResultSet and the Statement, and release the Connection.
+	 * Can be called multiple times.
+	 */
+	public void close() {
+		if (this.connection == null) {
+			return;
+		}
+		Connection con = this.connection;
+		this.connection = null;
+		this.hasRow = false;
+		this.advanced = true;
+		try {
+			this.resultSet.close();
+			this.statement.close();
+		} catch (SQLException ex) {
+			logger.warn("Could not close ResultSetCursor", ex);
+		} finally {
+			DataSourceUtils.closeConnectionIfNecessary(con, this.dataSource);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.interface21.jdbc.core;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback interface used by ResultSetCursor to turn each row of
+ * a ResultSet into an object, one row at a time.
+ * <br>In contrast to a ResultReader, results are not accumulated:
+ * each extracted object is handed to the caller of the cursor directly.
+ * Implementations don't need to worry about exception handling.
+ * SQLExceptions will be caught and translated by the cursor.
+ *
+ * @see ResultSetCursor
+ * @see JdbcTemplate#openCursor(PreparedStatementCreator, RowExtracter)
+ */
+public interface RowExtracter {
+
+	/**
+	 * Implementations must implement this method to extract an object
+	 * from the current row of the ResultSet. This method should not call
+	 * next() on the ResultSet, but extract the current values.
+	 *
+	 * @param rs     ResultSet positioned at the current row
+	 * @param rowNum number of the current row (from 0)
+	 * @return the object for the current row (may be null)
+	 * @throws SQLException if a SQLException is encountered getting
+	 *                      column values (that is, there's no need to catch SQLException)
+	 */
+	Object extractRow(ResultSet rs, int rowNum) throws SQLException;
+
+}
@@ -10,6 +10,7 @@
 package com.interface21.jdbc.core;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,6 +24,9 @@ import com.interface21.dao.DataIntegrityViolationException;
  * than SQLState implementation, but vendor specific. The JdbcTemplate class
  * enables error handling to be parameterized without making application's
  * dependent on a particular RDBMS.
+ * <br/>The error codes are converted to sorted int arrays up front, so
+ * translating an exception doesn't create any objects except the
+ * resulting exception.
  * @author Rod Johnson
  * @author Thomas Risberg
  */
@@ -33,12 +37,21 @@ public class SQLErrorCodeSQLExceptionTranslater implements SQLExceptionTranslate
 	/** Error codes available to subclasses */
 	protected SQLErrorCodes sqlErrorCodes;
 
+	/** Sorted numeric bad SQL grammar codes */
+	private int[] badSqlGrammarCodes;
+
+	/** Sorted numeric data integrity violation codes */
+	private int[] dataIntegrityViolationCodes;
+
+	/** Fallback for error codes that aren't known */
+	private final SQLExceptionTranslater fallbackTranslater = new SQLStateSQLExceptionTranslater();
+
 	public SQLErrorCodeSQLExceptionTranslater() {
-		this.sqlErrorCodes = new SQLErrorCodes();
+		setSqlErrorCodes(new SQLErrorCodes());
 	}
 
 	public SQLErrorCodeSQLExceptionTranslater(SQLErrorCodes sec) {
-		this.sqlErrorCodes = sec;
+		setSqlErrorCodes(sec);
 	}
 
 	/**
@@ -46,6 +59,32 @@ public class SQLErrorCodeSQLExceptionTranslater implements SQLExceptionTranslate
 	 */
 	public void setSqlErrorCodes(SQLErrorCodes sec) {
 		this.sqlErrorCodes = sec;
+		this.badSqlGrammarCodes = toSortedIntArray(sec.getBadSqlGrammarCodes());
+		this.dataIntegrityViolationCodes = toSortedIntArray(sec.getDataIntegrityViolationCodes());
+	}
+
+	/**
+	 * Convert the given error codes to a sorted int array,
+	 * ignoring codes that aren't numeric.
+	 */
+	private int[] toSortedIntArray(String[] codes) {
+		if (codes == null) {
+			return new int[0];
+		}
+		int[] values = new int[codes.length];
+		int count = 0;
+		for (int i = 0; i < codes.length; i++) {
+			try {
+				values[count] = Integer.parseInt(codes[i].trim());
+				count++;
+			} catch (NumberFormatException ex) {
+				logger.warn("Ignoring non-numeric SQL error code '" + codes[i] + "'");
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(values, 0, result, 0, count);
+		Arrays.sort(result);
+		return result;
 	}
 
 	/**
@@ -53,21 +92,22 @@ public class SQLErrorCodeSQLExceptionTranslater implements SQLExceptionTranslate
 	 */
 	public DataAccessException translate(String task, String sql, SQLException sqlex) {
 
-		String errorCode = Integer.toString(sqlex.getErrorCode());
-		if (java.util.Arrays.binarySearch(sqlErrorCodes.getBadSqlGrammarCodes(), errorCode) >= 0) {
+		int errorCode = sqlex.getErrorCode();
+		if (Arrays.binarySearch(this.badSqlGrammarCodes, errorCode) >= 0) {
 			logTranslation(task, sql, sqlex);
 			return new BadSqlGrammarException(task, sql, sqlex);
 		}
-		if (java.util.Arrays.binarySearch(sqlErrorCodes.getDataIntegrityViolationCodes(), errorCode) >= 0) {
+		if (Arrays.binarySearch(this.dataIntegrityViolationCodes, errorCode) >= 0) {
 			logTranslation(task, sql, sqlex);
 			return new DataIntegrityViolationException(task + ": " + sqlex.getMessage(), sqlex);
 		}
 
 		// We couldn't identify it more precisely - let's hand it over to the SQLState Translater.
-		logger.warn("Unable to translate SQLException with errorCode=" + sqlex.getErrorCode() +
-				", will now try the SQLState Translater");
-		SQLStateSQLExceptionTranslater lastResort = new SQLStateSQLExceptionTranslater();
-		return lastResort.translate(task, sql, sqlex);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Unable to translate SQLException with errorCode=" + sqlex.getErrorCode() +
+					", will now try the SQLState Translater");
+		}
+		return this.fallbackTranslater.translate(task, sql, sqlex);
 	}
 
 	private void logTranslation(String task, String sql, SQLException sqlex) {
@@ -14,6 +14,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.sql.DataSource;
 
@@ -30,6 +31,8 @@ import com.interface21.jdbc.datasource.DataSourceUtils;
  * DatabaseProductName taken from the DatabaseMetaData.
  * Returns a SQLExceptionTranslator populated with vendor 
  * codes defined in a configuration file named "sql-error-codes.xml".
+ * <br/>The translater for a DataSource is determined once and cached,
+ * so the DatabaseMetaData is only accessed on the first request.
  * @author Thomas Risberg
  @version $Id: SQLExceptionTranslaterFactory.java,v 1.6 2003/06/06 16:13:22 jhoeller Exp $
  */
@@ -55,6 +58,12 @@ public class SQLExceptionTranslaterFactory {
 	 */
 	private Map rdbmsErrorCodes;
 
+	/**
+	 * Translaters per DataSource. Weak keys, to not keep
+	 * DataSources of closed application contexts alive.
+	 */
+	private final Map translaters = new WeakHashMap();
+
 	/**
 	 * Not public to enforce Singleton design pattern
 	 */
@@ -99,9 +108,16 @@ public class SQLExceptionTranslaterFactory {
 	}
 
 	/**
-	 *
+	 * Return the translater for the given DataSource, determined by the
+	 * database product name of the DataSource on the first request.
+	 * Falls back to a SQLStateSQLExceptionTranslater for unknown databases.
 	 */
 	public SQLExceptionTranslater getDefaultTranslater(DataSource ds) {
+		synchronized (this.translaters) {
+			SQLExceptionTranslater cached = (SQLExceptionTranslater) this.translaters.get(ds);
+			if (cached != null)
+				return cached;
+		}
 		String dbName = null;
 		Connection con = null;
 		DatabaseMetaData dbmd = null;
@@ -115,6 +131,7 @@ public class SQLExceptionTranslaterFactory {
 				dbName = "DB2";
 		} catch (SQLException se) {
 			// this is bad - we probably lost the connection
+			// -> don't cache, to retry on the next request
 			return new SQLStateSQLExceptionTranslater();
 		} finally {
 			DataSourceUtils.closeConnectionIfNecessary(con, ds);
@@ -124,10 +141,16 @@ public class SQLExceptionTranslaterFactory {
 			sec = (SQLErrorCodes) rdbmsErrorCodes.get(dbName);
 
 		// could not find the database among the defined ones
+		SQLExceptionTranslater set = null;
 		if (sec == null)
-			return new SQLStateSQLExceptionTranslater();
+			set = new SQLStateSQLExceptionTranslater();
+		else
+			set = new SQLErrorCodeSQLExceptionTranslater(sec);
 
-		SQLErrorCodeSQLExceptionTranslater set = new SQLErrorCodeSQLExceptionTranslater(sec);
+		// may determine the translater for the same DataSource concurrently, but without harm
+		synchronized (this.translaters) {
+			this.translaters.put(ds, set);
+		}
 		return set;
 	}
 
@@ -0,0 +1,309 @@
+package com.interface21.jdbc.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.interface21.util.ThreadObjectManager;
+
+/**
+ * Queue of JDBC updates for a single connection, sent to the database
+ * via JDBC 2.0 batch updates on flush. Consecutive updates with identical
+ * SQL share one PreparedStatement; an update with different SQL flushes
+ * the pending ones first, so statement order is always preserved.
+ *
+ * <p>Batches are bound to the current thread per Connection. JdbcTemplate
+ * queues its updates in the batch bound for its connection, and flushes
+ * it before issuing any query on that connection. Transaction managers
+ * flush and release the batch on commit, and discard it on rollback.
+ *
+ * <p>The update counts of all flushed updates are kept in submission order,
+ * allowing for optimistic locking checks after a flush. Expected row counts
+ * that have been specified for an update are verified on flush.
+ *
+ * @see JdbcTemplate#setBatchUpdates
+ * @see JdbcTemplate#flushBatchedUpdates
+ * @see com.interface21.transaction.datasource.DataSourceTransactionManager#setBatchUpdates
+ */
+public class UpdateBatch {
+
+	/**
+	 * Update count returned for updates that have been queued in a batch
+	 * and not yet executed.
+	 */
+	public static final int DEFERRED_UPDATE_COUNT = -1;
+
+	private static final Log logger = LogFactory.getLog(UpdateBatch.class);
+
+	/**
+	 * Per-thread mappings: Connection -> UpdateBatch
+	 */
+	private static final ThreadObjectManager threadObjectManager = new ThreadObjectManager();
+
+	/**
+	 * Return the batch bound to the current thread for the given connection.
+	 * @param con JDBC Connection to check
+	 * @return the bound batch, or null if none
+	 */
+	public static UpdateBatch getBatch(Connection con) {
+		return (UpdateBatch) threadObjectManager.getThreadObject(con);
+	}
+
+	/**
+	 * Create a new batch for the given connection and bind it to the current thread.
+	 * The caller is responsible for releasing it via closeBatch.
+	 * @param con JDBC Connection to queue updates for
+	 * @return the new batch
+	 * @throws IllegalStateException if there is already a batch bound for the connection
+	 * @see #closeBatch
+	 */
+	public static UpdateBatch openBatch(Connection con) {
+		UpdateBatch batch = new UpdateBatch(con);
+		threadObjectManager.bindThreadObject(con, batch);
+		return batch;
+	}
+
+	/**
+	 * Close the batch bound to the current thread for the given connection, if any,
+	 * and remove it from the thread.
+	 * @param con JDBC Connection to close the batch for
+	 * @param flush whether to flush pending updates, or discard them
+	 * @return the update counts of all flushed updates of the batch,
+	 * or null if there was no batch bound for the connection
+	 * @throws SQLException if flushing failed
+	 * @throws JdbcUpdateAffectedIncorrectNumberOfRowsException if a flushed update
+	 * did not affect the expected number of rows
+	 */
+	public static int[] closeBatch(Connection con, boolean flush) throws SQLException {
+		UpdateBatch batch = getBatch(con);
+		if (batch == null) {
+			return null;
+		}
+		threadObjectManager.removeThreadObject(con);
+		try {
+			if (flush) {
+				batch.flush();
+			}
+			return batch.getUpdateCounts();
+		} finally {
+			batch.close();
+		}
+	}
+
+	/**
+	 * Check the given number of affected rows against the given expectations.
+	 * @param sql SQL of the update, for the exception message
+	 * @param maxRowsAffected maximum number of rows that may be affected (0 for no limit)
+	 * @param requiredRowsAffected exact number of rows that must be affected (0 for any)
+	 * @param rowsAffected actual number of rows affected
+	 * @throws JdbcUpdateAffectedIncorrectNumberOfRowsException if the expectations are not met
+	 */
+	static void checkRowsAffected(String sql, int maxRowsAffected, int requiredRowsAffected, int rowsAffected)
+	    throws JdbcUpdateAffectedIncorrectNumberOfRowsException {
+		if (maxRowsAffected != 0 && rowsAffected > maxRowsAffected) {
+			throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(sql, maxRowsAffected, rowsAffected);
+		}
+		if (requiredRowsAffected != 0 && rowsAffected != requiredRowsAffected) {
+			throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(sql, requiredRowsAffected, rowsAffected);
+		}
+	}
+
+
+	private final Connection connection;
+
+	/**
+	 * Connection proxy handed to PreparedStatementCreators,
+	 * returning the pending statement for its SQL
+	 */
+	private final Connection statementReusingConnection;
+
+	private String sql;
+
+	private PreparedStatement statement;
+
+	/**
+	 * Row count expectations of the pending updates, as int[2] {max, required}
+	 */
+	private final List pendingUpdates = new ArrayList();
+
+	private int[] updateCounts = new int[16];
+
+	private int updateCountSize = 0;
+
+	/**
+	 * Create a new batch for the given connection.
+	 * @param connection JDBC Connection to queue updates for
+	 * @see #openBatch
+	 */
+	protected UpdateBatch(Connection connection) {
+		this.connection = connection;
+		this.statementReusingConnection = (Connection) Proxy.newProxyInstance(
+				Thread.currentThread().getContextClassLoader(), new Class[] {Connection.class},
+				new StatementReusingInvocationHandler());
+	}
+
+	/**
+	 * Return the connection that this batch queues updates for.
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Queue the update created by the given PreparedStatementCreator.
+	 * Flushes pending updates first if the SQL differs from theirs.
+	 * Executes the update immediately if the creator does not expose its SQL.
+	 * @param psc callback that creates the PreparedStatement and sets its parameters
+	 * @param maxRowsAffected maximum number of rows that may be affected (0 for no limit)
+	 * @param requiredRowsAffected exact number of rows that must be affected (0 for any)
+	 * @return DEFERRED_UPDATE_COUNT, or the number of rows affected if executed immediately
+	 * @throws SQLException if thrown by JDBC methods
+	 * @see #DEFERRED_UPDATE_COUNT
+	 */
+	public int addUpdate(PreparedStatementCreator psc, int maxRowsAffected, int requiredRowsAffected)
+	    throws SQLException {
+		String updateSql = psc.getSql();
+		if (updateSql == null) {
+			// cannot match it with other updates
+			flush();
+			PreparedStatement ps = psc.createPreparedStatement(this.connection);
+			int rowsAffected = ps.executeUpdate();
+			ps.close();
+			checkRowsAffected(psc.toString(), maxRowsAffected, requiredRowsAffected, rowsAffected);
+			addUpdateCount(rowsAffected);
+			return rowsAffected;
+		}
+		if (this.statement != null && !updateSql.equals(this.sql)) {
+			flush();
+		}
+		PreparedStatement ps = psc.createPreparedStatement(this.statementReusingConnection);
+		if (ps != this.statement) {
+			// creator did not ask for the pending statement
+			flush();
+			this.sql = updateSql;
+			this.statement = ps;
+		}
+		ps.addBatch();
+		this.pendingUpdates.add(new int[] {maxRowsAffected, requiredRowsAffected});
+		if (logger.isDebugEnabled()) {
+			logger.debug("Queued SQL update [" + psc + "] as batch entry " + this.pendingUpdates.size());
+		}
+		return DEFERRED_UPDATE_COUNT;
+	}
+
+	/**
+	 * Return whether this batch contains updates that have not been flushed yet.
+	 */
+	public boolean hasPendingUpdates() {
+		return !this.pendingUpdates.isEmpty();
+	}
+
+	/**
+	 * Execute all pending updates as one JDBC batch, verifying the
+	 * row count expectations that have been specified for them.
+	 * @return the update counts of the executed updates
+	 * @throws SQLException if thrown by JDBC methods
+	 * @throws JdbcUpdateAffectedIncorrectNumberOfRowsException if an update
+	 * did not affect the expected number of rows
+	 */
+	public int[] flush() throws SQLException {
+		if (this.statement == null) {
+			return new int[0];
+		}
+		PreparedStatement ps = this.statement;
+		String flushedSql = this.sql;
+		List expectations = new ArrayList(this.pendingUpdates);
+		this.statement = null;
+		this.sql = null;
+		this.pendingUpdates.clear();
+		int[] counts = null;
+		try {
+			if (expectations.isEmpty()) {
+				return new int[0];
+			}
+			if (logger.isInfoEnabled()) {
+				logger.info("Flushing " + expectations.size() + " batched SQL updates [" + flushedSql + "]");
+			}
+			counts = ps.executeBatch();
+		} finally {
+			ps.close();
+		}
+		for (int i = 0; i < counts.length; i++) {
+			addUpdateCount(counts[i]);
+		}
+		for (int i = 0; i < counts.length && i < expectations.size(); i++) {
+			// drivers may report unknown counts as negative values
+			if (counts[i] >= 0) {
+				int[] expectation = (int[]) expectations.get(i);
+				checkRowsAffected(flushedSql, expectation[0], expectation[1], counts[i]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Return the update counts of all updates flushed so far, in submission order.
+	 * Counts may be negative if the driver cannot determine them.
+	 */
+	public int[] getUpdateCounts() {
+		int[] result = new int[this.updateCountSize];
+		System.arraycopy(this.updateCounts, 0, result, 0, this.updateCountSize);
+		return result;
+	}
+
+	/**
+	 * Discard any pending updates and close the pending statement.
+	 */
+	public void close() {
+		this.pendingUpdates.clear();
+		this.sql = null;
+		if (this.statement != null) {
+			try {
+				this.statement.close();
+			} catch (SQLException ex) {
+				logger.warn("Could not close batched PreparedStatement", ex);
+			}
+			this.statement = null;
+		}
+	}
+
+	private void addUpdateCount(int count) {
+		if (this.updateCountSize == this.updateCounts.length) {
+			int[] newCounts = new int[this.updateCounts.length * 2];
+			System.arraycopy(this.updateCounts, 0, newCounts, 0, this.updateCountSize);
+			this.updateCounts = newCounts;
+		}
+		this.updateCounts[this.updateCountSize++] = count;
+	}
+
+
+	/**
+	 * Returns the pending statement for prepareStatement calls with its SQL,
+	 * delegating all other calls to the target connection.
+	 */
+	private class StatementReusingInvocationHandler implements InvocationHandler {
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("prepareStatement") && args != null && args.length == 1 &&
+			    statement != null && args[0].equals(sql)) {
+				statement.clearParameters();
+				return statement;
+			}
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,336 @@
+package com.interface21.jdbc.core.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.interface21.beans.factory.InitializingBean;
+import com.interface21.dao.DataAccessException;
+import com.interface21.dao.DataAccessResourceFailureException;
+import com.interface21.jdbc.core.DataFieldMaxValueIncrementer;
+import com.interface21.util.ResponseTimeMonitor;
+import com.interface21.util.ResponseTimeMonitorImpl;
+
+/**
+ * DataFieldMaxValueIncrementer decorator that hands out keys from blocks
+ * reserved in advance from a target incrementer, typically one of the
+ * database-specific incrementers in this package.
+ *
+ * <p>Each block holds "blockSize" keys, fetched from the target by a
+ * background daemon thread. As soon as no more than "prefetchThreshold" keys are
+ * left in the current block, the next block is fetched, so that callers
+ * normally never wait for the database: handing out a key is just an
+ * array access within a very short synchronized block. Callers only
+ * wait if the current block has run out before the next one arrived,
+ * for example on the very first call.
+ *
+ * <p>The fetcher thread is started on demand and reused for all blocks.
+ * It ends after being idle for a minute, so that it does not keep an
+ * unused incrementer alive.
+ *
+ * <p>The target is only ever called by one thread at a time. For best
+ * results, configure its cacheSize to the block size, so that a block
+ * can be reserved with a single database roundtrip.
+ *
+ * <p>As with the cacheSize of the target, unused keys of a reserved
+ * block are lost when the application is stopped.
+ *
+ * @see #setTargetIncrementer
+ * @see #setBlockSize
+ * @see #setPrefetchThreshold
+ */
+public class PrefetchingMaxValueIncrementer implements DataFieldMaxValueIncrementer, InitializingBean {
+
+	/** Milliseconds after which an idle fetcher thread ends */
+	private static final long FETCHER_IDLE_TIMEOUT = 60000;
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private DataFieldMaxValueIncrementer targetIncrementer;
+
+	private int blockSize = 100;
+
+	private int prefetchThreshold = 20;
+
+	private boolean prefixWithZero;
+
+	private int paddingLength;
+
+	/** Keys of the current block, with the index of the next key to hand out */
+	private long[] currentBlock;
+
+	private int nextIndex;
+
+	/** Block reserved in advance, or null if none available yet */
+	private long[] nextBlock;
+
+	/** Whether the next block has been requested and not yet been fetched */
+	private boolean fetching = false;
+
+	/** Background thread that fetches blocks, or null if not running */
+	private Thread fetcherThread;
+
+	/** Failure of the last block fetch, to be rethrown to a caller */
+	private RuntimeException fetchFailure;
+
+	private int blockRefillCount = 0;
+
+	private int waitCount = 0;
+
+	private final ResponseTimeMonitorImpl waitTimeMonitor = new ResponseTimeMonitorImpl();
+
+
+	/**
+	 * Set the incrementer to reserve blocks of keys from.
+	 */
+	public void setTargetIncrementer(DataFieldMaxValueIncrementer targetIncrementer) {
+		this.targetIncrementer = targetIncrementer;
+	}
+
+	/**
+	 * Return the incrementer to reserve blocks of keys from.
+	 */
+	public DataFieldMaxValueIncrementer getTargetIncrementer() {
+		return targetIncrementer;
+	}
+
+	/**
+	 * Set the number of keys to reserve at once. Default is 100.
+	 */
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Return the number of keys to reserve at once.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Set the number of keys left in the current block at which to start
+	 * reserving the next block. Default is 20. Needs to be smaller than
+	 * the block size; 0 means to only fetch the next block when the last
+	 * key of the current one has been handed out.
+	 */
+	public void setPrefetchThreshold(int prefetchThreshold) {
+		this.prefetchThreshold = prefetchThreshold;
+	}
+
+	/**
+	 * Return the number of keys left at which to reserve the next block.
+	 */
+	public int getPrefetchThreshold() {
+		return prefetchThreshold;
+	}
+
+	/**
+	 * Set whether String keys should be pre-pended with zeroes,
+	 * and the length to pad them to.
+	 */
+	public void setPrefixWithZero(boolean prefixWithZero, int length) {
+		this.prefixWithZero = prefixWithZero;
+		this.paddingLength = length;
+	}
+
+	public void afterPropertiesSet() {
+		if (this.targetIncrementer == null) {
+			throw new InvalidMaxValueIncrementerApiUsageException("targetIncrementer property must be set on " +
+			                                                      getClass().getName());
+		}
+		if (this.blockSize <= 0) {
+			throw new InvalidMaxValueIncrementerApiUsageException("blockSize must be greater than 0");
+		}
+		if (this.prefetchThreshold < 0 || this.prefetchThreshold >= this.blockSize) {
+			throw new InvalidMaxValueIncrementerApiUsageException("prefetchThreshold must be between 0 and blockSize - 1");
+		}
+	}
+
+
+	public int nextIntValue() throws DataAccessException {
+		return (int) nextLongValue();
+	}
+
+	public long nextLongValue() throws DataAccessException {
+		long waitStart = 0;
+		synchronized (this) {
+			while (true) {
+				if (this.currentBlock != null && this.nextIndex < this.currentBlock.length) {
+					long key = this.currentBlock[this.nextIndex++];
+					if (this.currentBlock.length - this.nextIndex <= this.prefetchThreshold &&
+							this.nextBlock == null && !this.fetching) {
+						startFetch();
+					}
+					if (waitStart != 0) {
+						this.waitTimeMonitor.recordResponseTime(System.currentTimeMillis() - waitStart);
+					}
+					return key;
+				}
+				if (this.nextBlock != null) {
+					this.currentBlock = this.nextBlock;
+					this.nextBlock = null;
+					this.nextIndex = 0;
+					continue;
+				}
+				if (this.fetchFailure != null) {
+					// rethrow once, the next caller will trigger a new fetch
+					RuntimeException ex = this.fetchFailure;
+					this.fetchFailure = null;
+					throw ex;
+				}
+				if (!this.fetching) {
+					startFetch();
+				}
+				if (waitStart == 0) {
+					waitStart = System.currentTimeMillis();
+					this.waitCount++;
+				}
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					// keep the interrupt for the caller to see
+					Thread.currentThread().interrupt();
+					throw new DataAccessResourceFailureException("Interrupted while waiting for next block of keys", ex);
+				}
+			}
+		}
+	}
+
+	public double nextDoubleValue() throws DataAccessException {
+		return nextLongValue();
+	}
+
+	public String nextStringValue() throws DataAccessException {
+		String s = Long.toString(nextLongValue());
+		if (this.prefixWithZero && s.length() < this.paddingLength) {
+			StringBuffer buf = new StringBuffer(this.paddingLength);
+			for (int i = s.length(); i < this.paddingLength; i++) {
+				buf.append('0');
+			}
+			buf.append(s);
+			s = buf.toString();
+		}
+		return s;
+	}
+
+	public Object nextValue(Class keyClass) throws DataAccessException {
+		if (keyClass == int.class || keyClass == Integer.class) {
+			return new Integer(nextIntValue());
+		} else if (keyClass == long.class || keyClass == Long.class) {
+			return new Long(nextLongValue());
+		} else if (keyClass == double.class || keyClass == Double.class) {
+			return new Double(nextDoubleValue());
+		} else if (keyClass == String.class) {
+			return nextStringValue();
+		} else {
+			throw new IllegalArgumentException("Invalid key class");
+		}
+	}
+
+	/**
+	 * Have the background thread fetch the next block, starting it if necessary.
+	 * Must be called with the lock on this object held.
+	 */
+	private void startFetch() {
+		this.fetching = true;
+		if (this.fetcherThread == null) {
+			this.fetcherThread = new Thread(new BlockFetcher(), "PrefetchingMaxValueIncrementer");
+			this.fetcherThread.setDaemon(true);
+			this.fetcherThread.start();
+		} else {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Reserve the given number of keys from the target incrementer.
+	 * Called by the background thread, without holding the lock on this object.
+	 * @param size the number of keys to reserve
+	 * @return the reserved keys
+	 */
+	protected long[] fetchBlock(int size) throws DataAccessException {
+		long[] block = new long[size];
+		for (int i = 0; i < size; i++) {
+			block[i] = this.targetIncrementer.nextLongValue();
+		}
+		return block;
+	}
+
+
+	/**
+	 * Return the number of blocks that have been reserved.
+	 */
+	public synchronized int getBlockRefillCount() {
+		return blockRefillCount;
+	}
+
+	/**
+	 * Return the number of times a caller had to wait for a block.
+	 */
+	public synchronized int getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * Return statistics on the time callers had to wait for a block.
+	 */
+	public ResponseTimeMonitor getWaitTimeMonitor() {
+		return this.waitTimeMonitor;
+	}
+
+
+	/**
+	 * Fetches a block whenever one is requested,
+	 * until it has been idle for FETCHER_IDLE_TIMEOUT.
+	 */
+	private class BlockFetcher implements Runnable {
+
+		public void run() {
+			while (awaitFetchRequest()) {
+				long[] block = null;
+				RuntimeException failure = null;
+				try {
+					block = fetchBlock(blockSize);
+				} catch (RuntimeException ex) {
+					logger.warn("Could not reserve block of keys", ex);
+					failure = ex;
+				}
+				synchronized (PrefetchingMaxValueIncrementer.this) {
+					fetching = false;
+					if (block != null) {
+						nextBlock = block;
+						blockRefillCount++;
+					} else {
+						fetchFailure = failure;
+					}
+					PrefetchingMaxValueIncrementer.this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait until the next block is requested.
+		 * @return whether to fetch a block, or false if this thread should end
+		 */
+		private boolean awaitFetchRequest() {
+			synchronized (PrefetchingMaxValueIncrementer.this) {
+				long idleEnd = System.currentTimeMillis() + FETCHER_IDLE_TIMEOUT;
+				while (!fetching) {
+					long timeout = idleEnd - System.currentTimeMillis();
+					if (timeout > 0) {
+						try {
+							PrefetchingMaxValueIncrementer.this.wait(timeout);
+							continue;
+						} catch (InterruptedException ex) {
+							// end this thread, a new one will be started when needed
+						}
+					}
+					fetcherThread = null;
+					return false;
+				}
+				return true;
+			}
+		}
+	}
+
+}
@@ -18,7 +18,8 @@ import java.sql.SQLException;
  * ApplicationContext via JndiObjectFactoryBean, for seamless switching to and from
  * a local DataSource bean like this class.
  *
- * <p>If you need a "real" connection pool outside of a container, consider
+ * <p>If you need a connection pool outside of a container, use PoolingDataSource,
+ * which supports the same basic properties, or consider
  * <a href="http://jakarta.apache.org/commons/dbcp">Apache's Jakarta Commons DBCP</a>.
  * Its BasicDataSource is a full connection pool bean, supporting the same basic
  * properties as this class + specific settings. It can be used as a replacement for
@@ -28,6 +29,7 @@ import java.sql.SQLException;
  * @version $Id: DriverManagerDataSource.java,v 1.4 2003/05/28 11:21:35 jhoeller Exp $
  * @see com.interface21.jndi.mock.MockInitialContextFactoryBuilder
  * @see com.interface21.jndi.JndiObjectFactoryBean
+ * @see PoolingDataSource
  * @since 14.03.2003
  */
 public class DriverManagerDataSource extends AbstractDataSource implements SmartDataSource {
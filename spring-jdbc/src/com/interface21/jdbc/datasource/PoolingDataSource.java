@@ -0,0 +1,1091 @@
+package com.interface21.jdbc.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.interface21.util.ResponseTimeMonitor;
+import com.interface21.util.ResponseTimeMonitorImpl;
+
+/**
+ * Implementation of SmartDataSource that keeps a pool of physical
+ * connections, configured via the same bean properties as
+ * DriverManagerDataSource. Intended for standalone environments outside
+ * of a J2EE container, where no container DataSource is available.
+ *
+ * <p>Returned connections are proxies: closing them returns the physical
+ * connection to the pool, so both DataSourceUtils.closeConnectionIfNecessary
+ * and plain Connection.close() calls work as expected. Returned connections
+ * are rolled back if necessary and reset to auto-commit, and their read-only
+ * flag, transaction isolation and catalog are restored to the values that
+ * the physical connection was created with.
+ *
+ * <p>The pool holds at most "maxActive" connections in use, and keeps at most
+ * "maxIdle" unused ones. Callers wait up to "maxWait" milliseconds for a
+ * connection if the pool is exhausted. The pool lock is only held for
+ * taking and returning a connection: physical connections are created,
+ * validated and closed outside of it.
+ *
+ * <p>If "maintenanceInterval" is set, a background daemon thread periodically
+ * closes connections that have been idle longer than "maxIdleTime", validates
+ * idle connections if "testWhileIdle" is set, fills the pool up to "minIdle"
+ * connections, and logs connections that have been in use longer than
+ * "leakDetectionThreshold", including the stack trace of the code that
+ * borrowed them.
+ *
+ * <p>If "statementCacheSize" is set, each physical connection keeps a cache of
+ * its most recently used PreparedStatements and CallableStatements, keyed by
+ * SQL and result set type and concurrency. Closing such a statement resets its
+ * parameters and returns it to the cache instead of closing it, avoiding a parse
+ * call on the database for each execution of the same SQL.
+ *
+ * @see DataSourceUtils#closeConnectionIfNecessary
+ * @see #setMaxActive
+ * @see #setMaintenanceInterval
+ * @see #setStatementCacheSize
+ */
+public class PoolingDataSource extends DriverManagerDataSource {
+
+	private int maxActive = 8;
+
+	private int maxIdle = 8;
+
+	private int minIdle = 0;
+
+	private long maxWait = -1;
+
+	private String validationQuery;
+
+	private boolean testOnBorrow = false;
+
+	private boolean testWhileIdle = false;
+
+	private long maintenanceInterval = 0;
+
+	private long maxIdleTime = 0;
+
+	private long leakDetectionThreshold = 0;
+
+	private int statementCacheSize = 0;
+
+	/**
+	 * Idle PooledConnections, most recently used first.
+	 * Also serves as lock for the pool state.
+	 */
+	private final LinkedList idleConnections = new LinkedList();
+
+	/** PooledConnections that are borrowed */
+	private final Set borrowedConnections = new HashSet();
+
+	/** Number of borrowed connections, including ones being created */
+	private int activeCount = 0;
+
+	private boolean closed = false;
+
+	private Timer maintenanceTimer;
+
+	private int borrowCount = 0;
+
+	private int waitCount = 0;
+
+	private int leakCount = 0;
+
+	private final ResponseTimeMonitorImpl waitTimeMonitor = new ResponseTimeMonitorImpl();
+
+	private int statementCacheHitCount = 0;
+
+	private int statementCacheMissCount = 0;
+
+
+	public PoolingDataSource() {
+	}
+
+	public PoolingDataSource(String driverName, String url, String user, String password)
+			throws CannotGetJdbcConnectionException {
+		super(driverName, url, user, password);
+	}
+
+	/**
+	 * Set the maximum number of connections in use at the same time. Default is 8.
+	 */
+	public void setMaxActive(int maxActive) {
+		if (maxActive < 1) {
+			throw new IllegalArgumentException("maxActive must be at least 1");
+		}
+		this.maxActive = maxActive;
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	/**
+	 * Set the maximum number of unused connections to keep. Default is 8.
+	 */
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	/**
+	 * Set the minimum number of unused connections that the maintenance
+	 * thread keeps in the pool. Default is 0.
+	 * @see #setMaintenanceInterval
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Set the maximum number of milliseconds to wait for a connection if the pool
+	 * is exhausted, before throwing an SQLException. Default is -1: wait indefinitely.
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * Set the SQL query used to validate connections, e.g. "SELECT 1 FROM DUAL".
+	 * Without a validation query, a connection is valid if it isn't closed.
+	 */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public String getValidationQuery() {
+		return validationQuery;
+	}
+
+	/**
+	 * Set whether to validate idle connections before handing them out.
+	 * Default is false.
+	 */
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	/**
+	 * Set whether the maintenance thread should validate idle connections.
+	 * Default is false.
+	 * @see #setMaintenanceInterval
+	 */
+	public void setTestWhileIdle(boolean testWhileIdle) {
+		this.testWhileIdle = testWhileIdle;
+	}
+
+	public boolean isTestWhileIdle() {
+		return testWhileIdle;
+	}
+
+	/**
+	 * Set the number of milliseconds between two runs of the maintenance thread.
+	 * Default is 0: no maintenance thread.
+	 */
+	public void setMaintenanceInterval(long maintenanceInterval) {
+		this.maintenanceInterval = maintenanceInterval;
+	}
+
+	public long getMaintenanceInterval() {
+		return maintenanceInterval;
+	}
+
+	/**
+	 * Set the number of milliseconds after which the maintenance thread closes
+	 * an unused connection, as long as more than minIdle connections are unused.
+	 * Default is 0: never close unused connections.
+	 */
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * Set the number of milliseconds after which the maintenance thread logs
+	 * a borrowed connection as potential leak, with the stack trace of the code
+	 * that borrowed it. Default is 0: no leak detection. Note that recording
+	 * the stack trace adds some overhead to each borrow.
+	 */
+	public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	/**
+	 * Set the maximum number of PreparedStatements and CallableStatements
+	 * to cache per physical connection, discarding the least recently used
+	 * ones beyond that. Default is 0: no statement caching.
+	 * <p>Note that some databases hold resources for each open statement,
+	 * limiting the sensible cache size.
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+
+	/**
+	 * Closing a connection returns it to the pool, so it should always be closed.
+	 */
+	public boolean shouldClose(Connection conn) {
+		return true;
+	}
+
+	public Connection getConnection() throws SQLException {
+		PooledConnection pc = borrowConnection();
+		return (Connection) Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+				new Class[] {Connection.class}, new PooledConnectionInvocationHandler(pc));
+	}
+
+	/**
+	 * Returns a pooled connection for the configured username and password,
+	 * else a new unpooled connection.
+	 */
+	public Connection getConnection(String username, String password) throws SQLException {
+		if (username != null && password != null && username.equals(getUsername()) && password.equals(getPassword())) {
+			return getConnection();
+		}
+		return super.getConnection(username, password);
+	}
+
+	/**
+	 * Take an idle connection, or create a new one if there is none
+	 * and less than maxActive connections are in use.
+	 */
+	private PooledConnection borrowConnection() throws SQLException {
+		long start = System.currentTimeMillis();
+		boolean waited = false;
+		while (true) {
+			PooledConnection pc = null;
+			synchronized (this.idleConnections) {
+				while (true) {
+					if (this.closed) {
+						throw new SQLException("PoolingDataSource has been closed");
+					}
+					if (!this.idleConnections.isEmpty()) {
+						pc = (PooledConnection) this.idleConnections.removeFirst();
+						break;
+					}
+					if (this.activeCount < this.maxActive) {
+						break;
+					}
+					long timeout = 0;
+					if (this.maxWait >= 0) {
+						timeout = start + this.maxWait - System.currentTimeMillis();
+						if (timeout <= 0) {
+							throw new SQLException("Timeout waiting for JDBC connection: all " + this.maxActive +
+							                       " connections of PoolingDataSource are in use");
+						}
+					}
+					if (!waited) {
+						waited = true;
+						this.waitCount++;
+					}
+					try {
+						this.idleConnections.wait(timeout);
+					} catch (InterruptedException ex) {
+						// keep the interrupt for the caller to see
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for JDBC connection");
+					}
+				}
+				this.activeCount++;
+				if (this.maintenanceTimer == null && this.maintenanceInterval > 0) {
+					startMaintenance();
+				}
+			}
+			if (pc == null) {
+				try {
+					pc = createPooledConnection();
+				} catch (SQLException ex) {
+					releaseSlot();
+					throw ex;
+				} catch (RuntimeException ex) {
+					releaseSlot();
+					throw ex;
+				}
+			} else if (this.testOnBorrow && !isValid(pc.connection)) {
+				logger.info("Discarding invalid JDBC connection from PoolingDataSource");
+				releaseSlot();
+				pc.destroy();
+				continue;
+			}
+			pc.lastUsed = System.currentTimeMillis();
+			if (this.leakDetectionThreshold > 0) {
+				pc.borrowStack = new Throwable("JDBC connection borrowed from PoolingDataSource");
+			}
+			synchronized (this.idleConnections) {
+				this.borrowedConnections.add(pc);
+				this.borrowCount++;
+				this.waitTimeMonitor.recordResponseTime(pc.lastUsed - start);
+			}
+			return pc;
+		}
+	}
+
+	/**
+	 * Give back a connection slot without returning a connection.
+	 */
+	private void releaseSlot() {
+		synchronized (this.idleConnections) {
+			this.activeCount--;
+			this.idleConnections.notify();
+		}
+	}
+
+	/**
+	 * Open a new physical connection, recording its initial settings.
+	 */
+	private PooledConnection createPooledConnection() throws SQLException {
+		Connection con = super.getConnection(getUsername(), getPassword());
+		try {
+			return new PooledConnection(con);
+		} catch (SQLException ex) {
+			try {
+				con.close();
+			} catch (SQLException ex2) {
+				logger.warn("Could not close JDBC connection", ex2);
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reset the given connection and return it to the idle connections,
+	 * or close it if it is broken or not needed anymore.
+	 */
+	private void returnConnection(PooledConnection pc) {
+		boolean reusable = reset(pc);
+		synchronized (this.idleConnections) {
+			this.activeCount--;
+			this.borrowedConnections.remove(pc);
+			pc.borrowStack = null;
+			pc.leakReported = false;
+			if (reusable && !this.closed && this.idleConnections.size() < this.maxIdle) {
+				pc.lastUsed = System.currentTimeMillis();
+				this.idleConnections.addFirst(pc);
+				this.idleConnections.notify();
+				return;
+			}
+			this.idleConnections.notify();
+		}
+		pc.destroy();
+	}
+
+	/**
+	 * Roll back any pending transaction and switch back to auto-commit,
+	 * and restore the initial read-only flag, isolation and catalog.
+	 * @return whether the connection can be reused
+	 */
+	private boolean reset(PooledConnection pc) {
+		Connection con = pc.connection;
+		try {
+			if (!con.getAutoCommit()) {
+				con.rollback();
+				con.setAutoCommit(true);
+			}
+			if (con.isReadOnly() != pc.readOnly) {
+				con.setReadOnly(pc.readOnly);
+			}
+			if (con.getTransactionIsolation() != pc.transactionIsolation) {
+				con.setTransactionIsolation(pc.transactionIsolation);
+			}
+			String catalog = con.getCatalog();
+			if (catalog != null ? !catalog.equals(pc.catalog) : pc.catalog != null) {
+				if (pc.catalog == null) {
+					// no catalog to switch back to
+					logger.info("Discarding JDBC connection with changed catalog [" + catalog + "]");
+					return false;
+				}
+				con.setCatalog(pc.catalog);
+			}
+			return !con.isClosed();
+		} catch (SQLException ex) {
+			logger.warn("Could not reset JDBC connection: discarding it", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Validate the given connection via the validation query, if any.
+	 */
+	protected boolean isValid(Connection con) {
+		try {
+			if (this.validationQuery == null) {
+				return !con.isClosed();
+			}
+			Statement stmt = con.createStatement();
+			try {
+				stmt.executeQuery(this.validationQuery).close();
+			} finally {
+				stmt.close();
+			}
+			return true;
+		} catch (SQLException ex) {
+			logger.debug("JDBC connection failed validation", ex);
+			return false;
+		}
+	}
+
+	private void startMaintenance() {
+		logger.info("Starting maintenance of PoolingDataSource every " + this.maintenanceInterval + " milliseconds");
+		this.maintenanceTimer = new Timer(true);
+		this.maintenanceTimer.schedule(new MaintenanceTask(), this.maintenanceInterval, this.maintenanceInterval);
+	}
+
+	/**
+	 * Evict and validate idle connections, fill up the pool to minIdle
+	 * and detect leaked connections. Called by the maintenance thread.
+	 */
+	protected void maintain() {
+		long now = System.currentTimeMillis();
+		List candidates = null;
+		synchronized (this.idleConnections) {
+			if (this.closed) {
+				return;
+			}
+			candidates = new ArrayList(this.idleConnections);
+		}
+		// check least recently used connections first
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			PooledConnection pc = (PooledConnection) candidates.get(i);
+			boolean expired = false;
+			synchronized (this.idleConnections) {
+				if (!this.idleConnections.contains(pc)) {
+					// borrowed concurrently
+					continue;
+				}
+				expired = (this.maxIdleTime > 0 && now - pc.lastUsed > this.maxIdleTime &&
+				           this.idleConnections.size() > this.minIdle);
+				if (!expired && !this.testWhileIdle) {
+					continue;
+				}
+				this.idleConnections.remove(pc);
+			}
+			if (!expired && isValid(pc.connection)) {
+				synchronized (this.idleConnections) {
+					if (!this.closed) {
+						this.idleConnections.addLast(pc);
+						this.idleConnections.notify();
+						continue;
+					}
+				}
+			}
+			pc.destroy();
+		}
+		fillPool();
+		detectLeaks(now);
+	}
+
+	private void fillPool() {
+		while (true) {
+			synchronized (this.idleConnections) {
+				if (this.closed || this.idleConnections.size() >= this.minIdle ||
+				    this.activeCount + this.idleConnections.size() >= this.maxActive) {
+					return;
+				}
+				this.activeCount++;
+			}
+			PooledConnection pc = null;
+			try {
+				pc = createPooledConnection();
+			} catch (SQLException ex) {
+				logger.warn("Could not create JDBC connection for PoolingDataSource", ex);
+				releaseSlot();
+				return;
+			}
+			returnConnection(pc);
+		}
+	}
+
+	private void detectLeaks(long now) {
+		if (this.leakDetectionThreshold <= 0) {
+			return;
+		}
+		synchronized (this.idleConnections) {
+			for (Iterator it = this.borrowedConnections.iterator(); it.hasNext();) {
+				PooledConnection pc = (PooledConnection) it.next();
+				if (!pc.leakReported && pc.borrowStack != null && now - pc.lastUsed > this.leakDetectionThreshold) {
+					pc.leakReported = true;
+					this.leakCount++;
+					logger.warn("JDBC connection has been in use for more than " + this.leakDetectionThreshold +
+					            " milliseconds: possible connection leak", pc.borrowStack);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Close all unused connections and stop the maintenance thread.
+	 * Connections that are in use are closed when they are returned.
+	 * The provider of this DataSource needs to care for proper shutdown.
+	 */
+	public void close() {
+		List toClose = null;
+		synchronized (this.idleConnections) {
+			this.closed = true;
+			if (this.maintenanceTimer != null) {
+				this.maintenanceTimer.cancel();
+				this.maintenanceTimer = null;
+			}
+			toClose = new ArrayList(this.idleConnections);
+			this.idleConnections.clear();
+			this.idleConnections.notifyAll();
+		}
+		for (int i = 0; i < toClose.size(); i++) {
+			((PooledConnection) toClose.get(i)).destroy();
+		}
+	}
+
+
+	/**
+	 * Return the number of connections that are currently in use.
+	 */
+	public int getActiveCount() {
+		synchronized (this.idleConnections) {
+			return this.activeCount;
+		}
+	}
+
+	/**
+	 * Return the number of unused connections in the pool.
+	 */
+	public int getIdleCount() {
+		synchronized (this.idleConnections) {
+			return this.idleConnections.size();
+		}
+	}
+
+	/**
+	 * Return the number of connections handed out so far.
+	 */
+	public int getBorrowCount() {
+		synchronized (this.idleConnections) {
+			return this.borrowCount;
+		}
+	}
+
+	/**
+	 * Return the number of requests that had to wait for a connection
+	 * because the pool was exhausted.
+	 */
+	public int getWaitCount() {
+		synchronized (this.idleConnections) {
+			return this.waitCount;
+		}
+	}
+
+	/**
+	 * Return the number of connections that have been reported as potential leaks.
+	 * @see #setLeakDetectionThreshold
+	 */
+	public int getLeakCount() {
+		synchronized (this.idleConnections) {
+			return this.leakCount;
+		}
+	}
+
+	/**
+	 * Return statistics about the time spent in getConnection,
+	 * including the time spent waiting for and creating connections.
+	 */
+	public ResponseTimeMonitor getWaitTimeMonitor() {
+		return this.waitTimeMonitor;
+	}
+
+	/**
+	 * Return the number of statements that have been taken from a statement cache.
+	 * @see #setStatementCacheSize
+	 */
+	public synchronized int getStatementCacheHitCount() {
+		return this.statementCacheHitCount;
+	}
+
+	/**
+	 * Return the number of statements that had to be prepared
+	 * because they were not in a statement cache.
+	 * @see #setStatementCacheSize
+	 */
+	public synchronized int getStatementCacheMissCount() {
+		return this.statementCacheMissCount;
+	}
+
+	/**
+	 * Return the percentage of statements that have been taken
+	 * from a statement cache, or 0 if none have been requested yet.
+	 * @see #setStatementCacheSize
+	 */
+	public synchronized int getStatementCacheHitRate() {
+		int total = this.statementCacheHitCount + this.statementCacheMissCount;
+		return (total > 0 ? this.statementCacheHitCount * 100 / total : 0);
+	}
+
+	private synchronized void recordStatementCacheAccess(boolean hit) {
+		if (hit) {
+			this.statementCacheHitCount++;
+		} else {
+			this.statementCacheMissCount++;
+		}
+	}
+
+
+	/**
+	 * Physical connection held by the pool, with its usage information.
+	 */
+	private class PooledConnection {
+
+		private final Connection connection;
+
+		/** Time of the last borrow or return */
+		private long lastUsed;
+
+		private Throwable borrowStack;
+
+		private boolean leakReported = false;
+
+		/** Settings of the physical connection when created, restored on return */
+		private final boolean readOnly;
+
+		private final int transactionIsolation;
+
+		private final String catalog;
+
+		/** Cached statements: StatementKey -> CachedStatement */
+		private final Map statementCache = new HashMap();
+
+		/** StatementKeys of the cached statements, most recently used first */
+		private final LinkedList statementKeys = new LinkedList();
+
+		private PooledConnection(Connection connection) throws SQLException {
+			this.connection = connection;
+			this.readOnly = connection.isReadOnly();
+			this.transactionIsolation = connection.getTransactionIsolation();
+			this.catalog = connection.getCatalog();
+		}
+
+		/**
+		 * Take a statement with the given key from the cache, or prepare a new one.
+		 */
+		private CachedStatement prepareStatement(StatementKey key) throws SQLException {
+			CachedStatement cs = null;
+			synchronized (this) {
+				cs = (CachedStatement) this.statementCache.remove(key);
+				if (cs != null) {
+					this.statementKeys.remove(key);
+				}
+			}
+			recordStatementCacheAccess(cs != null);
+			if (cs == null) {
+				cs = new CachedStatement(key, key.prepare(this.connection));
+			}
+			return cs;
+		}
+
+		/**
+		 * Put the given statement into the cache, closing the least recently used
+		 * statement if the cache is full.
+		 */
+		private void returnStatement(CachedStatement cs) {
+			CachedStatement toClose = null;
+			synchronized (this) {
+				if (this.statementCache.containsKey(cs.key)) {
+					// the same statement has been prepared twice
+					toClose = cs;
+				} else {
+					this.statementCache.put(cs.key, cs);
+					this.statementKeys.addFirst(cs.key);
+					if (this.statementKeys.size() > statementCacheSize) {
+						toClose = (CachedStatement) this.statementCache.remove(this.statementKeys.removeLast());
+					}
+				}
+			}
+			if (toClose != null) {
+				toClose.close();
+			}
+		}
+
+		private void destroy() {
+			List toClose = null;
+			synchronized (this) {
+				toClose = new ArrayList(this.statementCache.values());
+				this.statementCache.clear();
+				this.statementKeys.clear();
+			}
+			for (int i = 0; i < toClose.size(); i++) {
+				((CachedStatement) toClose.get(i)).close();
+			}
+			try {
+				this.connection.close();
+			} catch (SQLException ex) {
+				logger.warn("Could not close JDBC connection of PoolingDataSource", ex);
+			}
+		}
+	}
+
+
+	/**
+	 * Key of a cached statement: SQL, result set type and concurrency,
+	 * and whether it is a CallableStatement.
+	 */
+	private static class StatementKey {
+
+		private final boolean callable;
+
+		private final String sql;
+
+		private final int resultSetType;
+
+		private final int resultSetConcurrency;
+
+		private StatementKey(boolean callable, String sql, int resultSetType, int resultSetConcurrency) {
+			this.callable = callable;
+			this.sql = sql;
+			this.resultSetType = resultSetType;
+			this.resultSetConcurrency = resultSetConcurrency;
+		}
+
+		private PreparedStatement prepare(Connection con) throws SQLException {
+			if (this.callable) {
+				return con.prepareCall(this.sql, this.resultSetType, this.resultSetConcurrency);
+			} else {
+				return con.prepareStatement(this.sql, this.resultSetType, this.resultSetConcurrency);
+			}
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof StatementKey)) {
+				return false;
+			}
+			StatementKey otherKey = (StatementKey) other;
+			return (this.callable == otherKey.callable && this.sql.equals(otherKey.sql) &&
+			        this.resultSetType == otherKey.resultSetType &&
+			        this.resultSetConcurrency == otherKey.resultSetConcurrency);
+		}
+
+		public int hashCode() {
+			return this.sql.hashCode() * 29 + this.resultSetType * 7 + this.resultSetConcurrency + (this.callable ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * Physical statement held in a statement cache, remembering the original
+	 * values of the settings changed by the application so they can be restored.
+	 */
+	private static class CachedStatement {
+
+		private final StatementKey key;
+
+		private final PreparedStatement statement;
+
+		/** Original values of changed settings: setter Method -> value */
+		private final Map originalSettings = new HashMap();
+
+		private boolean batched = false;
+
+		private CachedStatement(StatementKey key, PreparedStatement statement) {
+			this.key = key;
+			this.statement = statement;
+		}
+
+		/**
+		 * Remember the original value of the setting that the given setter changes,
+		 * if it is one of the restorable ones.
+		 */
+		private void beforeInvocation(Method method) throws Throwable {
+			if (method.getName().equals("addBatch")) {
+				this.batched = true;
+			}
+			Method getter = (Method) SETTING_GETTERS.get(method);
+			if (getter != null && !this.originalSettings.containsKey(method)) {
+				try {
+					this.originalSettings.put(method, getter.invoke(this.statement, new Object[0]));
+				} catch (InvocationTargetException ex) {
+					throw ex.getTargetException();
+				}
+			}
+		}
+
+		/**
+		 * Reset parameters and settings for the next user.
+		 * @return whether the statement can be reused
+		 */
+		private boolean reset() {
+			try {
+				this.statement.clearParameters();
+				if (this.batched) {
+					this.statement.clearBatch();
+					this.batched = false;
+				}
+				for (Iterator it = this.originalSettings.entrySet().iterator(); it.hasNext();) {
+					Map.Entry entry = (Map.Entry) it.next();
+					((Method) entry.getKey()).invoke(this.statement, new Object[] {entry.getValue()});
+				}
+				this.originalSettings.clear();
+				this.statement.clearWarnings();
+				return true;
+			} catch (Exception ex) {
+				return false;
+			}
+		}
+
+		private void close() {
+			try {
+				this.statement.close();
+			} catch (SQLException ex) {
+				// ignore: the statement is discarded anyway
+			}
+		}
+	}
+
+	/**
+	 * Statement settings that are restored before a statement is cached:
+	 * setter name, getter name
+	 */
+	private static final String[][] RESTORABLE_SETTINGS = {
+		{"setFetchSize", "getFetchSize"},
+		{"setFetchDirection", "getFetchDirection"},
+		{"setMaxRows", "getMaxRows"},
+		{"setMaxFieldSize", "getMaxFieldSize"},
+		{"setQueryTimeout", "getQueryTimeout"},
+	};
+
+	/**
+	 * Getters of the restorable settings, keyed by setter Method,
+	 * so that a statement call only needs a map lookup
+	 */
+	private static final Map SETTING_GETTERS = new HashMap();
+
+	// We need a static block to handle checked exceptions
+	static {
+		try {
+			for (int i = 0; i < RESTORABLE_SETTINGS.length; i++) {
+				SETTING_GETTERS.put(Statement.class.getMethod(RESTORABLE_SETTINGS[i][0], new Class[] {int.class}),
+				                    Statement.class.getMethod(RESTORABLE_SETTINGS[i][1], new Class[0]));
+			}
+		} catch (NoSuchMethodException ex) {
+			// cannot happen: all of them are JDBC 2.0 Statement methods
+			throw new IllegalStateException("Statement setting method not found: " + ex.getMessage());
+		}
+	}
+
+
+	/**
+	 * Returns the pooled connection on close, delegating all other
+	 * calls to the physical connection until then.
+	 */
+	private class PooledConnectionInvocationHandler implements InvocationHandler {
+
+		private PooledConnection pooledConnection;
+
+		private PooledConnectionInvocationHandler(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("equals")) {
+				return (proxy == args[0] ? Boolean.TRUE : Boolean.FALSE);
+			} else if (methodName.equals("hashCode")) {
+				return new Integer(System.identityHashCode(proxy));
+			} else if (methodName.equals("toString")) {
+				return "Pooled connection from PoolingDataSource [" + getUrl() + "]";
+			}
+			PooledConnection pc = null;
+			synchronized (this) {
+				pc = this.pooledConnection;
+				if (methodName.equals("close")) {
+					// return the connection only once
+					this.pooledConnection = null;
+				}
+			}
+			if (methodName.equals("close")) {
+				if (pc != null) {
+					returnConnection(pc);
+				}
+				return null;
+			} else if (methodName.equals("isClosed") && pc == null) {
+				return Boolean.TRUE;
+			} else if (pc == null) {
+				throw new SQLException("Connection has already been returned to PoolingDataSource");
+			}
+			if (statementCacheSize > 0 && (methodName.equals("prepareStatement") || methodName.equals("prepareCall"))) {
+				StatementKey key = getStatementKey(methodName.equals("prepareCall"), args);
+				if (key != null) {
+					CachedStatement cs = pc.prepareStatement(key);
+					Class statementInterface = (key.callable ? CallableStatement.class : PreparedStatement.class);
+					return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+							new Class[] {statementInterface}, new CachedStatementInvocationHandler(pc, cs, (Connection) proxy));
+				}
+			}
+			try {
+				return method.invoke(pc.connection, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			}
+		}
+	}
+
+
+	/**
+	 * Return the cache key for the given prepare arguments,
+	 * or null if the statement cannot be cached.
+	 */
+	private static StatementKey getStatementKey(boolean callable, Object[] args) {
+		if (args.length == 1) {
+			return new StatementKey(callable, (String) args[0],
+			                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		} else if (args.length == 3 && args[1] instanceof Integer && args[2] instanceof Integer) {
+			return new StatementKey(callable, (String) args[0],
+			                        ((Integer) args[1]).intValue(), ((Integer) args[2]).intValue());
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the statement to the statement cache of its connection on close,
+	 * delegating all other calls to the physical statement until then.
+	 */
+	private class CachedStatementInvocationHandler implements InvocationHandler {
+
+		private final PooledConnection pooledConnection;
+
+		private CachedStatement cachedStatement;
+
+		private final Connection connectionProxy;
+
+		private CachedStatementInvocationHandler(PooledConnection pooledConnection, CachedStatement cachedStatement,
+		                                         Connection connectionProxy) {
+			this.pooledConnection = pooledConnection;
+			this.cachedStatement = cachedStatement;
+			this.connectionProxy = connectionProxy;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("equals")) {
+				return (proxy == args[0] ? Boolean.TRUE : Boolean.FALSE);
+			} else if (methodName.equals("hashCode")) {
+				return new Integer(System.identityHashCode(proxy));
+			} else if (methodName.equals("toString")) {
+				return "Cached statement from PoolingDataSource [" + this.cachedStatement + "]";
+			}
+			CachedStatement cs = this.cachedStatement;
+			if (methodName.equals("close")) {
+				if (cs != null) {
+					// return the statement only once
+					this.cachedStatement = null;
+					if (cs.reset()) {
+						this.pooledConnection.returnStatement(cs);
+					} else {
+						cs.close();
+					}
+				}
+				return null;
+			} else if (cs == null) {
+				throw new SQLException("Statement has already been closed");
+			} else if (methodName.equals("getConnection")) {
+				return this.connectionProxy;
+			}
+			cs.beforeInvocation(method);
+			Object result = null;
+			try {
+				result = method.invoke(cs.statement, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			}
+			if (result instanceof ResultSet) {
+				return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+						new Class[] {ResultSet.class}, new CachedResultSetInvocationHandler((ResultSet) result, proxy));
+			}
+			return result;
+		}
+	}
+
+
+	/**
+	 * Returns the statement proxy instead of the physical cached statement
+	 * from getStatement, delegating all other calls to the physical result set.
+	 */
+	private static class CachedResultSetInvocationHandler implements InvocationHandler {
+
+		private final ResultSet resultSet;
+
+		private final Object statementProxy;
+
+		private CachedResultSetInvocationHandler(ResultSet resultSet, Object statementProxy) {
+			this.resultSet = resultSet;
+			this.statementProxy = statementProxy;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("equals")) {
+				return (proxy == args[0] ? Boolean.TRUE : Boolean.FALSE);
+			} else if (methodName.equals("hashCode")) {
+				return new Integer(System.identityHashCode(proxy));
+			} else if (methodName.equals("getStatement")) {
+				return this.statementProxy;
+			}
+			try {
+				return method.invoke(this.resultSet, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			}
+		}
+	}
+
+
+	private class MaintenanceTask extends TimerTask {
+
+		public void run() {
+			try {
+				maintain();
+			} catch (RuntimeException ex) {
+				logger.error("Maintenance of PoolingDataSource failed", ex);
+			}
+		}
+	}
+
+}
@@ -19,7 +19,10 @@ import java.util.List;
 
 import javax.sql.DataSource;
 
+import com.interface21.dao.DataAccessException;
 import com.interface21.jdbc.core.ResultReader;
+import com.interface21.jdbc.core.ResultSetCursor;
+import com.interface21.jdbc.core.RowExtracter;
 
 /**
  * Reusable RDBMS query in which concrete subclasses must
@@ -91,6 +94,25 @@ public abstract class MappingSqlQueryWithParameters extends SqlQuery {
 	 */
 	protected abstract Object mapRow(ResultSet rs, int rownum, Object[] parameters) throws SQLException;
 
+	/**
+	 * Execute the query, returning a cursor that maps each row via mapRow
+	 * only when it is requested. Allows for processing large results in
+	 * constant memory, in contrast to execute which returns all results as List.
+	 * <br>The cursor holds a connection until it is closed:
+	 * callers must close it in a finally block.
+	 * @param parameters parameters, as an array of objects. May be null.
+	 * @return the cursor, positioned before the first row
+	 * @see #setFetchSize
+	 */
+	public final ResultSetCursor openCursor(final Object[] parameters) throws DataAccessException {
+		validateParameters(parameters);
+		return getJdbcTemplate().openCursor(newPreparedStatementCreator(parameters), new RowExtracter() {
+			public Object extractRow(ResultSet rs, int rowNum) throws SQLException {
+				return mapRow(rs, rowNum, parameters);
+			}
+		});
+	}
+
 
 	//-------------------------------------------------------------------------
 	// Inner classes
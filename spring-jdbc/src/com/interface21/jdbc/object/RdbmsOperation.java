@@ -11,8 +11,10 @@
 
 package com.interface21.jdbc.object;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -73,6 +75,16 @@ public abstract class RdbmsOperation implements InitializingBean {
 	 */
 	private boolean compiled;
 
+	/**
+	 * Fetch size, maximum number of rows and query timeout for
+	 * statements issued by this operation (0 for the driver defaults)
+	 */
+	private int fetchSize = 0;
+
+	private int maxRows = 0;
+
+	private int queryTimeout = 0;
+
 
 	//---------------------------------------------------------------------
 	// Constructors
@@ -165,6 +177,61 @@ public abstract class RdbmsOperation implements InitializingBean {
 		this.dataSource = dataSource;
 	}
 
+	/**
+	 * Set the fetch size for this operation's queries, i.e. the number of rows
+	 * that the driver should fetch from the database per round trip.
+	 * Default is 0, meaning the driver's default.
+	 * @see com.interface21.jdbc.core.JdbcTemplate#setFetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (compiled)
+			throw new InvalidDataAccessApiUsageException("Cannot change fetch size once operation is compiled");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Return the fetch size for this operation's queries
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Set the maximum number of rows that this operation's queries should
+	 * return. Default is 0, meaning no limit.
+	 * @see com.interface21.jdbc.core.JdbcTemplate#setMaxRows
+	 */
+	public void setMaxRows(int maxRows) {
+		if (compiled)
+			throw new InvalidDataAccessApiUsageException("Cannot change max rows once operation is compiled");
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * Return the maximum number of rows for this operation's queries
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	/**
+	 * Set the number of seconds the driver should wait for this operation's
+	 * statements to execute. Default is 0, meaning no limit.
+	 * @see com.interface21.jdbc.core.JdbcTemplate#setQueryTimeout
+	 */
+	public void setQueryTimeout(int queryTimeout) {
+		if (compiled)
+			throw new InvalidDataAccessApiUsageException("Cannot change query timeout once operation is compiled");
+		this.queryTimeout = queryTimeout;
+	}
+
+	/**
+	 * Return the query timeout for this operation's statements, in seconds
+	 */
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+
 
 	//---------------------------------------------------------------------
 	// Implementation of InitializingBean
@@ -249,4 +316,31 @@ public abstract class RdbmsOperation implements InitializingBean {
 		}
 	}
 
+
+	/**
+	 * Validate the given named parameters and convert them to
+	 * an array in the order of the declared parameters.
+	 * Subclasses should invoke this method before every execute() or update()
+	 * method that takes named parameters.
+	 * @param paramMap Map of parameter name to value. May be null.
+	 * @return the parameter values, to be passed to validateParameters
+	 * @throws InvalidDataAccessApiUsageException if a value is missing
+	 * for a declared parameter
+	 */
+	protected final Object[] buildParameterArray(Map paramMap) throws InvalidDataAccessApiUsageException {
+		if (!compiled)
+			throw new InvalidDataAccessApiUsageException("SQL operation must be compiled before execution");
+
+		Object[] parameters = new Object[declaredParameters.size()];
+		int i = 0;
+		for (Iterator it = declaredParameters.iterator(); it.hasNext(); i++) {
+			SqlParameter param = (SqlParameter) it.next();
+			if (param.getName() == null || paramMap == null || !paramMap.containsKey(param.getName()))
+				throw new InvalidDataAccessApiUsageException("No value supplied for parameter '" + param.getName() +
+						"' in class " + getClass().getName());
+			parameters[i] = paramMap.get(param.getName());
+		}
+		return parameters;
+	}
+
 }
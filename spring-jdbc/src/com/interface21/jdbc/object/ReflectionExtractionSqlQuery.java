@@ -8,8 +8,9 @@ import com.interface21.jdbc.core.ResultReader;
  * Reusable threadsafe query in which reflection is used to
  * extract each result row.
  * Each object must be of the same type.
- * NOTE : THIS CLASS IS A DEMONSTRATION ONLY OF THIS APPROACH.
- * IT IS NOT FULLY IMPLEMENTED, DOCUMENTED OR TESTED.
+ * Columns are mapped to bean properties with matching names:
+ * see ReflectionRowExtractor for the matching rules.
+ * @see ReflectionRowExtractor
  */
 public abstract class ReflectionExtractionSqlQuery extends SqlQuery {
 
@@ -63,7 +64,7 @@ public abstract class ReflectionExtractionSqlQuery extends SqlQuery {
 	/**
 	 * Use reflection to extract an object from each row of the result.
 	 */
-	protected ResultReader newResultReader(int rowsExpected) {
+	protected ResultReader newResultReader(int rowsExpected, Object[] parameters) {
 		return new ReflectionRowExtractor(getResultClass(), rowsExpected);
 	}
 
@@ -1,75 +1,233 @@
 package com.interface21.jdbc.object;
 
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.interface21.beans.BeanWrapper;
+import com.interface21.beans.BeanUtils;
 import com.interface21.beans.BeanWrapperImpl;
 import com.interface21.beans.BeansException;
-import com.interface21.beans.MutablePropertyValues;
-import com.interface21.beans.PropertyValue;
 import com.interface21.dao.InvalidDataAccessApiUsageException;
 import com.interface21.jdbc.core.ResultReader;
 import com.interface21.jdbc.core.RowCountCallbackHandler;
 
 /**
- * DEMONSTRATION OF THIS APPROACH ONLY: NOT FULLY IMPLEMENTED,
- * DOCUMENTED OR TESTED.
+ * ResultReader that creates an instance of the result class for each row,
+ * populating its bean properties from the columns with matching names.
+ * A column matches a property if their names are equal ignoring case,
+ * also ignoring underscores in the column name: e.g. both "FIRSTNAME"
+ * and "FIRST_NAME" map to the "firstName" property. Columns without
+ * a matching writable property are ignored.
+ *
+ * <p>The mapping from column index to property setter is resolved once,
+ * from the ResultSetMetaData of the first row. Each row is then read
+ * by column index, with the ResultSet getter matching the property type
+ * (e.g. getInt for an int property), and the values are passed to the
+ * cached setter methods directly.
+ *
+ * <p>A null column value leaves a primitive property at its default value.
+ *
+ * @see ReflectionExtractionSqlQuery
  */
 public class ReflectionRowExtractor extends RowCountCallbackHandler implements ResultReader {
 
+	private static final int TYPE_OBJECT = 0;
+	private static final int TYPE_STRING = 1;
+	private static final int TYPE_INT = 2;
+	private static final int TYPE_LONG = 3;
+	private static final int TYPE_DOUBLE = 4;
+	private static final int TYPE_FLOAT = 5;
+	private static final int TYPE_SHORT = 6;
+	private static final int TYPE_BYTE = 7;
+	private static final int TYPE_BOOLEAN = 8;
+	private static final int TYPE_BIG_DECIMAL = 9;
+	private static final int TYPE_TIMESTAMP = 10;
+	private static final int TYPE_DATE = 11;
+	private static final int TYPE_TIME = 12;
+
 	protected final Log logger = LogFactory.getLog(getClass());
 
 	private List l;
 
 	private Class resultClass;
 
-	/**
-	 * Column extractor to use
-	 */
-	//private ColumnExtractor columnExtractor;
+	/** Properties of the result class, introspected once */
+	private PropertyDescriptor[] propertyDescriptors;
+
+	/** Mappings for the columns with matching properties, resolved on the first row */
+	private ColumnMapping[] columnMappings;
+
 	public ReflectionRowExtractor(Class resultClass, int rowsExpected) throws InvalidDataAccessApiUsageException {
 		// Use the more efficient collection if we know how many rows to expect
 		this.l = (rowsExpected > 0) ? (List) new ArrayList(rowsExpected) : (List) new LinkedList();
-
 		this.resultClass = resultClass;
-		//this.columnExtractor = new DefaultColumnExtractor();
 		try {
-			new BeanWrapperImpl(resultClass);
+			this.propertyDescriptors = new BeanWrapperImpl(resultClass).getPropertyDescriptors();
 		} catch (BeansException ex) {
-			// TODO: CORRECT EXCEPTION TYPE?
 			throw new InvalidDataAccessApiUsageException("Can't introspect results: " + ex);
 		}
 	}
 
 	protected void processRow(ResultSet rs, int rowNum) throws SQLException, InvalidDataAccessApiUsageException {
-		//l.add(columnExtractor.extractColumn(1, requiredType, rs));
-		MutablePropertyValues pvs = new MutablePropertyValues();
-		for (int i = 0; i < getColumnCount(); i++) {
-			String colname = getColumnNames()[i];
-
-			// HACK!!!!
-			colname = colname.toLowerCase();
-
-			// TODO: clean up types
-			PropertyValue pv = new PropertyValue(colname, rs.getObject(colname));
-			logger.info("Found property value " + pv);
-			pvs.addPropertyValue(pv);
+		if (this.columnMappings == null) {
+			this.columnMappings = resolveColumnMappings(getColumnNames());
 		}
+		Object result = null;
 		try {
-			BeanWrapper bw = new BeanWrapperImpl(resultClass);
-			bw.setEventPropagationEnabled(false);
-			bw.setPropertyValues(pvs);
-			l.add(bw.getWrappedInstance());
+			result = BeanUtils.instantiateClass(this.resultClass);
 		} catch (BeansException ex) {
 			throw new InvalidDataAccessApiUsageException("Can't add row results: " + ex);
 		}
+		for (int i = 0; i < this.columnMappings.length; i++) {
+			ColumnMapping mapping = this.columnMappings[i];
+			Object value = getColumnValue(rs, mapping.columnIndex, mapping.type);
+			if (value == null && mapping.primitive) {
+				continue;
+			}
+			mapping.args[0] = value;
+			try {
+				mapping.writeMethod.invoke(result, mapping.args);
+			} catch (InvocationTargetException ex) {
+				throw new InvalidDataAccessApiUsageException("Can't set property '" + mapping.propertyName + "': " +
+				                                             ex.getTargetException());
+			} catch (IllegalAccessException ex) {
+				throw new InvalidDataAccessApiUsageException("Can't set property '" + mapping.propertyName + "': " + ex);
+			} catch (IllegalArgumentException ex) {
+				throw new InvalidDataAccessApiUsageException("Can't set property '" + mapping.propertyName +
+				                                             "' to value [" + value + "]: " + ex);
+			} finally {
+				mapping.args[0] = null;
+			}
+		}
+		this.l.add(result);
+	}
+
+	/**
+	 * Map the given columns to the writable properties of the result class.
+	 * @param columnNames the names of the columns, indexed from 0
+	 * @return the mappings of the columns that have a matching property
+	 */
+	private ColumnMapping[] resolveColumnMappings(String[] columnNames) {
+		PropertyDescriptor[] pds = this.propertyDescriptors;
+		Map writableProperties = new HashMap();
+		for (int i = 0; i < pds.length; i++) {
+			if (pds[i].getWriteMethod() != null) {
+				writableProperties.put(pds[i].getName().toLowerCase(), pds[i]);
+			}
+		}
+		List mappings = new ArrayList(columnNames.length);
+		for (int i = 0; i < columnNames.length; i++) {
+			String columnName = columnNames[i].toLowerCase();
+			PropertyDescriptor pd = (PropertyDescriptor) writableProperties.get(columnName);
+			if (pd == null && columnName.indexOf('_') != -1) {
+				pd = (PropertyDescriptor) writableProperties.get(removeUnderscores(columnName));
+			}
+			if (pd != null) {
+				mappings.add(new ColumnMapping(i + 1, pd));
+			} else if (logger.isDebugEnabled()) {
+				logger.debug("No property of " + this.resultClass + " found for column '" + columnNames[i] + "'");
+			}
+		}
+		return (ColumnMapping[]) mappings.toArray(new ColumnMapping[mappings.size()]);
+	}
+
+	private static String removeUnderscores(String name) {
+		StringBuffer sb = new StringBuffer(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_') {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Determine the ResultSet getter to use for the given property type.
+	 */
+	private static int getColumnType(Class propertyType) {
+		if (propertyType == String.class) {
+			return TYPE_STRING;
+		} else if (propertyType == int.class || propertyType == Integer.class) {
+			return TYPE_INT;
+		} else if (propertyType == long.class || propertyType == Long.class) {
+			return TYPE_LONG;
+		} else if (propertyType == double.class || propertyType == Double.class) {
+			return TYPE_DOUBLE;
+		} else if (propertyType == float.class || propertyType == Float.class) {
+			return TYPE_FLOAT;
+		} else if (propertyType == short.class || propertyType == Short.class) {
+			return TYPE_SHORT;
+		} else if (propertyType == byte.class || propertyType == Byte.class) {
+			return TYPE_BYTE;
+		} else if (propertyType == boolean.class || propertyType == Boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (propertyType == BigDecimal.class) {
+			return TYPE_BIG_DECIMAL;
+		} else if (propertyType == java.sql.Date.class) {
+			return TYPE_DATE;
+		} else if (propertyType == java.sql.Time.class) {
+			return TYPE_TIME;
+		} else if (propertyType == java.util.Date.class || propertyType == java.sql.Timestamp.class) {
+			return TYPE_TIMESTAMP;
+		}
+		return TYPE_OBJECT;
+	}
+
+	/**
+	 * Read the given column with the getter for the given type.
+	 * @return the value, or null if the column was SQL NULL
+	 */
+	private static Object getColumnValue(ResultSet rs, int index, int type) throws SQLException {
+		Object value = null;
+		switch (type) {
+			case TYPE_STRING:
+				return rs.getString(index);
+			case TYPE_INT:
+				value = new Integer(rs.getInt(index));
+				break;
+			case TYPE_LONG:
+				value = new Long(rs.getLong(index));
+				break;
+			case TYPE_DOUBLE:
+				value = new Double(rs.getDouble(index));
+				break;
+			case TYPE_FLOAT:
+				value = new Float(rs.getFloat(index));
+				break;
+			case TYPE_SHORT:
+				value = new Short(rs.getShort(index));
+				break;
+			case TYPE_BYTE:
+				value = new Byte(rs.getByte(index));
+				break;
+			case TYPE_BOOLEAN:
+				value = (rs.getBoolean(index) ? Boolean.TRUE : Boolean.FALSE);
+				break;
+			case TYPE_BIG_DECIMAL:
+				return rs.getBigDecimal(index);
+			case TYPE_TIMESTAMP:
+				return rs.getTimestamp(index);
+			case TYPE_DATE:
+				return rs.getDate(index);
+			case TYPE_TIME:
+				return rs.getTime(index);
+			default:
+				return rs.getObject(index);
+		}
+		// primitive getters return 0 or false for SQL NULL
+		return (rs.wasNull() ? null : value);
 	}
 
 
@@ -77,4 +235,32 @@ public class ReflectionRowExtractor extends RowCountCallbackHandler implements R
 		return l;
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Mapping of a column to the setter of a bean property.
+	 */
+	private static class ColumnMapping {
+
+		private final int columnIndex;
+
+		private final String propertyName;
+
+		private final Method writeMethod;
+
+		private final int type;
+
+		private final boolean primitive;
+
+		/** Reused argument array for the setter */
+		private final Object[] args = new Object[1];
+
+		private ColumnMapping(int columnIndex, PropertyDescriptor pd) {
+			this.columnIndex = columnIndex;
+			this.propertyName = pd.getName();
+			this.writeMethod = pd.getWriteMethod();
+			this.type = getColumnType(pd.getPropertyType());
+			this.primitive = pd.getPropertyType().isPrimitive();
+		}
+	}
+
+}
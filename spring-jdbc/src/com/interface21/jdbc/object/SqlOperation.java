@@ -15,6 +15,7 @@ import com.interface21.dao.InvalidDataAccessApiUsageException;
 import com.interface21.jdbc.core.JdbcTemplate;
 import com.interface21.jdbc.core.PreparedStatementCreator;
 import com.interface21.jdbc.core.PreparedStatementCreatorFactory;
+import com.interface21.jdbc.core.PreparedStatementSetter;
 import com.interface21.jdbc.util.JdbcUtils;
 
 /**
@@ -22,7 +23,9 @@ import com.interface21.jdbc.util.JdbcUtils;
  * operation such as a query or update, as opposed to a stored
  * procedure.
  * <br>Configures a PreparedStatementCreatorFactory based on the declared
- * parameters.
+ * parameters. The SQL can either use "?" placeholders or named parameters
+ * like ":name"; the latter are only used if all parameters are declared
+ * with names and the SQL contains no "?" placeholder.
  * @author Rod Johnson
  * @version $Id: SqlOperation.java,v 1.4 2003/04/21 19:03:11 isabellem Exp $
  */
@@ -72,6 +75,22 @@ public abstract class SqlOperation extends RdbmsOperation {
 		return this.preparedStatementFactory.newPreparedStatementCreator(params);
 	}
 
+	/**
+	 * Return a PreparedStatementSetter to set the given parameters on a
+	 * statement for getJdbcSql(), e.g. for batch updates
+	 * @param params parameters. May be null.
+	 */
+	protected final PreparedStatementSetter newPreparedStatementSetter(Object[] params) {
+		return this.preparedStatementFactory.newPreparedStatementSetter(params);
+	}
+
+	/**
+	 * Return the SQL to prepare, with named parameters replaced by "?"
+	 */
+	protected final String getJdbcSql() {
+		return this.preparedStatementFactory.getJdbcSql();
+	}
+
 	/**
 	 * Overriden method to configure the PreparedStatementCreatorFactory
 	 * based on our declared parameters.
@@ -79,19 +98,24 @@ public abstract class SqlOperation extends RdbmsOperation {
 	 */
 	protected final void compileInternal() {
 		this.jdbcTemplate = new JdbcTemplate(getDataSource());
-		// Validate parameter count
-		int bindVarCount = 0;
-		try {
-			bindVarCount = JdbcUtils.countParameterPlaceholders(getSql(), '?', '\'');
-		} catch (IllegalArgumentException e) {
-			// Transform jdbc-agnostic error to data-access error
-			throw new InvalidDataAccessApiUsageException(e.getMessage());
-		}
-		if (bindVarCount != getDeclaredParameters().size())
-			throw new InvalidDataAccessApiUsageException("SQL '" + getSql() + "' requires " + bindVarCount +
-					" bind variables, but " + getDeclaredParameters().size() + " variables were declared for this object");
-
+		this.jdbcTemplate.setFetchSize(getFetchSize());
+		this.jdbcTemplate.setMaxRows(getMaxRows());
+		this.jdbcTemplate.setQueryTimeout(getQueryTimeout());
+		// Determines the parameter binding, validating named parameters
 		this.preparedStatementFactory = new PreparedStatementCreatorFactory(getSql(), getDeclaredParameters());
+		if (!this.preparedStatementFactory.isUsingNamedParameters()) {
+			// Validate parameter count
+			int bindVarCount = 0;
+			try {
+				bindVarCount = JdbcUtils.countParameterPlaceholders(getSql(), '?', '\'');
+			} catch (IllegalArgumentException e) {
+				// Transform jdbc-agnostic error to data-access error
+				throw new InvalidDataAccessApiUsageException(e.getMessage());
+			}
+			if (bindVarCount != getDeclaredParameters().size())
+				throw new InvalidDataAccessApiUsageException("SQL '" + getSql() + "' requires " + bindVarCount +
+						" bind variables, but " + getDeclaredParameters().size() + " variables were declared for this object");
+		}
 		onCompileInternal();
 	}
 
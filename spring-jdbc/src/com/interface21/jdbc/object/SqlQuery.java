@@ -12,6 +12,7 @@
 package com.interface21.jdbc.object;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -125,6 +126,17 @@ public abstract class SqlQuery extends SqlOperation {
 		return rr.getResults();
 	}
 
+	/**
+	 * Execute with named parameters, for SQL with parameters like ":name".
+	 * A Collection value gets expanded into a list of values, e.g. for an IN clause.
+	 * @param paramMap Map of parameter name to value, containing a value
+	 * for each declared parameter
+	 * @return a list of objects, one per row of the ResultSet
+	 */
+	public final List executeByNamedParam(Map paramMap) throws DataAccessException {
+		return execute(buildParameterArray(paramMap));
+	}
+
 	/**
 	 * Convenient method to execute without parameters
 	 */
@@ -170,6 +182,14 @@ public abstract class SqlQuery extends SqlOperation {
 		return l.get(0);
 	}
 
+	/**
+	 * Find a single object given named parameters.
+	 * @see #executeByNamedParam
+	 */
+	public final Object findObjectByNamedParam(Map paramMap) throws DataAccessException {
+		return findObject(buildParameterArray(paramMap));
+	}
+
 	/**
 	 * Convenience method to find a single object given a single int parameter
 	 */
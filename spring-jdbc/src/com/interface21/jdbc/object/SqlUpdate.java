@@ -11,11 +11,19 @@
 
 package com.interface21.jdbc.object;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import javax.sql.DataSource;
 
+import com.interface21.dao.DataAccessException;
 import com.interface21.dao.InvalidDataAccessApiUsageException;
-import com.interface21.jdbc.core.JdbcUpdateAffectedIncorrectNumberOfRowsException;
-import com.interface21.jdbc.core.JdbcTemplate;
+import com.interface21.jdbc.core.BatchPreparedStatementSetter;
+import com.interface21.jdbc.core.PreparedStatementCreatorFactory;
+import com.interface21.jdbc.core.UpdateBatch;
 
 /**
  * RdbmsOperation subclass representing a SQL update.
@@ -26,11 +34,22 @@ import com.interface21.jdbc.core.JdbcTemplate;
  * <br>This class is concrete. Although it can be subclassed (for example
  * to add a custom update method) it can easily be parameterized by setting
  * SQL and declaring parameters.
+ * <br>Many rows can be updated at once via batchUpdate(), sending them to the
+ * database in chunks of "batchSize" rows: either as JDBC batches, or for
+ * inserts into databases that support it (e.g. MySQL, PostgreSQL, HSQL)
+ * as a single insert statement with multiple rows of values per chunk.
  * @author Rod Johnson
  * @author Isabelle Muszynski
  */
 public class SqlUpdate extends SqlOperation {
 
+	/**
+	 * Update count for rows of a batch update whose number of affected rows
+	 * is unknown. Same value as JDBC 3.0's Statement.SUCCESS_NO_INFO, which
+	 * some drivers return for JDBC batches as well.
+	 */
+	public static final int SUCCESS_NO_INFO = -2;
+
 	//---------------------------------------------------------------------
 	// Instance data
 	//---------------------------------------------------------------------
@@ -46,6 +65,31 @@ public class SqlUpdate extends SqlOperation {
 	 */
 	private int requiredRowsAffected;
 
+	/**
+	 * Number of rows per chunk of a batch update. 0 means all rows at once.
+	 */
+	private int batchSize = 1000;
+
+	private boolean multiRowInsert = false;
+
+	/**
+	 * Parts of the SQL for multi-row inserts: the SQL up to the values,
+	 * the parenthesized values of one row, and anything after the values
+	 */
+	private String valuesPrefix;
+
+	private String valuesRow;
+
+	private String valuesSuffix;
+
+	/**
+	 * Factory for multi-row inserts of a full chunk, created on first use,
+	 * and the number of rows it was created for. Both synchronized on this object.
+	 */
+	private PreparedStatementCreatorFactory fullChunkFactory;
+
+	private int fullChunkRows;
+
 
 	//---------------------------------------------------------------------
 	// Constructors
@@ -130,6 +174,91 @@ public class SqlUpdate extends SqlOperation {
 	}
 
 
+	/**
+	 * Set the number of rows to send to the database at once in batchUpdate.
+	 * Default is 1000. 0 means to send all rows at once, which many drivers
+	 * don't support for large numbers of rows.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Return the number of rows to send to the database at once in batchUpdate.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set whether batchUpdate should combine the rows of each chunk into a
+	 * single insert statement with multiple rows of values, like
+	 * "insert into t (a, b) values (?, ?), (?, ?), ...", instead of using a
+	 * JDBC batch. Default is false. Requires the SQL to be an insert with
+	 * a single parenthesized list of values at its end, with "?" placeholders,
+	 * and a database that supports multi-row inserts. Note that the number
+	 * of parameters per statement is limited with some databases.
+	 */
+	public void setMultiRowInsert(boolean multiRowInsert) {
+		if (isCompiled())
+			throw new InvalidDataAccessApiUsageException("Cannot change multiRowInsert once update is compiled");
+		this.multiRowInsert = multiRowInsert;
+	}
+
+	/**
+	 * Return whether batchUpdate combines the rows of each chunk
+	 * into a single insert statement.
+	 */
+	public boolean isMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	/**
+	 * Determines the parts of the SQL for multi-row inserts, if necessary.
+	 */
+	protected void onCompileInternal() {
+		if (this.multiRowInsert) {
+			String sql = getSql();
+			if (!sql.equals(getJdbcSql()))
+				throw new InvalidDataAccessApiUsageException("Multi-row insert does not support named parameters: SQL '" + sql + "'");
+			int valuesStart = sql.toLowerCase().lastIndexOf("values");
+			int rowStart = (valuesStart != -1) ? sql.indexOf('(', valuesStart) : -1;
+			int rowEnd = (rowStart != -1) ? findClosingParenthesis(sql, rowStart) : -1;
+			if (rowEnd == -1 || sql.substring(valuesStart + 6, rowStart).trim().length() > 0 ||
+			    sql.substring(rowEnd + 1).trim().length() > 0)
+				throw new InvalidDataAccessApiUsageException("Multi-row insert requires SQL of the form " +
+				                                             "'insert into ... values (...)': SQL '" + sql + "'");
+			this.valuesPrefix = sql.substring(0, rowStart);
+			this.valuesRow = sql.substring(rowStart, rowEnd + 1);
+			this.valuesSuffix = sql.substring(rowEnd + 1);
+		}
+	}
+
+	/**
+	 * Return the index of the parenthesis that closes the one at the given
+	 * index, ignoring parentheses in quotes, or -1 if not found.
+	 */
+	private static int findClosingParenthesis(String sql, int start) {
+		int depth = 0;
+		for (int i = start; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				int end = sql.indexOf(c, i + 1);
+				if (end == -1)
+					return -1;
+				i = end;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0)
+					return i;
+			}
+		}
+		return -1;
+	}
+
+
 	//---------------------------------------------------------------------
 	// Public methods
 	//---------------------------------------------------------------------
@@ -137,28 +266,144 @@ public class SqlUpdate extends SqlOperation {
 	/**
 	 * Generic method to execute the update given arguments.
 	 * All other update() methods invoke this method.
+	 * <p>If the JdbcTemplate queues the update in a batch, the number of
+	 * affected rows will be checked when the batch gets flushed.
 	 * @param args array of object arguments
-	 * @return the number of rows affected by the update
+	 * @return the number of rows affected by the update,
+	 * or UpdateBatch.DEFERRED_UPDATE_COUNT if queued in a batch
+	 * @see com.interface21.jdbc.core.JdbcTemplate#setBatchUpdates
 	 */
 	public int update(Object[] args) throws InvalidDataAccessApiUsageException {
 		validateParameters(args);
 
 		//PreparedStatementCreator psc = new DefaultPreparedStatementCreator(getSql(), getDeclaredParameters(), args);
-		int rowsAffected = getJdbcTemplate().update(newPreparedStatementCreator(args));
+		int rowsAffected = getJdbcTemplate().update(newPreparedStatementCreator(args), maxRowsAffected, requiredRowsAffected);
 		logger.debug(getSql());
 
-		if (maxRowsAffected != 0 && rowsAffected > maxRowsAffected) {
-			throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(getSql(), maxRowsAffected, rowsAffected);
+		if (rowsAffected == UpdateBatch.DEFERRED_UPDATE_COUNT) {
+			logger.info("SQL update [" + getSql() + "] queued in batch");
+		} else {
+			logger.info(rowsAffected + " rows affected by SQL update [" + getSql() + "]");
 		}
+		return rowsAffected;
+	}    // update
+
+
+	/**
+	 * Execute the update given named parameters, for SQL with parameters
+	 * like ":name". A Collection value gets expanded into a list of values,
+	 * e.g. for an IN clause.
+	 * @param paramMap Map of parameter name to value, containing a value
+	 * for each declared parameter
+	 * @return the number of rows affected by the update
+	 * @see #update(Object[])
+	 */
+	public int updateByNamedParam(Map paramMap) throws InvalidDataAccessApiUsageException {
+		return update(buildParameterArray(paramMap));
+	}
 
-		if (requiredRowsAffected != 0 && rowsAffected != requiredRowsAffected) {
-			throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(getSql(), requiredRowsAffected, rowsAffected);
+	/**
+	 * Execute the update once per given row of arguments, sending the rows
+	 * to the database in chunks of batchSize rows. The maximum and required
+	 * numbers of affected rows are not checked for batch updates.
+	 * <p>If a chunk fails, the preceding chunks have been executed: the
+	 * failure is logged with the rows of the failed chunk, and the exception
+	 * is rethrown.
+	 * @param batchArgs List of Object arrays, with the arguments for each row
+	 * @return the number of rows affected by each row of arguments, or
+	 * SUCCESS_NO_INFO if the driver or database didn't report them
+	 * @see #setBatchSize
+	 * @see #setMultiRowInsert
+	 */
+	public int[] batchUpdate(final List batchArgs) throws DataAccessException {
+		for (int i = 0; i < batchArgs.size(); i++) {
+			validateParameters((Object[]) batchArgs.get(i));
 		}
+		int[] rowsAffected = null;
+		if (this.multiRowInsert) {
+			rowsAffected = multiRowInsert(batchArgs);
+		} else {
+			rowsAffected = getJdbcTemplate().batchUpdate(getJdbcSql(), new BatchPreparedStatementSetter() {
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					newPreparedStatementSetter((Object[]) batchArgs.get(i)).setValues(ps);
+				}
+				public int getBatchSize() {
+					return batchArgs.size();
+				}
+			}, this.batchSize);
+		}
+		logger.info(batchArgs.size() + " rows sent to database by SQL batch update [" + getSql() + "]");
+		return rowsAffected;
+	}
 
-		logger.info(rowsAffected + " rows affected by SQL update [" + getSql() + "]");
+	/**
+	 * Insert the given rows with one multi-row insert statement per chunk.
+	 */
+	private int[] multiRowInsert(List batchArgs) throws DataAccessException {
+		int rowCount = batchArgs.size();
+		int paramCount = getDeclaredParameters().size();
+		int chunkSize = (this.batchSize > 0 && this.batchSize < rowCount) ? this.batchSize : rowCount;
+		int[] rowsAffected = new int[rowCount];
+		for (int start = 0; start < rowCount; start += chunkSize) {
+			int rows = Math.min(chunkSize, rowCount - start);
+			Object[] args = new Object[rows * paramCount];
+			for (int i = 0; i < rows; i++) {
+				Object[] rowArgs = (Object[]) batchArgs.get(start + i);
+				if (rowArgs != null)
+					System.arraycopy(rowArgs, 0, args, i * paramCount, paramCount);
+			}
+			int affected = 0;
+			try {
+				affected = getJdbcTemplate().update(getMultiRowInsertFactory(rows, rows == chunkSize).newPreparedStatementCreator(args));
+			} catch (DataAccessException ex) {
+				logger.error("Multi-row insert failed for rows " + start + " to " + (start + rows - 1) + " of " + rowCount +
+				             ", with previous rows inserted: SQL [" + getSql() + "]");
+				throw ex;
+			}
+			int rowAffected = SUCCESS_NO_INFO;
+			if (affected == UpdateBatch.DEFERRED_UPDATE_COUNT) {
+				rowAffected = UpdateBatch.DEFERRED_UPDATE_COUNT;
+			} else if (affected == rows) {
+				rowAffected = 1;
+			}
+			for (int i = start; i < start + rows; i++) {
+				rowsAffected[i] = rowAffected;
+			}
+		}
 		return rowsAffected;
-	}    // update
+	}
 
+	/**
+	 * Return a factory for a multi-row insert of the given number of rows.
+	 */
+	private PreparedStatementCreatorFactory getMultiRowInsertFactory(int rows, boolean fullChunk) {
+		if (fullChunk) {
+			synchronized (this) {
+				// the chunk size depends on the batch size and on the number of rows
+				if (this.fullChunkFactory != null && this.fullChunkRows == rows) {
+					return this.fullChunkFactory;
+				}
+			}
+		}
+		StringBuffer sql = new StringBuffer(this.valuesPrefix);
+		List params = new ArrayList(rows * getDeclaredParameters().size());
+		for (int i = 0; i < rows; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(this.valuesRow);
+			params.addAll(getDeclaredParameters());
+		}
+		sql.append(this.valuesSuffix);
+		PreparedStatementCreatorFactory pscf = new PreparedStatementCreatorFactory(sql.toString(), params);
+		if (fullChunk) {
+			// may be created concurrently, but without harm
+			synchronized (this) {
+				this.fullChunkFactory = pscf;
+				this.fullChunkRows = rows;
+			}
+		}
+		return pscf;
+	}
 
 	/**
 	 * Convenience method to execute an update with no parameters
@@ -200,6 +200,9 @@ public abstract class StoredProcedure extends RdbmsOperation {
 			Map inParams = mapper.createMap(con);
 
 			CallableStatement call = con.prepareCall(this.callString);
+			if (getQueryTimeout() > 0) {
+				call.setQueryTimeout(getQueryTimeout());
+			}
 			processInputParameters(inParams, call);
 
 			// Execute the stored procedure
@@ -6,11 +6,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.interface21.context.ApplicationContextException;
+import com.interface21.context.support.AbstractApplicationContext;
+import com.interface21.web.context.support.WebApplicationContextUtils;
 import com.interface21.web.context.support.XmlWebApplicationContext;
 
 /**
- * Performs the actual initialization work for the root application context.
- * Called by ContextLoaderListener.
+ * Performs the actual initialization and shutdown work for the root
+ * application context. Called by ContextLoaderListener.
  *
  * <p>Regards a "contextClass" parameter at the servlet context resp. web.xml root level,
  * falling back to the default context class (XmlWebApplicationContext) if not found.
@@ -76,6 +78,21 @@ public class ContextLoader {
 		return null;
 	}
 
+	/**
+	 * Close the root web application context of the given servlet context,
+	 * if any, stopping its background threads.
+	 *
+	 * @param servletContext current servlet context
+	 * @see AbstractApplicationContext#close
+	 */
+	public static void closeContext(ServletContext servletContext) {
+		WebApplicationContext webApplicationContext = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		if (webApplicationContext instanceof AbstractApplicationContext) {
+			logger.info("Closing root WebApplicationContext");
+			((AbstractApplicationContext) webApplicationContext).close();
+		}
+	}
+
 	private static void handleException(String msg, Exception ex) throws ApplicationContextException {
 		logger.error(msg, ex);
 		throw new ApplicationContextException(msg, ex);
@@ -4,8 +4,8 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 /**
- * Bootstrap listener to start up Spring's root WebApplicationContext.
- * Simply delegates to ContextLoader.
+ * Bootstrap listener to start up and shut down Spring's root
+ * WebApplicationContext. Simply delegates to ContextLoader.
  *
  * <p>Note: This listener should be registered after Log4jConfigListener,
  * if the latter is used.
@@ -21,6 +21,7 @@ public class ContextLoaderListener implements ServletContextListener {
 	}
 
 	public void contextDestroyed(ServletContextEvent event) {
+		ContextLoader.closeContext(event.getServletContext());
 	}
 
 }
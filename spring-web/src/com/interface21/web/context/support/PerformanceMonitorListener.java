@@ -4,17 +4,21 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.interface21.context.ApplicationEvent;
-import com.interface21.context.ApplicationListener;
+import com.interface21.context.SmartApplicationListener;
 import com.interface21.util.ResponseTimeMonitor;
 import com.interface21.util.ResponseTimeMonitorImpl;
 import com.interface21.web.context.RequestHandledEvent;
 
 /**
+ * Listener that records the processing times of RequestHandledEvents.
+ * Only interested in RequestHandledEvents, so it will not be notified
+ * of other events.
+ *
  * @author RodJohnson
  * @version $RevisionId$
  * @since January 21, 2001
  */
-public class PerformanceMonitorListener implements ApplicationListener {
+public class PerformanceMonitorListener implements SmartApplicationListener {
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -24,6 +28,10 @@ public class PerformanceMonitorListener implements ApplicationListener {
 		responseTimeMonitor = new ResponseTimeMonitorImpl();
 	}
 
+	public boolean supportsEventType(Class eventType) {
+		return RequestHandledEvent.class.isAssignableFrom(eventType);
+	}
+
 	/**
 	 * Ignore log events
 	 */
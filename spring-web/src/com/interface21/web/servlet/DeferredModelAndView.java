@@ -0,0 +1,209 @@
+package com.interface21.web.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+/**
+ * ModelAndView placeholder that a handler can return if the actual
+ * ModelAndView will be produced later, by another thread: for example,
+ * once several slow backends that the handler queried in parallel
+ * have answered.
+ *
+ * <p>The producing thread completes the result via setResult or setFailure.
+ * DispatcherServlet waits for the result, up to the timeout of this object
+ * or its own default timeout, and then renders it like any ModelAndView
+ * returned by a handler directly. If the timeout expires first, the
+ * timeout result gets rendered, if specified; else, the request is
+ * answered with HTTP status 503 (service unavailable). A result
+ * that arrives after the timeout is ignored. The producer can check
+ * isCancelled to stop working on a result that nobody waits for anymore.
+ *
+ * <p>Note that the Servlet API does not allow for releasing the request
+ * thread before the response is complete: The request thread blocks while
+ * waiting for the result, but it does not have to do the actual work
+ * itself, and the work for multiple backends can be done concurrently.
+ *
+ * <p>The model and view of this object itself are never rendered.
+ *
+ * @see DispatcherServlet#setDeferredResultTimeout
+ */
+public class DeferredModelAndView extends ModelAndView {
+
+	private final long timeout;
+
+	private ModelAndView timeoutResult;
+
+	private boolean done = false;
+
+	/** Whether the waiting thread has given up before the result arrived */
+	private boolean cancelled = false;
+
+	private ModelAndView result;
+
+	private Throwable failure;
+
+
+	/**
+	 * Create a new DeferredModelAndView that uses
+	 * the default timeout of the DispatcherServlet.
+	 */
+	public DeferredModelAndView() {
+		this(-1);
+	}
+
+	/**
+	 * Create a new DeferredModelAndView with the given timeout.
+	 * @param timeout the timeout in milliseconds, 0 for none,
+	 * or -1 for the default timeout of the DispatcherServlet
+	 */
+	public DeferredModelAndView(long timeout) {
+		super((String) null);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Return the timeout in milliseconds, 0 for none,
+	 * or -1 for the default timeout of the DispatcherServlet.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the ModelAndView to render if the result does not arrive in time.
+	 * Default is none, sending an HTTP 503 error instead.
+	 */
+	public void setTimeoutResult(ModelAndView timeoutResult) {
+		this.timeoutResult = timeoutResult;
+	}
+
+	/**
+	 * Return the ModelAndView to render if the result does not arrive in time.
+	 */
+	public ModelAndView getTimeoutResult() {
+		return timeoutResult;
+	}
+
+	/**
+	 * Complete this object with the given ModelAndView.
+	 * @param result the ModelAndView to render, or null if the
+	 * response has already been written
+	 * @return whether the result was accepted, i.e. this object
+	 * had neither been completed nor cancelled before
+	 * @see #isCancelled
+	 */
+	public synchronized boolean setResult(ModelAndView result) {
+		if (this.done) {
+			return false;
+		}
+		this.result = result;
+		this.done = true;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Complete this object with the given exception, to be thrown
+	 * to the DispatcherServlet as if thrown by the handler itself.
+	 * @param failure the exception that the result failed with
+	 * @return whether the failure was accepted, i.e. this object
+	 * had neither been completed nor cancelled before
+	 */
+	public synchronized boolean setFailure(Throwable failure) {
+		if (this.done) {
+			return false;
+		}
+		this.failure = failure;
+		this.done = true;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Return whether this object has been completed or has timed out.
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Return whether the waiting thread has stopped waiting before the result
+	 * arrived, because the timeout expired or the thread was interrupted.
+	 * The producer can check this to abandon work on the result, which would
+	 * be ignored anyway.
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Wait for the result. Once this method returns,
+	 * this object is done: a late result will be ignored.
+	 * @param timeout the timeout in milliseconds, or 0 for none
+	 * @return the result, or the timeout result if the timeout expired
+	 * @throws DeferredResultTimeoutException if the timeout expired,
+	 * and no timeout result has been specified
+	 * @throws ServletException if the result failed with a ServletException
+	 * or a checked exception, or if the waiting thread has been interrupted
+	 * @throws IOException if the result failed with an IOException
+	 */
+	public synchronized ModelAndView waitForResult(long timeout) throws ServletException, IOException {
+		long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+		while (!this.done) {
+			long wait = 0;
+			if (deadline != 0) {
+				wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					this.done = true;
+					this.cancelled = true;
+					if (this.timeoutResult != null) {
+						return this.timeoutResult;
+					}
+					throw new DeferredResultTimeoutException(timeout);
+				}
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException ex) {
+				this.done = true;
+				this.cancelled = true;
+				// keep the interrupt for the container to see
+				Thread.currentThread().interrupt();
+				throw new ServletException("Interrupted while waiting for deferred ModelAndView", ex);
+			}
+		}
+		if (this.failure != null) {
+			if (this.failure instanceof ServletException) {
+				throw (ServletException) this.failure;
+			}
+			if (this.failure instanceof IOException) {
+				throw (IOException) this.failure;
+			}
+			if (this.failure instanceof RuntimeException) {
+				throw (RuntimeException) this.failure;
+			}
+			if (this.failure instanceof Error) {
+				throw (Error) this.failure;
+			}
+			throw new ServletException("Deferred ModelAndView failed", this.failure);
+		}
+		return this.result;
+	}
+
+	public String toString() {
+		return "DeferredModelAndView: timeout=" + this.timeout + "; done=" + isDone() + "; cancelled=" + isCancelled();
+	}
+
+
+	/**
+	 * Exception thrown if a deferred result did not arrive in time.
+	 */
+	public static class DeferredResultTimeoutException extends ServletException {
+
+		public DeferredResultTimeoutException(long timeout) {
+			super("Deferred ModelAndView did not complete within " + timeout + " ms");
+		}
+	}
+
+}
@@ -14,9 +14,11 @@ package com.interface21.web.servlet;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -26,9 +28,12 @@ import com.interface21.beans.BeansException;
 import com.interface21.beans.factory.NoSuchBeanDefinitionException;
 import com.interface21.context.ApplicationContextException;
 import com.interface21.core.OrderComparator;
+import com.interface21.web.servlet.handler.AbstractHandlerMapping;
 import com.interface21.web.servlet.handler.BeanNameUrlHandlerMapping;
 import com.interface21.web.servlet.i18n.AcceptHeaderLocaleResolver;
 import com.interface21.web.servlet.mvc.SimpleControllerHandlerAdapter;
+import com.interface21.web.servlet.support.ETagResponseWrapper;
+import com.interface21.web.servlet.support.GzipResponseWrapper;
 import com.interface21.web.servlet.theme.FixedThemeResolver;
 import com.interface21.web.servlet.view.InternalResourceViewResolver;
 import com.interface21.web.util.WebUtils;
@@ -58,6 +63,21 @@ import com.interface21.web.util.WebUtils;
  * Standard implementations work via HTTP accept header, cookie, or session.
  * </ul>
  *
+ * <p>The handler and HandlerAdapter determined for a URL path are cached,
+ * so that dispatching a request for a hot URL takes a single lookup. This
+ * only applies if the handler was found by HandlerMappings that determine
+ * handlers by URL path alone: i.e. AbstractHandlerMapping subclasses that
+ * are not marked as request-dependent. The cache holds "handlerCacheLimit"
+ * paths at most, and is reset when the application context is refreshed.
+ *
+ * <p>A handler can return a DeferredModelAndView to have its result produced
+ * by other threads. Note that the request thread blocks until the result
+ * arrives or "deferredResultTimeout" expires: the Servlet API does not allow
+ * for releasing it before the response is complete. Deferring a result thus
+ * allows for doing slow work concurrently, but every pending request still
+ * occupies a container thread, which the container's thread pool needs to
+ * be sized for.
+ *
  * <p>A web application can use any number of controller servlets.
  * Each servlet will operate in its own namespace. Only the default name space,
  * and any config objects set for the application as a whole, will be shared.
@@ -138,6 +158,173 @@ public class DispatcherServlet extends FrameworkServlet {
 	 */
 	private ViewResolver viewResolver;
 
+	/**
+	 * Maximum number of URL paths to cache handlers for
+	 */
+	private int handlerCacheLimit = 1024;
+
+	/**
+	 * Cache of resolved handlers: URL path within the application -> CachedHandler.
+	 * Synchronized on this object, like the startup date that it belongs to.
+	 */
+	private final Map handlerCache = new HashMap();
+
+	/**
+	 * Startup date of the application context that the cached handlers belong to
+	 */
+	private long handlerCacheStartupDate;
+
+	/**
+	 * Default time to wait for DeferredModelAndView results, in milliseconds
+	 */
+	private long deferredResultTimeout = 30000;
+
+	/**
+	 * URL patterns to generate ETags for, or null for none
+	 */
+	private String[] etagUrlPatterns;
+
+	/**
+	 * Maximum content length to generate ETags for, in bytes
+	 */
+	private int etagContentLengthLimit = 262144;
+
+	/**
+	 * URL patterns to compress rendered content for, or null for none
+	 */
+	private String[] compressionUrlPatterns;
+
+	/**
+	 * Minimum content length to compress, in bytes
+	 */
+	private int compressionThreshold = 1024;
+
+	/**
+	 * Content types not to compress, matched as prefixes
+	 */
+	private String[] compressionExcludedContentTypes = GzipResponseWrapper.DEFAULT_EXCLUDED_CONTENT_TYPES;
+
+
+	/**
+	 * Set the maximum number of URL paths to cache the resolved handler for.
+	 * Default is 1024; 0 turns off caching.
+	 */
+	public void setHandlerCacheLimit(int handlerCacheLimit) {
+		this.handlerCacheLimit = handlerCacheLimit;
+	}
+
+	/**
+	 * Return the maximum number of URL paths to cache the resolved handler for.
+	 */
+	public int getHandlerCacheLimit() {
+		return handlerCacheLimit;
+	}
+
+	/**
+	 * Set the time to wait for the result of a DeferredModelAndView that
+	 * does not specify its own timeout, in milliseconds. Default is 30000;
+	 * 0 means to wait indefinitely. The request thread is blocked meanwhile.
+	 * @see DeferredModelAndView
+	 */
+	public void setDeferredResultTimeout(long deferredResultTimeout) {
+		this.deferredResultTimeout = deferredResultTimeout;
+	}
+
+	/**
+	 * Return the default time to wait for DeferredModelAndView results.
+	 */
+	public long getDeferredResultTimeout() {
+		return deferredResultTimeout;
+	}
+
+	/**
+	 * Set the URL paths, within the application, to generate ETags for.
+	 * Supported are exact paths, prefixes like "/poll/*", suffixes like
+	 * "*.html", and "*" for all. Default is none.
+	 * <p>The content rendered for matching GET requests gets buffered and
+	 * hashed, to send it with an ETag header; if it matches the If-None-Match
+	 * header of the request, HTTP status 304 is sent instead.
+	 * This saves bandwidth, not rendering effort.
+	 * @see ETagResponseWrapper
+	 */
+	public void setEtagUrlPatterns(String[] etagUrlPatterns) {
+		this.etagUrlPatterns = etagUrlPatterns;
+	}
+
+	/**
+	 * Return the URL paths to generate ETags for.
+	 */
+	public String[] getEtagUrlPatterns() {
+		return etagUrlPatterns;
+	}
+
+	/**
+	 * Set the maximum content length to buffer for ETag generation, in bytes.
+	 * Larger content is sent without ETag. Default is 256 KB.
+	 */
+	public void setEtagContentLengthLimit(int etagContentLengthLimit) {
+		this.etagContentLengthLimit = etagContentLengthLimit;
+	}
+
+	/**
+	 * Return the maximum content length to buffer for ETag generation.
+	 */
+	public int getEtagContentLengthLimit() {
+		return etagContentLengthLimit;
+	}
+
+	/**
+	 * Set the URL paths, within the application, to compress rendered content
+	 * for, with the same pattern syntax as etagUrlPatterns. Default is none.
+	 * <p>Content is compressed with gzip if the client accepts it, it is
+	 * at least compressionThreshold bytes long, and its content type is
+	 * not excluded.
+	 * @see #setEtagUrlPatterns
+	 * @see GzipResponseWrapper
+	 */
+	public void setCompressionUrlPatterns(String[] compressionUrlPatterns) {
+		this.compressionUrlPatterns = compressionUrlPatterns;
+	}
+
+	/**
+	 * Return the URL paths to compress rendered content for.
+	 */
+	public String[] getCompressionUrlPatterns() {
+		return compressionUrlPatterns;
+	}
+
+	/**
+	 * Set the minimum content length to compress, in bytes.
+	 * Default is 1024.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Return the minimum content length to compress.
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Set the content types not to compress, matched as prefixes:
+	 * e.g. "image/" for all image types. Default is
+	 * GzipResponseWrapper.DEFAULT_EXCLUDED_CONTENT_TYPES.
+	 * @see GzipResponseWrapper#DEFAULT_EXCLUDED_CONTENT_TYPES
+	 */
+	public void setCompressionExcludedContentTypes(String[] compressionExcludedContentTypes) {
+		this.compressionExcludedContentTypes = compressionExcludedContentTypes;
+	}
+
+	/**
+	 * Return the content types not to compress.
+	 */
+	public String[] getCompressionExcludedContentTypes() {
+		return compressionExcludedContentTypes;
+	}
+
 	/**
 	 * Overridden method, invoked after any bean properties have been set and the
 	 * WebApplicationContext and BeanFactory for this namespace is available.
@@ -356,7 +543,15 @@ public class DispatcherServlet extends FrameworkServlet {
 		// Make theme resolver available */
 		request.setAttribute(THEME_RESOLVER_ATTRIBUTE, this.themeResolver);
 
-		HandlerExecutionChain mappedHandler = getHandler(request);
+		HandlerExecutionChain mappedHandler = null;
+		HandlerAdapter ha = null;
+		CachedHandler cachedHandler = getCachedHandler(request);
+		if (cachedHandler != null) {
+			mappedHandler = cachedHandler.handlerExecutionChain;
+			ha = cachedHandler.handlerAdapter;
+		} else {
+			mappedHandler = getHandler(request);
+		}
 
 		if (mappedHandler == null || mappedHandler.getHandler() == null) {
 			// If we didn't find a handler
@@ -375,24 +570,78 @@ public class DispatcherServlet extends FrameworkServlet {
 		}
 
 		// This will throw an exception if no handler is found
-		HandlerAdapter ha = getHandlerAdapter(mappedHandler.getHandler());
+		if (ha == null) {
+			ha = getHandlerAdapter(mappedHandler.getHandler());
+		}
 
 		if (wasRevalidated(request, response, ha, mappedHandler.getHandler())) {
 			return;
 		}
 
 		ModelAndView mv = ha.handle(request, response, mappedHandler.getHandler());
+		while (mv instanceof DeferredModelAndView) {
+			DeferredModelAndView deferred = (DeferredModelAndView) mv;
+			long timeout = (deferred.getTimeout() >= 0) ? deferred.getTimeout() : this.deferredResultTimeout;
+			try {
+				mv = deferred.waitForResult(timeout);
+			} catch (DeferredModelAndView.DeferredResultTimeoutException ex) {
+				logger.warn("Deferred result for [" + request.getRequestURI() + "] timed out in DispatcherServlet with name '" +
+				            getServletName() + "'");
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+		}
 		if (mv != null) {
 			logger.debug("Will render model in DispatcherServlet with name '" + getServletName() + "'");
 			Locale locale = this.localeResolver.resolveLocale(request);
 			response.setLocale(locale);
-			render(mv, request, response, locale);
+			GzipResponseWrapper gzipResponse = null;
+			if (GzipResponseWrapper.isGzipAccepted(request) && matchesUrlPatterns(request, this.compressionUrlPatterns)) {
+				gzipResponse = new GzipResponseWrapper(response, this.compressionThreshold,
+				                                       this.compressionExcludedContentTypes);
+				response = gzipResponse;
+			}
+			try {
+				if ("GET".equals(request.getMethod()) && matchesUrlPatterns(request, this.etagUrlPatterns)) {
+					ETagResponseWrapper etagResponse = new ETagResponseWrapper(response, this.etagContentLengthLimit);
+					render(mv, request, etagResponse, locale);
+					etagResponse.finish(request);
+				} else {
+					render(mv, request, response, locale);
+				}
+			} finally {
+				// always return the Deflater to the pool
+				if (gzipResponse != null) {
+					gzipResponse.finish();
+				}
+			}
 		} else {
 			logger.debug("Null ModelAndView returned to DispatcherServlet with name '" + getServletName() + "': assuming HandlerAdapter completed request handling");
 		}
 	}
 
 
+	/**
+	 * Determine whether the path of the given request matches one of the given patterns:
+	 * exact paths, prefixes like "/poll/*", suffixes like "*.html", or "*" for all.
+	 * @param patterns the patterns, or null for none
+	 */
+	private boolean matchesUrlPatterns(HttpServletRequest request, String[] patterns) {
+		if (patterns == null) {
+			return false;
+		}
+		String path = WebUtils.getPathWithinApplication(request);
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i];
+			if (pattern.equals("*") || pattern.equals(path) ||
+			    (pattern.endsWith("*") && path.startsWith(pattern.substring(0, pattern.length() - 1))) ||
+			    (pattern.startsWith("*") && path.endsWith(pattern.substring(1)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Implementation method to support HTTP cache control.
 	 * Was the request successfully revalidated?
@@ -449,21 +698,70 @@ public class DispatcherServlet extends FrameworkServlet {
 	/**
 	 * Return the handler for this request.
 	 * Try all handler mappings in order.
+	 * Caches the handler if all mappings tried determine handlers by URL path alone.
 	 *
 	 * @return the handelr, or null if no handler could be found
 	 */
 	private HandlerExecutionChain getHandler(HttpServletRequest request) throws ServletException {
+		boolean cacheable = true;
 		Iterator itr = this.handlerMappings.iterator();
 		while (itr.hasNext()) {
 			HandlerMapping hm = (HandlerMapping) itr.next();
 			logger.debug("Testing handler map [" + hm + "] in DispatcherServlet with name '" + getServletName() + "'");
+			cacheable = cacheable && (hm instanceof AbstractHandlerMapping) && !((AbstractHandlerMapping) hm).isRequestDependent();
 			HandlerExecutionChain handler = hm.getHandler(request);
-			if (handler != null)
+			if (handler != null) {
+				if (cacheable && handler.getHandler() != null) {
+					cacheHandler(request, handler, getHandlerAdapter(handler.getHandler()));
+				}
 				return handler;
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Return the key to cache the handler for the given request under,
+	 * or null if the handler should not be cached.
+	 */
+	private String getHandlerCacheKey(HttpServletRequest request) {
+		if (this.handlerCacheLimit <= 0) {
+			return null;
+		}
+		String path = WebUtils.getPathWithinApplication(request);
+		// don't cache URLs with path parameters like session ids, as they aren't reused
+		return (path.indexOf(';') == -1) ? path : null;
+	}
+
+	/**
+	 * Return the cached handler for this request, if any.
+	 * Resets the cache if the application context has been refreshed.
+	 */
+	private CachedHandler getCachedHandler(HttpServletRequest request) {
+		String key = getHandlerCacheKey(request);
+		if (key == null) {
+			return null;
+		}
+		long startupDate = getWebApplicationContext().getStartupDate();
+		synchronized (this) {
+			if (startupDate != this.handlerCacheStartupDate) {
+				logger.info("Resetting handler cache of DispatcherServlet with name '" + getServletName() + "'");
+				this.handlerCache.clear();
+				this.handlerCacheStartupDate = startupDate;
+				return null;
+			}
+			return (CachedHandler) this.handlerCache.get(key);
+		}
+	}
+
+	private synchronized void cacheHandler(HttpServletRequest request, HandlerExecutionChain handler, HandlerAdapter ha) {
+		String key = getHandlerCacheKey(request);
+		if (key != null && this.handlerCache.size() < this.handlerCacheLimit &&
+				getWebApplicationContext().getStartupDate() == this.handlerCacheStartupDate) {
+			this.handlerCache.put(key, new CachedHandler(handler, ha));
+		}
+	}
+
 
 	/**
 	 * Return the HandlerAdapter for this handler class.
@@ -507,4 +805,21 @@ public class DispatcherServlet extends FrameworkServlet {
 		v.render(mv.getModel(), request, response);
 	}
 
+
+
+	/**
+	 * Handler and HandlerAdapter resolved for a URL path
+	 */
+	private static class CachedHandler {
+
+		private final HandlerExecutionChain handlerExecutionChain;
+
+		private final HandlerAdapter handlerAdapter;
+
+		private CachedHandler(HandlerExecutionChain handlerExecutionChain, HandlerAdapter handlerAdapter) {
+			this.handlerExecutionChain = handlerExecutionChain;
+			this.handlerAdapter = handlerAdapter;
+		}
+	}
+
 }
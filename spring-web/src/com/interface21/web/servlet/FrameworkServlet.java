@@ -21,6 +21,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.interface21.context.ApplicationContext;
+import com.interface21.context.support.AbstractApplicationContext;
 import com.interface21.web.context.RequestHandledEvent;
 import com.interface21.web.context.WebApplicationContext;
 import com.interface21.web.context.support.WebApplicationContextUtils;
@@ -154,6 +155,18 @@ public abstract class FrameworkServlet extends HttpServletBean {
 		logger.info("Framework servlet '" + getServletName() + "' init completed in " + elapsedTime + " ms");
 	}
 
+	/**
+	 * Closes this servlet's WebApplicationContext, stopping its
+	 * background threads.
+	 * @see AbstractApplicationContext#close
+	 */
+	public void destroy() {
+		logger.info("Framework servlet '" + getServletName() + "' destroy");
+		if (this.webApplicationContext instanceof AbstractApplicationContext) {
+			((AbstractApplicationContext) this.webApplicationContext).close();
+		}
+	}
+
 	/**
 	 * Create the WebApplicationContext for this web app.
 	 *
@@ -1,13 +1,24 @@
 
 package com.interface21.web.servlet;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.interface21.web.servlet.support.ETagResponseWrapper;
+import com.interface21.web.servlet.support.GzipResponseWrapper;
+import com.interface21.web.util.WebUtils;
+
 
 /**
  * Simple servlet that can expose an internal resource, including a
@@ -20,7 +31,30 @@ import javax.servlet.http.HttpServletResponse;
  * <br>The defaultUrl bean property must be set to the
  * internal path of the default (placeholder) URL.
  *
+ * <p>If "compressResources" is turned on, resources requested directly
+ * rather than included are sent gzip-compressed to clients that accept it,
+ * if they exist as files in the web application. The compressed content
+ * is cached per resource, and only compressed again if the file changed.
+ * Files larger than "maxCompressedFileSize" are sent uncompressed.
+ *
+ * <p>If "serveStaticResources" is turned on, resources requested directly
+ * that exist as files in the web application are sent by this servlet
+ * itself, rather than through the RequestDispatcher: with Last-Modified,
+ * ETag and optional Cache-Control headers, answering conditional requests
+ * with HTTP status 304, and supporting single byte ranges. Small files are
+ * kept in memory, evicting the least recently used ones; larger files are
+ * streamed from disk in chunks, without reading them into memory as a whole.
+ *
+ * <p>Files are only sent or compressed by this servlet itself if their
+ * extension is one of the "staticFileExtensions", and never if their path
+ * contains ".." or a WEB-INF or META-INF directory: Anything else, like
+ * JSPs, is included through the RequestDispatcher as usual, so that its
+ * source is never exposed.
+ *
  * @author Rod Johnson
+ * @see #setCompressResources
+ * @see #setServeStaticResources
+ * @see #setStaticFileExtensions
  */
 public class ResourceServlet extends HttpServletBean {
 
@@ -29,12 +63,66 @@ public class ResourceServlet extends HttpServletBean {
 	 */
 	public static final String PATH_PARAM = "resource";
 
+	/**
+	 * Request attribute set by the servlet container for included requests.
+	 */
+	private static final String INCLUDE_REQUEST_URI_ATTRIBUTE = "javax.servlet.include.request_uri";
+
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+	private static final String HEADER_RANGE = "Range";
+
+	private static final String HEADER_IF_RANGE = "If-Range";
+
+	private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+	private static final int STREAM_BUFFER_SIZE = 8192;
+
+	/**
+	 * Default extensions of files that may be sent without the RequestDispatcher
+	 */
+	public static final String[] DEFAULT_STATIC_FILE_EXTENSIONS = new String[] {
+		"css", "js", "htm", "html", "txt", "xml", "csv", "gif", "jpg", "jpeg", "png", "ico", "pdf", "zip"
+	};
+
 	/**
 	 * URL within the current web application from which to include
 	 * content if the requested path isn't found.
 	 */
 	private String defaultUrl;
 
+	private String[] staticFileExtensions = DEFAULT_STATIC_FILE_EXTENSIONS;
+
+	private boolean compressResources = false;
+
+	private int compressionThreshold = 1024;
+
+	private String[] compressionExcludedContentTypes = GzipResponseWrapper.DEFAULT_EXCLUDED_CONTENT_TYPES;
+
+	private int maxCompressedFileSize = 1048576;
+
+	private int compressedCacheLimit = 256;
+
+	/**
+	 * Resource path -> CompressedResource.
+	 * Synchronized on itself. Files are compressed outside of the lock.
+	 */
+	private final Map compressedCache = new HashMap();
+
+	private boolean serveStaticResources = false;
+
+	private int cacheSeconds = -1;
+
+	private int memoryCacheFileSizeLimit = 32768;
+
+	private int memoryCacheLimit = 256;
+
+	/**
+	 * Resource path -> CachedFile, for small files.
+	 * Synchronized on itself. Files are read outside of the lock.
+	 */
+	private final Map memoryCache = new HashMap();
+
 
 	/**
 	 * Gets the defaultUrl.
@@ -55,6 +143,114 @@ public class ResourceServlet extends HttpServletBean {
 	}
 
 
+	/**
+	 * Set the extensions of the files that may be sent by this servlet
+	 * itself, compressed or not, without a leading dot. Files with other
+	 * extensions are always included through the RequestDispatcher.
+	 * Default is DEFAULT_STATIC_FILE_EXTENSIONS.
+	 * @see #DEFAULT_STATIC_FILE_EXTENSIONS
+	 */
+	public void setStaticFileExtensions(String[] staticFileExtensions) {
+		this.staticFileExtensions = staticFileExtensions;
+	}
+
+	/**
+	 * Return the extensions of the files that may be sent by this servlet itself.
+	 */
+	public String[] getStaticFileExtensions() {
+		return staticFileExtensions;
+	}
+
+	/**
+	 * Set whether to send resources that are requested directly, not included,
+	 * gzip-compressed to clients that accept it. Default is false.
+	 */
+	public void setCompressResources(boolean compressResources) {
+		this.compressResources = compressResources;
+	}
+
+	/**
+	 * Return whether to send directly requested resources gzip-compressed.
+	 */
+	public boolean isCompressResources() {
+		return compressResources;
+	}
+
+	/**
+	 * Set the minimum file size to compress, in bytes. Default is 1024.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Set the content types not to compress, matched as prefixes.
+	 * Default is GzipResponseWrapper.DEFAULT_EXCLUDED_CONTENT_TYPES.
+	 * @see GzipResponseWrapper#DEFAULT_EXCLUDED_CONTENT_TYPES
+	 */
+	public void setCompressionExcludedContentTypes(String[] compressionExcludedContentTypes) {
+		this.compressionExcludedContentTypes = compressionExcludedContentTypes;
+	}
+
+	/**
+	 * Set the maximum file size to compress, in bytes. Default is 1 MB.
+	 * Compression reads the whole file into memory, and the compressed
+	 * content is cached: Larger files are sent uncompressed.
+	 */
+	public void setMaxCompressedFileSize(int maxCompressedFileSize) {
+		this.maxCompressedFileSize = maxCompressedFileSize;
+	}
+
+	/**
+	 * Set the maximum number of resources to keep compressed copies of.
+	 * Default is 256. Further resources are compressed on each request.
+	 */
+	public void setCompressedCacheLimit(int compressedCacheLimit) {
+		this.compressedCacheLimit = compressedCacheLimit;
+	}
+
+	/**
+	 * Set whether to send resources that are requested directly, not included,
+	 * and that exist as files, from this servlet rather than through the
+	 * RequestDispatcher. Default is false.
+	 */
+	public void setServeStaticResources(boolean serveStaticResources) {
+		this.serveStaticResources = serveStaticResources;
+	}
+
+	/**
+	 * Return whether to send directly requested files from this servlet.
+	 */
+	public boolean isServeStaticResources() {
+		return serveStaticResources;
+	}
+
+	/**
+	 * Set the number of seconds that clients may cache static resources for,
+	 * sent as Cache-Control and Expires headers. Default is -1, sending
+	 * no such headers. Only applies if serving static resources.
+	 */
+	public void setCacheSeconds(int cacheSeconds) {
+		this.cacheSeconds = cacheSeconds;
+	}
+
+	/**
+	 * Set the maximum size of files to keep in memory, in bytes.
+	 * Default is 32768. Only applies if serving static resources.
+	 */
+	public void setMemoryCacheFileSizeLimit(int memoryCacheFileSizeLimit) {
+		this.memoryCacheFileSizeLimit = memoryCacheFileSizeLimit;
+	}
+
+	/**
+	 * Set the maximum number of files to keep in memory. Default is 256.
+	 * Only applies if serving static resources.
+	 */
+	public void setMemoryCacheLimit(int memoryCacheLimit) {
+		this.memoryCacheLimit = memoryCacheLimit;
+	}
+
+
 	/**
 	 * @see javax.servlet.http.HttpServlet#doGet(HttpServletRequest, HttpServletResponse)
 	 */
@@ -62,6 +258,37 @@ public class ResourceServlet extends HttpServletBean {
 		String path = request.getParameter(PATH_PARAM);
 		if (path == null)
 			throw new ServletException("Path is required");
+		if ((this.serveStaticResources || this.compressResources) &&
+		    request.getAttribute(INCLUDE_REQUEST_URI_ATTRIBUTE) == null) {
+			File file = getResourceFile(path);
+			if (file != null) {
+				long lastModified = file.lastModified();
+				long length = file.length();
+				String etag = "\"" + length + "-" + lastModified + "\"";
+				if (this.serveStaticResources) {
+					if (isNotModified(request, lastModified, etag)) {
+						response.setHeader(ETagResponseWrapper.HEADER_ETAG, getNotModifiedETag(request, etag));
+						response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+						return;
+					}
+					response.setDateHeader(WebUtils.HEADER_LASTMOD, lastModified);
+					if (this.cacheSeconds >= 0) {
+						response.setHeader("Cache-Control", "max-age=" + this.cacheSeconds);
+						response.setDateHeader("Expires", System.currentTimeMillis() + this.cacheSeconds * 1000L);
+					}
+				}
+				String contentType = getServletContext().getMimeType(path);
+				if (this.compressResources && request.getHeader(HEADER_RANGE) == null &&
+				    GzipResponseWrapper.isGzipAccepted(request) && serveCompressed(path, file, contentType, response)) {
+					return;
+				}
+				if (this.serveStaticResources) {
+					response.setHeader(ETagResponseWrapper.HEADER_ETAG, etag);
+					serveFile(path, file, lastModified, etag, contentType, request, response);
+					return;
+				}
+			}
+		}
 		try {
 			RequestDispatcher rd = request.getRequestDispatcher(path);
 			rd.include(request, response);
@@ -73,4 +300,359 @@ public class ResourceServlet extends HttpServletBean {
 		}
 	}
 
+	/**
+	 * Return the file for the given resource path, or null if the resource
+	 * is not available as file or must not be sent as file.
+	 * @see #isStaticFilePath
+	 */
+	private File getResourceFile(String path) {
+		if (!isStaticFilePath(path)) {
+			return null;
+		}
+		String realPath = getServletContext().getRealPath(path);
+		if (realPath == null) {
+			return null;
+		}
+		File file = new File(realPath);
+		return (file.isFile() ? file : null);
+	}
+
+	/**
+	 * Determine whether the given resource path may be sent as file: It must
+	 * not leave the web application or point into WEB-INF or META-INF, and
+	 * its extension must be one of the static file extensions. Paths with
+	 * control characters are rejected, as some JVMs truncate file names at
+	 * a NUL character, which would allow for "x.jsp\0.txt".
+	 */
+	protected boolean isStaticFilePath(String path) {
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c < ' ' || c == 0x7f) {
+				return false;
+			}
+		}
+		String upperPath = path.toUpperCase();
+		if (path.indexOf("..") != -1 || upperPath.indexOf("WEB-INF") != -1 || upperPath.indexOf("META-INF") != -1) {
+			return false;
+		}
+		int dotIndex = path.lastIndexOf('.');
+		if (dotIndex == -1 || path.indexOf('/', dotIndex) != -1 || path.indexOf('\\', dotIndex) != -1) {
+			return false;
+		}
+		String extension = path.substring(dotIndex + 1);
+		for (int i = 0; i < this.staticFileExtensions.length; i++) {
+			if (this.staticFileExtensions[i].equalsIgnoreCase(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether the client's copy is still current,
+	 * according to the If-None-Match or If-Modified-Since header.
+	 */
+	private boolean isNotModified(HttpServletRequest request, long lastModified, String etag) {
+		String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			// also matches the tag of the compressed representation
+			String etagPrefix = etag.substring(0, etag.length() - 1);
+			return (ifNoneMatch.indexOf(etag) != -1 || ifNoneMatch.indexOf(etagPrefix + "-gz\"") != -1 ||
+			        "*".equals(ifNoneMatch.trim()));
+		}
+		long ifModifiedSince = request.getDateHeader(WebUtils.HEADER_IFMODSINCE);
+		// HTTP dates have a resolution of seconds
+		return (ifModifiedSince != -1 && lastModified / 1000 * 1000 <= ifModifiedSince);
+	}
+
+	/**
+	 * Return the entity tag to send with a 304 response: the tag of the
+	 * compressed representation if that is the one the client has.
+	 */
+	private String getNotModifiedETag(HttpServletRequest request, String etag) {
+		String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+		String compressedEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+		return (ifNoneMatch != null && ifNoneMatch.indexOf(compressedEtag) != -1) ? compressedEtag : etag;
+	}
+
+	/**
+	 * Determine whether a Range request applies to the current content,
+	 * according to the If-Range header: if not, the whole content is sent.
+	 */
+	private boolean isRangeApplicable(HttpServletRequest request, long lastModified, String etag) {
+		String ifRange = request.getHeader(HEADER_IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// weak tags never match for ranges
+			return ifRange.equals(etag);
+		}
+		try {
+			// HTTP dates have a resolution of seconds
+			return (request.getDateHeader(HEADER_IF_RANGE) == lastModified / 1000 * 1000);
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Send the content of the given file, or the requested byte range of it.
+	 * Small files are served from memory, larger files are streamed.
+	 */
+	private void serveFile(String path, File file, long lastModified, String etag, String contentType,
+	                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long length = file.length();
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader(HEADER_RANGE);
+		if (range != null && isRangeApplicable(request, lastModified, etag)) {
+			long[] parsedRange = parseRange(range, length);
+			if (parsedRange == null) {
+				response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (parsedRange.length > 0) {
+				start = parsedRange[0];
+				end = parsedRange[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HEADER_CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+		response.setHeader("Accept-Ranges", "bytes");
+		if (contentType != null) {
+			response.setContentType(contentType);
+		}
+		long contentLength = end - start + 1;
+		if (contentLength <= 0) {
+			response.setContentLength(0);
+			return;
+		}
+		if (contentLength <= Integer.MAX_VALUE) {
+			response.setContentLength((int) contentLength);
+		}
+
+		OutputStream out = response.getOutputStream();
+		if (length <= this.memoryCacheFileSizeLimit) {
+			CachedFile cachedFile = null;
+			synchronized (this.memoryCache) {
+				cachedFile = (CachedFile) this.memoryCache.get(path);
+				if (cachedFile != null) {
+					cachedFile.lastAccess = System.currentTimeMillis();
+				}
+			}
+			if (cachedFile == null || cachedFile.lastModified != file.lastModified()) {
+				cachedFile = new CachedFile(readFile(file, (int) length), file.lastModified());
+				cacheFile(path, cachedFile);
+			}
+			if (start < cachedFile.content.length) {
+				out.write(cachedFile.content, (int) start, Math.min((int) contentLength, cachedFile.content.length - (int) start));
+			}
+		} else {
+			InputStream in = new FileInputStream(file);
+			try {
+				long skipped = 0;
+				while (skipped < start) {
+					long len = in.skip(start - skipped);
+					if (len <= 0) {
+						return;
+					}
+					skipped += len;
+				}
+				byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+				long remaining = contentLength;
+				while (remaining > 0) {
+					int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (len == -1) {
+						break;
+					}
+					out.write(buffer, 0, len);
+					remaining -= len;
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Parse the given Range header. Only a single range is supported:
+	 * multiple ranges result in the whole content being sent.
+	 * @param range the Range header
+	 * @param length the length of the content
+	 * @return an array with start and end index, an empty array to send
+	 * the whole content, or null if the range is not satisfiable
+	 */
+	private static long[] parseRange(String range, long length) {
+		if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+			return new long[0];
+		}
+		String spec = range.substring(6).trim();
+		int dashIndex = spec.indexOf('-');
+		if (dashIndex == -1) {
+			return new long[0];
+		}
+		try {
+			long start;
+			long end;
+			if (dashIndex == 0) {
+				// suffix range: the last n bytes
+				long suffixLength = Long.parseLong(spec.substring(1));
+				if (suffixLength <= 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffixLength);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, dashIndex));
+				end = (dashIndex < spec.length() - 1) ? Long.parseLong(spec.substring(dashIndex + 1)) : length - 1;
+				end = Math.min(end, length - 1);
+			}
+			if (start >= length || start > end) {
+				return null;
+			}
+			return new long[] {start, end};
+		} catch (NumberFormatException ex) {
+			return new long[0];
+		}
+	}
+
+	/**
+	 * Add the given file to the memory cache, evicting
+	 * the least recently used file if the cache is full.
+	 */
+	private void cacheFile(String path, CachedFile cachedFile) {
+		synchronized (this.memoryCache) {
+			cachedFile.lastAccess = System.currentTimeMillis();
+			this.memoryCache.put(path, cachedFile);
+			if (this.memoryCache.size() > this.memoryCacheLimit) {
+				String lruPath = null;
+				long lruAccess = Long.MAX_VALUE;
+				for (Iterator it = this.memoryCache.entrySet().iterator(); it.hasNext();) {
+					Map.Entry entry = (Map.Entry) it.next();
+					CachedFile cached = (CachedFile) entry.getValue();
+					if (cached != cachedFile && cached.lastAccess < lruAccess) {
+						lruPath = (String) entry.getKey();
+						lruAccess = cached.lastAccess;
+					}
+				}
+				if (lruPath != null) {
+					this.memoryCache.remove(lruPath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the compressed content of the given file, if it is
+	 * of a compressible content type and above the compression threshold.
+	 * @return whether the compressed content has been sent
+	 */
+	private boolean serveCompressed(String path, File file, String contentType, HttpServletResponse response)
+	    throws IOException {
+		long length = file.length();
+		if (length < this.compressionThreshold || length > this.maxCompressedFileSize ||
+		    !GzipResponseWrapper.isCompressible(contentType, this.compressionExcludedContentTypes)) {
+			return false;
+		}
+
+		CompressedResource resource = null;
+		synchronized (this.compressedCache) {
+			resource = (CompressedResource) this.compressedCache.get(path);
+		}
+		long lastModified = file.lastModified();
+		if (resource == null || resource.lastModified != lastModified) {
+			resource = new CompressedResource(GzipResponseWrapper.compress(readFile(file, (int) length)), lastModified);
+			cacheCompressedResource(path, resource);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Compressed content of '" + path + "' from " + length + " to " +
+				             resource.content.length + " bytes");
+			}
+		}
+
+		if (contentType != null) {
+			response.setContentType(contentType);
+		}
+		if (this.serveStaticResources) {
+			// the compressed representation needs its own entity tag
+			response.setHeader(ETagResponseWrapper.HEADER_ETAG, "\"" + length + "-" + lastModified + "-gz\"");
+		}
+		response.setHeader(GzipResponseWrapper.HEADER_CONTENT_ENCODING, "gzip");
+		response.addHeader(GzipResponseWrapper.HEADER_VARY, GzipResponseWrapper.HEADER_ACCEPT_ENCODING);
+		response.setContentLength(resource.content.length);
+		response.getOutputStream().write(resource.content);
+		return true;
+	}
+
+	private void cacheCompressedResource(String path, CompressedResource resource) {
+		synchronized (this.compressedCache) {
+			if (this.compressedCache.size() < this.compressedCacheLimit || this.compressedCache.containsKey(path)) {
+				this.compressedCache.put(path, resource);
+			}
+		}
+	}
+
+	/**
+	 * Read the given file into memory, reading at most the given number of
+	 * bytes: The caller has checked the length against its size limit.
+	 */
+	private static byte[] readFile(File file, int length) throws IOException {
+		byte[] content = new byte[length];
+		int offset = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			int len;
+			while (offset < content.length && (len = in.read(content, offset, content.length - offset)) != -1) {
+				offset += len;
+			}
+		} finally {
+			in.close();
+		}
+		if (offset < content.length) {
+			// the file has been shortened meanwhile
+			byte[] shortened = new byte[offset];
+			System.arraycopy(content, 0, shortened, 0, offset);
+			return shortened;
+		}
+		return content;
+	}
+
+
+	/**
+	 * Compressed content of a file, with the file's modification date.
+	 */
+	private static class CompressedResource {
+
+		private final byte[] content;
+
+		private final long lastModified;
+
+		private CompressedResource(byte[] content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+	}
+
+
+	/**
+	 * Content of a small file, with the file's modification date
+	 * and the time of the last access, for LRU eviction.
+	 */
+	private static class CachedFile {
+
+		private final byte[] content;
+
+		private final long lastModified;
+
+		/** Synchronized on the memory cache */
+		private long lastAccess;
+
+		private CachedFile(byte[] content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+	}
+
 }    // class ResourceServlet
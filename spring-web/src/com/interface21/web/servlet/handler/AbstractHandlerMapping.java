@@ -33,6 +33,8 @@ public abstract class AbstractHandlerMapping extends ApplicationObjectSupport im
 
 	private List interceptors;
 
+	private boolean requestDependent = false;
+
 	public void setOrder(int order) {
 		this.order = order;
 	}
@@ -64,6 +66,26 @@ public abstract class AbstractHandlerMapping extends ApplicationObjectSupport im
 		this.interceptors = interceptors;
 	}
 
+	/**
+	 * Set whether the handler returned by this mapping depends on anything
+	 * else than the URL path of the request, like request parameters or
+	 * session state. Default is false, allowing the DispatcherServlet to
+	 * cache the handler per URL path. Subclasses whose getHandlerInternal
+	 * implementation takes further request state into account must set
+	 * this to true.
+	 */
+	public void setRequestDependent(boolean requestDependent) {
+		this.requestDependent = requestDependent;
+	}
+
+	/**
+	 * Return whether the handler returned by this mapping depends on
+	 * anything else than the URL path of the request.
+	 */
+	public boolean isRequestDependent() {
+		return requestDependent;
+	}
+
 	/**
 	 * Lookup a handler for the given request, falling back to the default
 	 * handler if no specific one is found.
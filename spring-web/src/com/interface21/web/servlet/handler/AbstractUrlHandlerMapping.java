@@ -2,7 +2,6 @@ package com.interface21.web.servlet.handler;
 
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Iterator;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -16,7 +15,12 @@ import com.interface21.beans.BeansException;
  * URL lookup. For information on the latter, see alwaysUseFullPath property.
  *
  * <p>Supports direct matches (given "/test" -> registered "/test")
- * and "*" matches (given "/test" -> registered "/t*").
+ * and "*" matches (given "/test" -> registered "/t*"). If several "*"
+ * mappings match, the one with the longest path wins.
+ *
+ * <p>The "*" mappings are kept in a character trie, built on registration:
+ * looking up a handler walks the URL path once, without creating any
+ * objects, no matter how many mappings have been registered.
  *
  * @author Juergen Hoeller
  * @see #setAlwaysUseFullPath
@@ -29,6 +33,9 @@ public abstract class AbstractUrlHandlerMapping extends AbstractHandlerMapping {
 
 	private Map handlerMap = new HashMap();
 
+	/** Root of the trie of the "*" mappings, keyed by the path before the "*" */
+	private final TrieNode wildcardRoot = new TrieNode();
+
 	/**
 	 * Set if URL lookup should always use full path within current servlet
 	 * context. Else, the path within the current servlet mapping is used
@@ -47,13 +54,21 @@ public abstract class AbstractUrlHandlerMapping extends AbstractHandlerMapping {
 	 */
 	protected void registerHandler(String urlPath, Object handler) {
 		this.handlerMap.put(urlPath, handler);
+		if (urlPath.endsWith("*")) {
+			TrieNode node = this.wildcardRoot;
+			for (int i = 0; i < urlPath.length() - 1; i++) {
+				node = node.getOrAddChild(urlPath.charAt(i));
+			}
+			node.handler = handler;
+		}
 		logger.info("Mapped URL path [" + urlPath + "] onto handler [" + handler + "]");
 	}
 
 	/**
 	 * Lookup a handler instance for the given URL path.
 	 * Supports direct matches (given "/test" -> registered "/test")
-	 * and "*" matches (given "/test" -> registered "/t*").
+	 * and "*" matches (given "/test" -> registered "/t*"),
+	 * preferring the longest matching "*" mapping.
 	 *
 	 * @param urlPath URL the bean is mapped to
 	 * @return the associated handler instance, or null if not found
@@ -63,17 +78,19 @@ public abstract class AbstractUrlHandlerMapping extends AbstractHandlerMapping {
 		if (handler != null) {
 			return handler;
 		}
-		// check for appropriate * mapping
-		for (Iterator it = this.handlerMap.keySet().iterator(); it.hasNext(); ) {
-			String path = (String) it.next();
-			if (path.endsWith("*") && urlPath.length() >= path.length() - 1) {
-				if (path.substring(0, path.length() - 1).equals(urlPath.substring(0, path.length() - 1))) {
-					return this.handlerMap.get(path);
-				}
+		// check for longest appropriate * mapping
+		TrieNode node = this.wildcardRoot;
+		handler = node.handler;
+		for (int i = 0; i < urlPath.length(); i++) {
+			node = node.getChild(urlPath.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.handler != null) {
+				handler = node.handler;
 			}
 		}
-		// no match found
-		return null;
+		return handler;
 	}
 
 	/**
@@ -112,4 +129,59 @@ public abstract class AbstractUrlHandlerMapping extends AbstractHandlerMapping {
 		return lookupHandler(lookupPath);
 	}
 
+
+
+	/**
+	 * Node of the trie of "*" mappings: children are kept in
+	 * arrays sorted by character, for binary search.
+	 */
+	private static class TrieNode {
+
+		private char[] chars = new char[0];
+
+		private TrieNode[] children = new TrieNode[0];
+
+		/** Handler mapped to the path that leads to this node, if any */
+		private Object handler;
+
+		private TrieNode getChild(char c) {
+			int low = 0;
+			int high = this.chars.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midChar = this.chars[mid];
+				if (midChar < c) {
+					low = mid + 1;
+				} else if (midChar > c) {
+					high = mid - 1;
+				} else {
+					return this.children[mid];
+				}
+			}
+			return null;
+		}
+
+		private TrieNode getOrAddChild(char c) {
+			TrieNode child = getChild(c);
+			if (child == null) {
+				int pos = 0;
+				while (pos < this.chars.length && this.chars[pos] < c) {
+					pos++;
+				}
+				char[] newChars = new char[this.chars.length + 1];
+				TrieNode[] newChildren = new TrieNode[this.children.length + 1];
+				System.arraycopy(this.chars, 0, newChars, 0, pos);
+				System.arraycopy(this.children, 0, newChildren, 0, pos);
+				newChars[pos] = c;
+				child = new TrieNode();
+				newChildren[pos] = child;
+				System.arraycopy(this.chars, pos, newChars, pos + 1, this.chars.length - pos);
+				System.arraycopy(this.children, pos, newChildren, pos + 1, this.children.length - pos);
+				this.chars = newChars;
+				this.children = newChildren;
+			}
+			return child;
+		}
+	}
+
 }
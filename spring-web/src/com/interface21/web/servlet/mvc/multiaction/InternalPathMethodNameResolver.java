@@ -39,7 +39,9 @@ public class InternalPathMethodNameResolver implements MethodNameResolver {
 		if (dotIndex != -1) {
 			name = name.substring(0, dotIndex);
 		}
-		logger.debug("Returning MultiActionController method name '" + name + "' for lookup path '" + lookupPath + "'");
+		if (logger.isDebugEnabled()) {
+			logger.debug("Returning MultiActionController method name '" + name + "' for lookup path '" + lookupPath + "'");
+		}
 		return name;
 	}
 }
\ No newline at end of file
@@ -15,8 +15,6 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -76,6 +74,12 @@ import com.interface21.web.servlet.mvc.WebContentGenerator;
  *
  * <br>Note that method overloading isn't allowed.
  *
+ * <p>The handler methods are analyzed once, when the delegate is set, so that
+ * each request just looks up its method and invokes it with an argument array
+ * of the right size. The method name is resolved once per request, and exposed
+ * as request attribute for the subsequent handleRequest call if resolved by
+ * getLastModified. Exception handlers are resolved once per exception class.
+ *
  * @author Rod Johnson
  */
 public class MultiActionController
@@ -87,12 +91,23 @@ public class MultiActionController
 	 */
 	public static final String LAST_MODIFIED_METHOD_SUFFIX = "LastModified";
 
+	/**
+	 * Request attribute that holds the handler method name resolved by
+	 * getLastModified, to be reused by the subsequent handleRequest call
+	 */
+	public static final String HANDLER_METHOD_NAME_ATTRIBUTE = MultiActionController.class.getName() + ".HANDLER_METHOD_NAME";
+
+	/**
+	 * Marker for exception classes that no handler method applies to
+	 */
+	private static final Object NO_EXCEPTION_HANDLER = new Object();
+
 	//---------------------------------------------------------------------
 	// Instance data
 	//---------------------------------------------------------------------
 
 	/**
-	 * Methods, keyed by name
+	 * HandlerMethods, keyed by name
 	 */
 	private Map methodHash;
 
@@ -106,6 +121,12 @@ public class MultiActionController
 	 */
 	private Map exceptionHandlerHash;
 
+	/**
+	 * Exception class --> Method or NO_EXCEPTION_HANDLER, resolved along the
+	 * class hierarchy. Synchronized on this object.
+	 */
+	private final Map exceptionHandlerCache = new HashMap();
+
 	/**
 	 * Helper object that knows how to return method names from incoming requests.
 	 * Can be overridden via the methodNameResolver bean property
@@ -207,7 +228,7 @@ public class MultiActionController
 				if (params.length >= 2 && params[0].equals(HttpServletRequest.class) && params[1].equals(HttpServletResponse.class)) {
 					// We're in business
 					logger.info("Found action method [" + methods[i] + "]");
-					methodHash.put(methods[i].getName(), methods[i]);
+					methodHash.put(methods[i].getName(), new HandlerMethod(methods[i]));
 
 					// Look for corresponding LastModified method
 					try {
@@ -247,6 +268,9 @@ public class MultiActionController
 				}
 			}
 		}
+		synchronized (this) {
+			this.exceptionHandlerCache.clear();
+		}
 	}    // setDelegate
 
 
@@ -263,6 +287,7 @@ public class MultiActionController
 	public final long getLastModified(HttpServletRequest request) {
 		try {
 			String handlerMethodName = methodNameResolver.getHandlerMethodName(request);
+			request.setAttribute(HANDLER_METHOD_NAME_ATTRIBUTE, handlerMethodName);
 			Method lastModifiedMethod = (Method) this.lastModifiedMethodHash.get(handlerMethodName);
 			if (lastModifiedMethod != null) {
 				try {
@@ -296,7 +321,13 @@ public class MultiActionController
 			throws ServletException, IOException {
 
 		try {
-			String name = methodNameResolver.getHandlerMethodName(request);
+			// reuse the method name resolved by getLastModified, if any
+			String name = (String) request.getAttribute(HANDLER_METHOD_NAME_ATTRIBUTE);
+			if (name != null) {
+				request.removeAttribute(HANDLER_METHOD_NAME_ATTRIBUTE);
+			} else {
+				name = methodNameResolver.getHandlerMethodName(request);
+			}
 			return invokeNamedMethod(name, request, response);
 		} catch (NoSuchRequestHandlingMethodException ex) {
 			throw new ServletException("No handler", ex);
@@ -312,36 +343,32 @@ public class MultiActionController
 	 */
 	protected final ModelAndView invokeNamedMethod(String method, HttpServletRequest request, HttpServletResponse response)
 			throws NoSuchRequestHandlingMethodException, ServletException, IOException {
-		Method m = null;
+		HandlerMethod hm = (HandlerMethod) methodHash.get(method);
+		if (hm == null)
+			throw new NoSuchRequestHandlingMethodException(method, this);
+		Method m = hm.method;
 
 		try {
-			m = (Method) methodHash.get(method);
-			if (m == null)
-				throw new NoSuchRequestHandlingMethodException(method, this);
-
-			// A real generic Collection! Parameters to method
-			List params = new LinkedList();
-			params.add(request);
-			params.add(response);
+			Object[] args = new Object[hm.argCount];
+			args[0] = request;
+			args[1] = response;
+			int index = 2;
 
-			if (m.getParameterTypes().length >= 3 && m.getParameterTypes()[2].equals(HttpSession.class)) {
+			if (hm.sessionRequired) {
 				// Require a session
 				HttpSession session = request.getSession(false);
 				if (session == null)
-					//throw new SessionRequiredException("Session was required for method '" + method + "'");
 					return handleException(request, response, new SessionRequiredException("Session was required for method '" + method + "'"));
-				params.add(session);
+				args[index++] = session;
 			}
 
-			// If last parameter isn't of HttpSession type it's a command
-			if (m.getParameterTypes().length >= 3 && !m.getParameterTypes()[m.getParameterTypes().length - 1].equals(HttpSession.class)) {
-				Object command = newCommandObject(m.getParameterTypes()[m.getParameterTypes().length - 1]);
-				params.add(command);
+			if (hm.commandClass != null) {
+				Object command = newCommandObject(hm.commandClass);
+				args[index] = command;
 				bind(request, command);
 			}
 
-			Object[] parray = params.toArray(new Object[params.size()]);
-			return (ModelAndView) m.invoke(this.delegate, parray);
+			return (ModelAndView) m.invoke(this.delegate, args);
 		} catch (IllegalAccessException ex) {
 			throw new ServletException("Cannot invoke request handler method [" + m + "]: not accessible", ex);
 		} catch (InvocationTargetException ex) {
@@ -394,7 +421,9 @@ public class MultiActionController
 	 * public no arg constructors.
 	 */
 	protected Object newCommandObject(Class clazz) throws ServletException {
-		logger.info("Must create new command of " + clazz);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Must create new command of " + clazz);
+		}
 		try {
 			Object command = clazz.newInstance();
 			return command;
@@ -410,25 +439,46 @@ public class MultiActionController
 	 * @param command command object, that must be a JavaBean
 	 */
 	protected void bind(ServletRequest request, Object command) throws ServletException {
-		logger.info("Binding request parameters onto command");
+		logger.debug("Binding request parameters onto command");
 		ServletRequestDataBinder binder = new ServletRequestDataBinder(command, "command");
 		binder.bind(request);
 		binder.closeNoCatch();
 	}
 
 	/**
-	 * Can return null if not found
+	 * Can return null if not found.
+	 * The handler for each exception class is resolved once and cached.
 	 *
 	 * @param exception Won't be a ServletException or IOException
 	 * @return a handler for the given exception type
 	 */
 	protected Method getExceptionHandler(Throwable exception) {
 		Class exceptionClass = exception.getClass();
+		Object handler = null;
+		synchronized (this) {
+			handler = this.exceptionHandlerCache.get(exceptionClass);
+		}
+		if (handler == null) {
+			handler = findExceptionHandler(exceptionClass);
+			if (handler == null) {
+				handler = NO_EXCEPTION_HANDLER;
+			}
+			synchronized (this) {
+				this.exceptionHandlerCache.put(exceptionClass, handler);
+			}
+		}
+		return (handler != NO_EXCEPTION_HANDLER ? (Method) handler : null);
+	}
+
+	/**
+	 * Find the handler for the given exception class, or its closest superclass.
+	 */
+	private Method findExceptionHandler(Class exceptionClass) {
 		logger.info("Trying to find handler for exception of " + exceptionClass);
 		Method handler = (Method) exceptionHandlerHash.get(exceptionClass);
 		while (handler == null && !exceptionClass.equals(Throwable.class)) {
-			logger.info("Looking at superclass " + exceptionClass);
 			exceptionClass = exceptionClass.getSuperclass();
+			logger.info("Looking at superclass " + exceptionClass);
 			handler = (Method) exceptionHandlerHash.get(exceptionClass);
 		}
 		return handler;
@@ -464,4 +514,31 @@ public class MultiActionController
 		}
 	}    // invokeExceptionHandler
 
+
+
+	/**
+	 * Handler method, with its parameters analyzed once.
+	 */
+	private static class HandlerMethod {
+
+		private final Method method;
+
+		private final int argCount;
+
+		private final boolean sessionRequired;
+
+		/** Class of the command parameter, or null if none */
+		private final Class commandClass;
+
+		private HandlerMethod(Method method) {
+			this.method = method;
+			Class[] params = method.getParameterTypes();
+			this.sessionRequired = (params.length >= 3 && params[2].equals(HttpSession.class));
+			// If last parameter isn't of HttpSession type it's a command
+			this.commandClass = (params.length >= 3 && !params[params.length - 1].equals(HttpSession.class)) ?
+			                    params[params.length - 1] : null;
+			this.argCount = 2 + (this.sessionRequired ? 1 : 0) + (this.commandClass != null ? 1 : 0);
+		}
+	}
+
 }
@@ -94,7 +94,9 @@ public class PropertiesMethodNameResolver implements MethodNameResolver, Initial
 		if (name == null) {
 			throw new NoSuchRequestHandlingMethodException(request);
 		}
-		logger.debug("Returning MultiActionController method name '" + name + "' for lookup path '" + lookupPath + "'");
+		if (logger.isDebugEnabled()) {
+			logger.debug("Returning MultiActionController method name '" + name + "' for lookup path '" + lookupPath + "'");
+		}
 		return name;
 	}
 
@@ -0,0 +1,276 @@
+package com.interface21.web.servlet.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that buffers the response body and computes an MD5
+ * hash of it, to send it with an ETag header. If the client already has
+ * the content, as indicated by a matching If-None-Match request header,
+ * HTTP status 304 (not modified) is sent instead of the body.
+ *
+ * <p>The hash is updated with every write, so no second pass over the
+ * buffered content is necessary. As soon as the content exceeds the
+ * content length limit, or the status is set to something other than
+ * 200 (OK), the wrapper stops buffering and passes all content through
+ * to the target response, without ETag. Errors and redirects are
+ * passed through as well.
+ *
+ * <p>The content is only sent once finish is called: Flushing does
+ * not have any effect while buffering.
+ *
+ * <p>If the target response is a GzipResponseWrapper that is going to
+ * compress the content, the ETag gets a "-gz" suffix: The compressed
+ * representation must not share the ETag of the uncompressed one.
+ *
+ * @see #finish
+ * @see com.interface21.web.servlet.DispatcherServlet#setEtagUrlPatterns
+ */
+public class ETagResponseWrapper extends HttpServletResponseWrapper {
+
+	public static final String HEADER_ETAG = "ETag";
+
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final int contentLengthLimit;
+
+	private final MessageDigest digest;
+
+	private ByteArrayOutputStream content = new ByteArrayOutputStream(1024);
+
+	private boolean buffering = true;
+
+	private ServletOutputStream outputStream;
+
+	private PrintWriter writer;
+
+
+	/**
+	 * Create a new ETagResponseWrapper for the given response.
+	 * @param response the target response
+	 * @param contentLengthLimit the maximum number of bytes to buffer
+	 */
+	public ETagResponseWrapper(HttpServletResponse response, int contentLengthLimit) {
+		super(response);
+		this.contentLengthLimit = contentLengthLimit;
+		try {
+			this.digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("MD5 algorithm not available: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Return whether the content is still being buffered,
+	 * i.e. whether an ETag will be sent.
+	 */
+	public boolean isBuffering() {
+		return buffering;
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (this.writer != null) {
+			throw new IllegalStateException("getWriter has already been called for this response");
+		}
+		if (this.outputStream == null) {
+			this.outputStream = new HashingOutputStream();
+		}
+		return this.outputStream;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if (this.writer == null) {
+			if (this.outputStream != null) {
+				throw new IllegalStateException("getOutputStream has already been called for this response");
+			}
+			this.outputStream = new HashingOutputStream();
+			String encoding = getCharacterEncoding();
+			this.writer = new PrintWriter(encoding != null ?
+			                              new OutputStreamWriter(this.outputStream, encoding) :
+			                              new OutputStreamWriter(this.outputStream));
+		}
+		return this.writer;
+	}
+
+	public void setContentLength(int len) {
+		// we'll set the content length of the buffered content ourselves
+		if (!this.buffering) {
+			super.setContentLength(len);
+		}
+	}
+
+	public void setStatus(int sc) {
+		if (sc != HttpServletResponse.SC_OK) {
+			stopBuffering();
+		}
+		super.setStatus(sc);
+	}
+
+	public void setStatus(int sc, String sm) {
+		if (sc != HttpServletResponse.SC_OK) {
+			stopBuffering();
+		}
+		super.setStatus(sc, sm);
+	}
+
+	public void sendError(int sc) throws IOException {
+		discardBuffer();
+		super.sendError(sc);
+	}
+
+	public void sendError(int sc, String msg) throws IOException {
+		discardBuffer();
+		super.sendError(sc, msg);
+	}
+
+	public void sendRedirect(String location) throws IOException {
+		discardBuffer();
+		super.sendRedirect(location);
+	}
+
+	public void flushBuffer() throws IOException {
+		if (!this.buffering) {
+			super.flushBuffer();
+		}
+	}
+
+	public void reset() {
+		super.reset();
+		resetBuffer();
+	}
+
+	public void resetBuffer() {
+		if (this.buffering) {
+			this.content.reset();
+			this.digest.reset();
+		} else {
+			super.resetBuffer();
+		}
+	}
+
+	/**
+	 * Send the buffered content, or HTTP status 304 if it matches the
+	 * If-None-Match header of the given request. Has no effect if the
+	 * wrapper has stopped buffering.
+	 * @param request the current request
+	 */
+	public void finish(HttpServletRequest request) throws IOException {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		if (!this.buffering) {
+			return;
+		}
+		this.buffering = false;
+		String etag = generateETag(this.digest.digest());
+		if (getResponse() instanceof GzipResponseWrapper &&
+				((GzipResponseWrapper) getResponse()).wouldCompress(this.content.size())) {
+			etag = etag.substring(0, etag.length() - 1) + "-gz\"";
+		}
+		HttpServletResponse response = (HttpServletResponse) getResponse();
+		response.setHeader(HEADER_ETAG, etag);
+		String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+		if (ifNoneMatch != null && (ifNoneMatch.indexOf(etag) != -1 || "*".equals(ifNoneMatch.trim()))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		} else {
+			response.setContentLength(this.content.size());
+			this.content.writeTo(response.getOutputStream());
+			response.flushBuffer();
+		}
+		this.content = null;
+	}
+
+	/**
+	 * Generate the ETag header value from the given MD5 hash.
+	 * @param hash the MD5 hash of the content
+	 * @return the quoted ETag value
+	 */
+	protected String generateETag(byte[] hash) {
+		char[] chars = new char[hash.length * 2 + 2];
+		chars[0] = '"';
+		for (int i = 0; i < hash.length; i++) {
+			chars[i * 2 + 1] = HEX_CHARS[(hash[i] >> 4) & 0x0f];
+			chars[i * 2 + 2] = HEX_CHARS[hash[i] & 0x0f];
+		}
+		chars[chars.length - 1] = '"';
+		return new String(chars);
+	}
+
+	/**
+	 * Pass the content buffered so far to the target response,
+	 * and pass all further content through.
+	 */
+	private void stopBuffering() {
+		if (this.buffering) {
+			this.buffering = false;
+			if (this.content.size() > 0) {
+				try {
+					this.content.writeTo(getResponse().getOutputStream());
+				} catch (IOException ex) {
+					throw new IllegalStateException("Could not write buffered content: " + ex.getMessage());
+				}
+			}
+			this.content = null;
+		}
+	}
+
+	private void discardBuffer() {
+		this.buffering = false;
+		this.content = null;
+	}
+
+
+	/**
+	 * OutputStream that buffers and hashes the content while buffering,
+	 * and writes to the target response afterwards.
+	 */
+	private class HashingOutputStream extends ServletOutputStream {
+
+		public void write(int b) throws IOException {
+			if (buffering && content.size() + 1 > contentLengthLimit) {
+				stopBuffering();
+			}
+			if (buffering) {
+				content.write(b);
+				digest.update((byte) b);
+			} else {
+				getResponse().getOutputStream().write(b);
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (buffering && content.size() + len > contentLengthLimit) {
+				stopBuffering();
+			}
+			if (buffering) {
+				content.write(b, off, len);
+				digest.update(b, off, len);
+			} else {
+				getResponse().getOutputStream().write(b, off, len);
+			}
+		}
+
+		public void flush() throws IOException {
+			if (!buffering) {
+				getResponse().getOutputStream().flush();
+			}
+		}
+
+		public void close() throws IOException {
+			// the content is sent on finish
+			flush();
+		}
+	}
+
+}
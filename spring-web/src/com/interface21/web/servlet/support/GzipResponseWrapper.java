@@ -0,0 +1,429 @@
+package com.interface21.web.servlet.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that compresses the response body with gzip,
+ * for clients that accept gzip encoding.
+ *
+ * <p>The first "threshold" bytes are buffered to decide whether to compress:
+ * Content shorter than that is sent uncompressed, as is content of an
+ * excluded content type, like images that are compressed already, and
+ * content sent with a status other than 200 (OK). Errors and redirects
+ * are passed through as well. Once the decision has been made, the
+ * content is compressed while it is written, without buffering it.
+ *
+ * <p>The Deflaters are taken from a pool shared by all instances,
+ * as they are expensive to create. finish must be called after the
+ * content has been written, to complete the compressed stream and
+ * to return the Deflater to the pool.
+ *
+ * @see #isGzipAccepted
+ * @see #finish
+ * @see com.interface21.web.servlet.DispatcherServlet#setCompressionUrlPatterns
+ */
+public class GzipResponseWrapper extends HttpServletResponseWrapper {
+
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+	public static final String HEADER_VARY = "Vary";
+
+	/** Content types that are not worth compressing, matched as prefixes */
+	public static final String[] DEFAULT_EXCLUDED_CONTENT_TYPES = new String[] {
+		"image/", "audio/", "video/", "application/zip", "application/x-gzip", "application/x-compress"
+	};
+
+	private static final int DEFLATER_POOL_SIZE = 32;
+
+	private static final byte[] GZIP_HEADER = new byte[] {
+		(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+	};
+
+	/** Pool of Deflaters, synchronized on itself */
+	private static final List deflaterPool = new ArrayList(DEFLATER_POOL_SIZE);
+
+
+	private final int threshold;
+
+	private final String[] excludedContentTypes;
+
+	private ByteArrayOutputStream buffer;
+
+	private String contentType;
+
+	/** Whether the decision to compress is still pending */
+	private boolean undecided = true;
+
+	private GzipStream gzipStream;
+
+	private ServletOutputStream outputStream;
+
+	private PrintWriter writer;
+
+
+	/**
+	 * Return whether the given request accepts gzip content encoding.
+	 */
+	public static boolean isGzipAccepted(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+		return (acceptEncoding != null && acceptEncoding.indexOf("gzip") != -1);
+	}
+
+	/**
+	 * Return whether the given content type is not matched by the given exclusions.
+	 * @param contentType the content type, possibly with a charset, or null
+	 * @param excludedContentTypes the content types to exclude, matched as prefixes
+	 */
+	public static boolean isCompressible(String contentType, String[] excludedContentTypes) {
+		if (contentType == null) {
+			return true;
+		}
+		for (int i = 0; i < excludedContentTypes.length; i++) {
+			if (contentType.startsWith(excludedContentTypes[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compress the given content into a complete gzip stream.
+	 * @param content the content to compress
+	 * @return the compressed content
+	 */
+	public static byte[] compress(byte[] content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+		GzipStream gzip = new GzipStream(out);
+		try {
+			gzip.write(content, 0, content.length);
+			gzip.finish();
+		} finally {
+			gzip.release();
+		}
+		return out.toByteArray();
+	}
+
+	private static Deflater obtainDeflater() {
+		synchronized (deflaterPool) {
+			if (!deflaterPool.isEmpty()) {
+				return (Deflater) deflaterPool.remove(deflaterPool.size() - 1);
+			}
+		}
+		return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	}
+
+	private static void releaseDeflater(Deflater deflater) {
+		deflater.reset();
+		synchronized (deflaterPool) {
+			if (deflaterPool.size() < DEFLATER_POOL_SIZE) {
+				deflaterPool.add(deflater);
+				return;
+			}
+		}
+		deflater.end();
+	}
+
+
+	/**
+	 * Create a new GzipResponseWrapper for the given response.
+	 * @param response the target response
+	 * @param threshold the minimum number of bytes to compress
+	 * @param excludedContentTypes the content types not to compress, matched as prefixes
+	 */
+	public GzipResponseWrapper(HttpServletResponse response, int threshold, String[] excludedContentTypes) {
+		super(response);
+		this.threshold = threshold;
+		this.excludedContentTypes = excludedContentTypes;
+		this.buffer = new ByteArrayOutputStream(threshold > 0 ? threshold : 32);
+	}
+
+	/**
+	 * Return whether the content is being compressed.
+	 */
+	public boolean isCompressing() {
+		return (this.gzipStream != null);
+	}
+
+	/**
+	 * Return whether content of the given length, written from now on,
+	 * would be compressed. Allows callers that know the complete content
+	 * in advance to tell the representations apart, e.g. for ETags.
+	 * @param contentLength the total length of the content
+	 */
+	public boolean wouldCompress(int contentLength) {
+		if (!this.undecided) {
+			return isCompressing();
+		}
+		return (this.buffer.size() + contentLength > 0 && this.buffer.size() + contentLength >= this.threshold &&
+		        isCompressible(this.contentType, this.excludedContentTypes));
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (this.writer != null) {
+			throw new IllegalStateException("getWriter has already been called for this response");
+		}
+		if (this.outputStream == null) {
+			this.outputStream = new CompressingOutputStream();
+		}
+		return this.outputStream;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if (this.writer == null) {
+			if (this.outputStream != null) {
+				throw new IllegalStateException("getOutputStream has already been called for this response");
+			}
+			this.outputStream = new CompressingOutputStream();
+			String encoding = getCharacterEncoding();
+			this.writer = new PrintWriter(encoding != null ?
+			                              new OutputStreamWriter(this.outputStream, encoding) :
+			                              new OutputStreamWriter(this.outputStream));
+		}
+		return this.writer;
+	}
+
+	public void setContentType(String type) {
+		this.contentType = type;
+		super.setContentType(type);
+	}
+
+	public void setContentLength(int len) {
+		// the length is not known before compression
+		if (!this.undecided && this.gzipStream == null) {
+			super.setContentLength(len);
+		}
+	}
+
+	public void setStatus(int sc) {
+		if (sc != HttpServletResponse.SC_OK) {
+			decide(false);
+		}
+		super.setStatus(sc);
+	}
+
+	public void setStatus(int sc, String sm) {
+		if (sc != HttpServletResponse.SC_OK) {
+			decide(false);
+		}
+		super.setStatus(sc, sm);
+	}
+
+	public void sendError(int sc) throws IOException {
+		discardBuffer();
+		super.sendError(sc);
+	}
+
+	public void sendError(int sc, String msg) throws IOException {
+		discardBuffer();
+		super.sendError(sc, msg);
+	}
+
+	public void sendRedirect(String location) throws IOException {
+		discardBuffer();
+		super.sendRedirect(location);
+	}
+
+	public void flushBuffer() throws IOException {
+		if (!this.undecided) {
+			if (this.writer != null) {
+				this.writer.flush();
+			}
+			super.flushBuffer();
+		}
+	}
+
+	public void resetBuffer() {
+		if (this.undecided) {
+			this.buffer.reset();
+		} else {
+			super.resetBuffer();
+		}
+	}
+
+	public void reset() {
+		super.reset();
+		resetBuffer();
+	}
+
+	/**
+	 * Complete the response: send the content buffered so far uncompressed,
+	 * or finish the compressed stream. Returns the Deflater to the pool.
+	 */
+	public void finish() throws IOException {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		if (this.undecided) {
+			int size = this.buffer.size();
+			decide(false);
+			if (size > 0) {
+				getResponse().setContentLength(size);
+			}
+		}
+		if (this.gzipStream != null) {
+			try {
+				this.gzipStream.finish();
+			} finally {
+				this.gzipStream.release();
+			}
+		}
+	}
+
+	/**
+	 * Decide whether to compress, writing the content buffered so far.
+	 * @param compress whether to compress, if the content type allows it
+	 */
+	private void decide(boolean compress) {
+		if (!this.undecided) {
+			return;
+		}
+		this.undecided = false;
+		try {
+			if (compress && isCompressible(this.contentType, this.excludedContentTypes)) {
+				HttpServletResponse response = (HttpServletResponse) getResponse();
+				response.setHeader(HEADER_CONTENT_ENCODING, "gzip");
+				response.addHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+				this.gzipStream = new GzipStream(response.getOutputStream());
+				this.buffer.writeTo(this.gzipStream);
+			} else if (this.buffer.size() > 0) {
+				this.buffer.writeTo(getResponse().getOutputStream());
+			}
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not write buffered content: " + ex.getMessage());
+		}
+		this.buffer = null;
+	}
+
+	private void discardBuffer() {
+		this.undecided = false;
+		this.buffer = null;
+	}
+
+	private OutputStream getTargetStream() throws IOException {
+		return (this.gzipStream != null ? (OutputStream) this.gzipStream : getResponse().getOutputStream());
+	}
+
+
+	/**
+	 * OutputStream that buffers content until the decision whether to
+	 * compress has been made, and writes to the target stream afterwards.
+	 */
+	private class CompressingOutputStream extends ServletOutputStream {
+
+		public void write(int b) throws IOException {
+			if (undecided) {
+				buffer.write(b);
+				if (buffer.size() >= threshold) {
+					decide(true);
+				}
+			} else {
+				getTargetStream().write(b);
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (undecided) {
+				buffer.write(b, off, len);
+				if (buffer.size() >= threshold) {
+					decide(true);
+				}
+			} else {
+				getTargetStream().write(b, off, len);
+			}
+		}
+
+		public void flush() throws IOException {
+			if (!undecided) {
+				getTargetStream().flush();
+			}
+		}
+	}
+
+
+	/**
+	 * OutputStream that writes the gzip format with a pooled Deflater.
+	 * java.util.zip.GZIPOutputStream does not allow for passing in a Deflater.
+	 */
+	private static class GzipStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private Deflater deflater = obtainDeflater();
+
+		private final CRC32 crc = new CRC32();
+
+		private final byte[] deflateBuffer = new byte[4096];
+
+		private GzipStream(OutputStream out) throws IOException {
+			this.out = out;
+			out.write(GZIP_HEADER);
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			this.crc.update(b, off, len);
+			this.deflater.setInput(b, off, len);
+			while (!this.deflater.needsInput()) {
+				deflate();
+			}
+		}
+
+		public void flush() throws IOException {
+			// Java's Deflater cannot sync-flush: only flush what has been compressed so far
+			this.out.flush();
+		}
+
+		private void finish() throws IOException {
+			this.deflater.finish();
+			while (!this.deflater.finished()) {
+				deflate();
+			}
+			writeInt((int) this.crc.getValue());
+			writeInt(this.deflater.getTotalIn());
+			this.out.flush();
+		}
+
+		private void deflate() throws IOException {
+			int len = this.deflater.deflate(this.deflateBuffer, 0, this.deflateBuffer.length);
+			if (len > 0) {
+				this.out.write(this.deflateBuffer, 0, len);
+			}
+		}
+
+		private void writeInt(int i) throws IOException {
+			this.out.write(i & 0xff);
+			this.out.write((i >> 8) & 0xff);
+			this.out.write((i >> 16) & 0xff);
+			this.out.write((i >> 24) & 0xff);
+		}
+
+		private void release() {
+			if (this.deflater != null) {
+				releaseDeflater(this.deflater);
+				this.deflater = null;
+			}
+		}
+	}
+
+}
@@ -29,20 +29,52 @@ import com.interface21.web.servlet.ViewResolver;
  * no matter how costly initial view retrieval is.
  * View retrieval is deferred to subclasses.
  *
+ * <p>Resolving a cached view only holds the resolver's lock for the cache
+ * lookup. Each view is loaded only once: threads that ask for
+ * a view that is currently being loaded by another thread wait for that
+ * load to finish. View names that cannot be resolved are cached as well,
+ * failing fast on subsequent requests. The number of cached views per
+ * resolver is limited by the "cacheLimit" property.
+ *
  * @author Rod Johnson
+ * @see #setCacheLimit
+ * @see #clearCache
  */
 public abstract class AbstractCachingViewResolver extends ApplicationObjectSupport implements ViewResolver {
 
 	/**
-	 * View name --> View instance
+	 * Marker for view names that could not be resolved
+	 */
+	private static final Object UNRESOLVED_VIEW = new Object();
+
+	/**
+	 * Locale --> Map of view name --> View instance or UNRESOLVED_VIEW.
+	 * Synchronized on this object. Views are loaded outside of the lock.
+	 */
+	private final Map viewCache = new HashMap();
+
+	/**
+	 * Number of cached views, including unresolvable ones
+	 */
+	private int cacheSize = 0;
+
+	/**
+	 * Views currently being loaded: cache key --> ViewLoad
 	 */
-	private Map viewHash = new HashMap();
+	private final Map viewLoads = new HashMap();
 
 	/**
 	 * Whether we should cache views, once resolved
 	 */
 	private boolean cache = true;
 
+	private int cacheLimit = 1024;
+
+	/** Statistics: not synchronized, so concurrent updates may get lost */
+	private int hitCount = 0;
+
+	private int loadCount = 0;
+
 	/**
 	 * Enable caching. Disable this only for debugging and development.
 	 * Default is for caching to be enabled.
@@ -62,34 +94,137 @@ public abstract class AbstractCachingViewResolver extends ApplicationObjectSuppo
 		return cache;
 	}
 
+	/**
+	 * Set the maximum number of views to cache, per view name and locale.
+	 * Default is 1024. Views beyond that number get loaded on each request.
+	 */
+	public void setCacheLimit(int cacheLimit) {
+		this.cacheLimit = cacheLimit;
+	}
+
+	/**
+	 * Return the maximum number of views to cache.
+	 */
+	public int getCacheLimit() {
+		return cacheLimit;
+	}
+
 	public final View resolveViewName(String viewName, Locale locale) throws ServletException {
-		View v = null;
 		if (!cache) {
 			logger.warn("View caching is SWITCHED OFF -- DEVELOPMENT SETTING ONLY: this will severely impair performance");
-			v = loadAndConfigureView(viewName, locale);
+			return loadAndConfigureView(viewName, locale);
+		}
+		Object cached = getCachedView(viewName, locale);
+		if (cached == null) {
+			cached = loadViewOnce(viewName, locale);
 		} else {
-			// We're caching - don't really need synchronization
-			v = (View) this.viewHash.get(getCacheKey(viewName, locale));
-			if (v == null) {
-				// Ask the subclass to load the View
-				v = loadAndConfigureView(viewName, locale);
+			this.hitCount++;
+		}
+		if (cached == UNRESOLVED_VIEW) {
+			throw new ServletException("Cannot resolve view name '" + viewName + "'");
+		}
+		return (View) cached;
+	}
+
+	/**
+	 * Load the given view, unless another thread is already loading it:
+	 * in that case, wait for the other thread and use its result.
+	 * @return the View, or UNRESOLVED_VIEW
+	 */
+	private Object loadViewOnce(String viewName, Locale locale) throws ServletException {
+		String cacheKey = getCacheKey(viewName, locale);
+		ViewLoad load = null;
+		boolean loader = false;
+		synchronized (this) {
+			Object cached = getCachedView(viewName, locale);
+			if (cached != null) {
+				return cached;
+			}
+			load = (ViewLoad) this.viewLoads.get(cacheKey);
+			if (load == null) {
+				load = new ViewLoad();
+				this.viewLoads.put(cacheKey, load);
+				loader = true;
+			}
+		}
+		if (!loader) {
+			return load.waitForResult();
+		}
+		Object result = null;
+		try {
+			this.loadCount++;
+			View v = loadView(viewName, locale);
+			result = (v != null) ? configureView(v, viewName) : UNRESOLVED_VIEW;
+			synchronized (this) {
+				cacheView(viewName, locale, result);
+			}
+			return result;
+		} catch (ServletException ex) {
+			load.setFailure(ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+			load.setFailure(new ServletException("Error loading view '" + viewName + "': " + ex.getMessage(), ex));
+			throw ex;
+		} catch (Error err) {
+			load.setFailure(new ServletException("Error loading view '" + viewName + "': " + err.getMessage()));
+			throw err;
+		} finally {
+			if (result != null) {
+				load.setResult(result);
+			}
+			synchronized (this) {
+				this.viewLoads.remove(cacheKey);
 			}
 		}
-		return v;
 	}
 
 	/**
-	 * Configure the given View. Only invoked once per View.
-	 * Configuration means giving the View its name, and
-	 * setting the ApplicationContext on the View if necessary
+	 * Return the cached View or UNRESOLVED_VIEW, or null if not cached.
 	 */
-	private View loadAndConfigureView(String viewname, Locale locale) throws ServletException {
+	private synchronized Object getCachedView(String viewName, Locale locale) {
+		Map viewsForLocale = (Map) this.viewCache.get(locale);
+		return (viewsForLocale != null) ? viewsForLocale.get(viewName) : null;
+	}
 
+	/**
+	 * Add the given result to the cache, if the cache limit allows it.
+	 * Must be called with the lock on this object held.
+	 */
+	private void cacheView(String viewName, Locale locale, Object result) {
+		if (this.cacheSize >= this.cacheLimit) {
+			return;
+		}
+		Map viewsForLocale = (Map) this.viewCache.get(locale);
+		if (viewsForLocale == null) {
+			viewsForLocale = new HashMap();
+			this.viewCache.put(locale, viewsForLocale);
+		}
+		viewsForLocale.put(viewName, result);
+		this.cacheSize++;
+		if (result == UNRESOLVED_VIEW) {
+			logger.info("Cached unresolvable view '" + getCacheKey(viewName, locale) + "'");
+		} else {
+			logger.info("Cached view '" + getCacheKey(viewName, locale) + "'");
+		}
+	}
+
+	/**
+	 * Load and configure the given view, without caching.
+	 */
+	private View loadAndConfigureView(String viewname, Locale locale) throws ServletException {
 		// Ask the subclass to load the view
 		View v = loadView(viewname, locale);
 		if (v == null)
 			throw new ServletException("Cannot resolve view name '" + viewname + "'");
+		return configureView(v, viewname);
+	}
 
+	/**
+	 * Configure the given View. Only invoked once per View.
+	 * Configuration means giving the View its name, and
+	 * setting the ApplicationContext on the View if necessary
+	 */
+	private View configureView(View v, String viewname) throws ServletException {
 		// Configure view
 		v.setName(viewname);
 
@@ -101,12 +236,7 @@ public abstract class AbstractCachingViewResolver extends ApplicationObjectSuppo
 			} catch (ApplicationContextException ex) {
 				throw new ServletException("Error initializing View [" + v + "]: " + ex.getMessage(), ex);
 			}
-
-			String cacheKey = getCacheKey(viewname, locale);
-			logger.info("Cached view '" + cacheKey + "'");
-			this.viewHash.put(cacheKey, v);
 		}
-
 		return v;
 	}
 
@@ -118,6 +248,36 @@ public abstract class AbstractCachingViewResolver extends ApplicationObjectSuppo
 		return viewname + "_" + locale;
 	}
 
+	/**
+	 * Remove all views from the cache, including unresolvable view names.
+	 * Subsequent requests will load the views again.
+	 */
+	public synchronized void clearCache() {
+		this.viewCache.clear();
+		this.cacheSize = 0;
+	}
+
+	/**
+	 * Return the number of cached views, including unresolvable view names.
+	 */
+	public synchronized int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * Return the number of view resolutions served from the cache.
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Return the number of times a view was loaded via loadView.
+	 */
+	public int getLoadCount() {
+		return loadCount;
+	}
+
 	/**
 	 * Subclasses must implement this method. There need be no concern for efficiency,
 	 * as this class will cache views. Not all subclasses may support internationalization:
@@ -130,4 +290,43 @@ public abstract class AbstractCachingViewResolver extends ApplicationObjectSuppo
 	 */
 	protected abstract View loadView(String viewName, Locale locale) throws ServletException;
 
+
+	/**
+	 * Result of loading a view, for threads waiting for the load to finish.
+	 */
+	private static class ViewLoad {
+
+		private boolean done = false;
+
+		private Object result;
+
+		private ServletException failure;
+
+		private synchronized void setResult(Object result) {
+			this.result = result;
+			this.done = true;
+			notifyAll();
+		}
+
+		private synchronized void setFailure(ServletException failure) {
+			this.failure = failure;
+			this.done = true;
+			notifyAll();
+		}
+
+		private synchronized Object waitForResult() throws ServletException {
+			while (!this.done) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					throw new ServletException("Interrupted while waiting for view to be loaded", ex);
+				}
+			}
+			if (this.failure != null) {
+				throw this.failure;
+			}
+			return this.result;
+		}
+	}
+
 }
@@ -0,0 +1,599 @@
+package com.interface21.web.servlet.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.interface21.context.ApplicationContextAware;
+import com.interface21.context.ApplicationContextException;
+import com.interface21.context.ApplicationEvent;
+import com.interface21.context.SmartApplicationListener;
+import com.interface21.context.support.ApplicationObjectSupport;
+import com.interface21.web.servlet.View;
+
+/**
+ * View decorator that caches the rendered output of its target view,
+ * for pages that are expensive to render but rarely change. A cached
+ * page is written straight to the response, without rendering the
+ * target view again.
+ *
+ * <p>The output is cached per locale of the response and per value of
+ * the given key attributes of the model: Model attributes that are not
+ * key attributes are assumed to not affect the output. Cached output
+ * expires after the given time to live, and at most "cacheLimit" pages
+ * are cached, evicting expired pages first and then the pages that
+ * expire soonest. Pages above the file storage threshold are kept in
+ * temporary files rather than in memory.
+ *
+ * <p>Only the content and the content type of the output are cached,
+ * not any other headers that the target view sets. Output that is not
+ * sent with status 200, like errors and redirects, is not cached.
+ *
+ * <p>The cache can be cleared explicitly, or by publishing a
+ * ViewCacheInvalidationEvent if this view is defined as a bean in the
+ * application context, e.g. for use with BeanNameViewResolver.
+ *
+ * @see #setKeyAttributes
+ * @see #setTimeToLive
+ * @see #setCacheLimit
+ * @see #setFileStorageThreshold
+ * @see ViewCacheInvalidationEvent
+ * @see BeanNameViewResolver
+ */
+public class CachingView extends ApplicationObjectSupport implements View, SmartApplicationListener {
+
+	private View targetView;
+
+	private String name;
+
+	private String[] keyAttributes = new String[0];
+
+	private long timeToLive = 60000;
+
+	private int cacheLimit = 256;
+
+	private int fileStorageThreshold = -1;
+
+	/**
+	 * Cache key String -> RenderedOutput.
+	 * Synchronized on this object. Output is written outside of the lock.
+	 */
+	private final Map cache = new HashMap();
+
+	/** Statistics: not synchronized, so concurrent updates may get lost */
+	private int hitCount = 0;
+
+	private int missCount = 0;
+
+
+	/**
+	 * Set the view to render on a cache miss.
+	 */
+	public void setTargetView(View targetView) {
+		this.targetView = targetView;
+	}
+
+	/**
+	 * Return the view to render on a cache miss.
+	 */
+	public View getTargetView() {
+		return targetView;
+	}
+
+	/**
+	 * Set the names of the model attributes that the output depends on.
+	 * Output is cached per combination of their String values. Default is
+	 * none, i.e. the output only depends on the locale.
+	 */
+	public void setKeyAttributes(String[] keyAttributes) {
+		this.keyAttributes = keyAttributes;
+	}
+
+	/**
+	 * Set the number of milliseconds that rendered output stays valid.
+	 * Default is 60000.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Set the maximum number of pages to cache. Default is 256.
+	 */
+	public void setCacheLimit(int cacheLimit) {
+		this.cacheLimit = cacheLimit;
+	}
+
+	/**
+	 * Set the size in bytes from which on pages are stored in temporary files
+	 * instead of in memory. Default is -1, storing all pages in memory.
+	 */
+	public void setFileStorageThreshold(int fileStorageThreshold) {
+		this.fileStorageThreshold = fileStorageThreshold;
+	}
+
+	public void addStaticAttribute(String name, Object o) {
+		this.targetView.addStaticAttribute(name, o);
+	}
+
+	public void setName(String name) {
+		this.name = name;
+		if (this.targetView != null) {
+			this.targetView.setName(name);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Pass the ApplicationContext on to the target view, if it needs it.
+	 */
+	protected void initApplicationContext() throws ApplicationContextException {
+		if (this.targetView == null) {
+			throw new ApplicationContextException("targetView is required");
+		}
+		if (this.targetView instanceof ApplicationContextAware) {
+			((ApplicationContextAware) this.targetView).setApplicationContext(getApplicationContext());
+		}
+	}
+
+
+	public void render(Map model, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		String key = getCacheKey(model, response);
+		long now = System.currentTimeMillis();
+		RenderedOutput output = null;
+		synchronized (this) {
+			output = (RenderedOutput) this.cache.get(key);
+		}
+		if (output != null && output.expiryTime > now && output.writeTo(response)) {
+			this.hitCount++;
+			return;
+		}
+
+		this.missCount++;
+		CapturingResponseWrapper capturingResponse = new CapturingResponseWrapper(response);
+		this.targetView.render(model, request, capturingResponse);
+		byte[] content = capturingResponse.getCapturedContent();
+		if (content == null) {
+			// not captured: already passed through to the response
+			return;
+		}
+		String contentType = capturingResponse.getCapturedContentType();
+		output = createOutput(content, contentType, now + this.timeToLive);
+		cacheOutput(key, output);
+		if (!(output instanceof MemoryOutput)) {
+			// no need to read the content back from the file, which may have been evicted already
+			output = new MemoryOutput(content, contentType, output.expiryTime);
+		}
+		output.writeTo(response);
+	}
+
+	/**
+	 * Build the cache key from the locale of the response
+	 * and the String values of the key attributes.
+	 * Each value is prefixed with its length, so that values
+	 * containing the separator cannot produce the same key.
+	 */
+	private String getCacheKey(Map model, HttpServletResponse response) {
+		StringBuffer sb = new StringBuffer(response.getLocale().toString());
+		for (int i = 0; i < this.keyAttributes.length; i++) {
+			Object value = model.get(this.keyAttributes[i]);
+			sb.append('|');
+			if (value != null) {
+				String str = value.toString();
+				sb.append(str.length()).append(':').append(str);
+			} else {
+				sb.append('-');
+			}
+		}
+		return sb.toString();
+	}
+
+	private RenderedOutput createOutput(byte[] content, String contentType, long expiryTime) {
+		if (this.fileStorageThreshold >= 0 && content.length > this.fileStorageThreshold) {
+			try {
+				return new FileOutput(content, contentType, expiryTime);
+			} catch (IOException ex) {
+				logger.warn("Could not store rendered output of view '" + this.name + "' in file - keeping it in memory", ex);
+			}
+		}
+		return new MemoryOutput(content, contentType, expiryTime);
+	}
+
+	/**
+	 * Add the given output to the cache, evicting expired output and,
+	 * if the cache is still full, the output that expires soonest.
+	 */
+	private synchronized void cacheOutput(String key, RenderedOutput output) {
+		RenderedOutput old = (RenderedOutput) this.cache.put(key, output);
+		if (old != null) {
+			old.discard();
+		}
+		if (this.cache.size() > this.cacheLimit) {
+			long now = System.currentTimeMillis();
+			String soonestKey = null;
+			long soonestExpiry = Long.MAX_VALUE;
+			for (Iterator it = this.cache.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry) it.next();
+				RenderedOutput cached = (RenderedOutput) entry.getValue();
+				if (cached.expiryTime <= now) {
+					it.remove();
+					cached.discard();
+				} else if (cached.expiryTime < soonestExpiry && cached != output) {
+					soonestKey = (String) entry.getKey();
+					soonestExpiry = cached.expiryTime;
+				}
+			}
+			if (this.cache.size() > this.cacheLimit && soonestKey != null) {
+				((RenderedOutput) this.cache.remove(soonestKey)).discard();
+			}
+		}
+	}
+
+	/**
+	 * Discard all cached output.
+	 */
+	public synchronized void clearCache() {
+		for (Iterator it = this.cache.values().iterator(); it.hasNext();) {
+			((RenderedOutput) it.next()).discard();
+		}
+		this.cache.clear();
+		logger.info("Cleared rendered output cache of view '" + this.name + "'");
+	}
+
+	public boolean supportsEventType(Class eventType) {
+		return ViewCacheInvalidationEvent.class.isAssignableFrom(eventType);
+	}
+
+	/**
+	 * Clear the cache on a ViewCacheInvalidationEvent for all views or this view.
+	 */
+	public void onApplicationEvent(ApplicationEvent e) {
+		if (e instanceof ViewCacheInvalidationEvent) {
+			String viewName = ((ViewCacheInvalidationEvent) e).getViewName();
+			if (viewName == null || viewName.equals(this.name)) {
+				clearCache();
+			}
+		}
+	}
+
+	/**
+	 * Return the number of pages currently cached, including expired ones.
+	 */
+	public synchronized int getCacheSize() {
+		return this.cache.size();
+	}
+
+	/**
+	 * Return the number of requests served from the cache.
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Return the number of requests that rendered the target view.
+	 */
+	public int getMissCount() {
+		return missCount;
+	}
+
+
+	/**
+	 * Cached output of the target view.
+	 */
+	private abstract static class RenderedOutput {
+
+		protected final String contentType;
+
+		protected final int contentLength;
+
+		protected final long expiryTime;
+
+		protected RenderedOutput(String contentType, int contentLength, long expiryTime) {
+			this.contentType = contentType;
+			this.contentLength = contentLength;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * Write this output to the given response.
+		 * @return whether the output was written, i.e. has not been discarded
+		 */
+		public boolean writeTo(HttpServletResponse response) throws IOException {
+			if (!acquire()) {
+				return false;
+			}
+			try {
+				if (this.contentType != null) {
+					response.setContentType(this.contentType);
+				}
+				response.setContentLength(this.contentLength);
+				writeContentTo(response.getOutputStream());
+				return true;
+			} finally {
+				release();
+			}
+		}
+
+		protected abstract void writeContentTo(OutputStream out) throws IOException;
+
+		/**
+		 * Register a reader of this output.
+		 * @return false if this output has been discarded already
+		 */
+		protected boolean acquire() {
+			return true;
+		}
+
+		/**
+		 * Unregister a reader of this output.
+		 */
+		protected void release() {
+		}
+
+		/**
+		 * Release the resources held by this output, once evicted.
+		 */
+		public void discard() {
+		}
+	}
+
+
+	private static class MemoryOutput extends RenderedOutput {
+
+		private final byte[] content;
+
+		private MemoryOutput(byte[] content, String contentType, long expiryTime) {
+			super(contentType, content.length, expiryTime);
+			this.content = content;
+		}
+
+		protected void writeContentTo(OutputStream out) throws IOException {
+			out.write(this.content);
+		}
+	}
+
+
+	/**
+	 * Output stored in a temporary file. The file is deleted once the output
+	 * has been discarded and no reader is writing it to a response anymore.
+	 */
+	private static class FileOutput extends RenderedOutput {
+
+		private final File file;
+
+		/** Number of current readers, synchronized on this object */
+		private int readers = 0;
+
+		private boolean discarded = false;
+
+		private FileOutput(byte[] content, String contentType, long expiryTime) throws IOException {
+			super(contentType, content.length, expiryTime);
+			this.file = File.createTempFile("view", ".cache");
+			try {
+				OutputStream out = new FileOutputStream(this.file);
+				try {
+					out.write(content);
+				} finally {
+					out.close();
+				}
+			} catch (IOException ex) {
+				this.file.delete();
+				throw ex;
+			}
+		}
+
+		protected void writeContentTo(OutputStream out) throws IOException {
+			InputStream in = new FileInputStream(this.file);
+			try {
+				byte[] buffer = new byte[4096];
+				int len;
+				while ((len = in.read(buffer)) != -1) {
+					out.write(buffer, 0, len);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		protected synchronized boolean acquire() {
+			if (this.discarded) {
+				return false;
+			}
+			this.readers++;
+			return true;
+		}
+
+		protected synchronized void release() {
+			this.readers--;
+			if (this.discarded && this.readers == 0) {
+				this.file.delete();
+			}
+		}
+
+		public synchronized void discard() {
+			this.discarded = true;
+			if (this.readers == 0) {
+				this.file.delete();
+			}
+		}
+	}
+
+
+	/**
+	 * Response wrapper that captures the content and content type, unless
+	 * the status is set to something other than 200, or an error or redirect
+	 * is sent: in that case, all content is passed through to the target.
+	 */
+	private static class CapturingResponseWrapper extends HttpServletResponseWrapper {
+
+		private ByteArrayOutputStream content = new ByteArrayOutputStream(4096);
+
+		private boolean capturing = true;
+
+		private String contentType;
+
+		private ServletOutputStream outputStream;
+
+		private PrintWriter writer;
+
+		private CapturingResponseWrapper(HttpServletResponse response) {
+			super(response);
+		}
+
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (this.writer != null) {
+				throw new IllegalStateException("getWriter has already been called for this response");
+			}
+			if (this.outputStream == null) {
+				this.outputStream = new CapturingOutputStream();
+			}
+			return this.outputStream;
+		}
+
+		public PrintWriter getWriter() throws IOException {
+			if (this.writer == null) {
+				if (this.outputStream != null) {
+					throw new IllegalStateException("getOutputStream has already been called for this response");
+				}
+				this.outputStream = new CapturingOutputStream();
+				String encoding = getCharacterEncoding();
+				this.writer = new PrintWriter(encoding != null ?
+				                              new OutputStreamWriter(this.outputStream, encoding) :
+				                              new OutputStreamWriter(this.outputStream));
+			}
+			return this.writer;
+		}
+
+		public void setContentType(String type) {
+			this.contentType = type;
+			super.setContentType(type);
+		}
+
+		public void setContentLength(int len) {
+			if (!this.capturing) {
+				super.setContentLength(len);
+			}
+		}
+
+		public void setStatus(int sc) {
+			if (sc != HttpServletResponse.SC_OK) {
+				stopCapturing();
+			}
+			super.setStatus(sc);
+		}
+
+		public void setStatus(int sc, String sm) {
+			if (sc != HttpServletResponse.SC_OK) {
+				stopCapturing();
+			}
+			super.setStatus(sc, sm);
+		}
+
+		public void sendError(int sc) throws IOException {
+			this.capturing = false;
+			super.sendError(sc);
+		}
+
+		public void sendError(int sc, String msg) throws IOException {
+			this.capturing = false;
+			super.sendError(sc, msg);
+		}
+
+		public void sendRedirect(String location) throws IOException {
+			this.capturing = false;
+			super.sendRedirect(location);
+		}
+
+		public void flushBuffer() throws IOException {
+			if (!this.capturing) {
+				super.flushBuffer();
+			}
+		}
+
+		public void resetBuffer() {
+			if (this.capturing) {
+				this.content.reset();
+			} else {
+				super.resetBuffer();
+			}
+		}
+
+		public void reset() {
+			super.reset();
+			resetBuffer();
+		}
+
+		/**
+		 * Return the captured content, or null if not captured.
+		 */
+		private byte[] getCapturedContent() {
+			if (this.writer != null) {
+				this.writer.flush();
+			}
+			return (this.capturing ? this.content.toByteArray() : null);
+		}
+
+		private String getCapturedContentType() {
+			return contentType;
+		}
+
+		private void stopCapturing() {
+			if (this.capturing) {
+				this.capturing = false;
+				if (this.content.size() > 0) {
+					try {
+						this.content.writeTo(getResponse().getOutputStream());
+					} catch (IOException ex) {
+						throw new IllegalStateException("Could not write captured content: " + ex.getMessage());
+					}
+				}
+			}
+		}
+
+		private class CapturingOutputStream extends ServletOutputStream {
+
+			public void write(int b) throws IOException {
+				if (capturing) {
+					content.write(b);
+				} else {
+					getResponse().getOutputStream().write(b);
+				}
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (capturing) {
+					content.write(b, off, len);
+				} else {
+					getResponse().getOutputStream().write(b, off, len);
+				}
+			}
+
+			public void flush() throws IOException {
+				if (!capturing) {
+					getResponse().getOutputStream().flush();
+				}
+			}
+		}
+	}
+
+}
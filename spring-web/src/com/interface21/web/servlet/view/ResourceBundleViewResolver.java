@@ -21,8 +21,10 @@ import javax.servlet.ServletException;
 
 import com.interface21.beans.BeansException;
 import com.interface21.beans.factory.BeanFactory;
+import com.interface21.beans.factory.ListableBeanFactory;
 import com.interface21.beans.factory.NoSuchBeanDefinitionException;
 import com.interface21.beans.factory.support.ListableBeanFactoryImpl;
+import com.interface21.context.ApplicationContextException;
 import com.interface21.web.servlet.View;
 
 /**
@@ -34,11 +36,14 @@ import com.interface21.web.servlet.View;
  * using the default support of java.util.PropertyResourceBundle.
  *
  * <p>Extends AbstractCachingViewResolver for decent performance.
+ * The bean factory for each locale is only built once, and the views
+ * for a given set of locales can be built eagerly at startup.
  *
  * @author Rod Johnson
  * @author Juergen Hoeller
  * @see java.util.ResourceBundle#getBundle
  * @see java.util.PropertyResourceBundle
+ * @see #setLocalesToInitialize
  */
 public class ResourceBundleViewResolver extends AbstractCachingViewResolver {
 
@@ -51,6 +56,8 @@ public class ResourceBundleViewResolver extends AbstractCachingViewResolver {
 
 	private String defaultParentView;
 
+	private Locale[] localesToInitialize;
+
 	/**
 	 * Locale -> BeanFactory
 	 */
@@ -83,6 +90,48 @@ public class ResourceBundleViewResolver extends AbstractCachingViewResolver {
 		this.defaultParentView = defaultParentView;
 	}
 
+	/**
+	 * Specify the locales to initialize eagerly, rather than lazily when
+	 * first accessed: All views defined in the bundle for those locales get
+	 * built on startup, so that the first request does not pay the cost of
+	 * parsing the bundle and creating the views. Only effective if caching
+	 * is enabled.
+	 * @param localesToInitialize the locales to build the views for on startup
+	 */
+	public void setLocalesToInitialize(Locale[] localesToInitialize) {
+		this.localesToInitialize = localesToInitialize;
+	}
+
+	/**
+	 * Eagerly initialize the views for the specified locales, if any.
+	 * @see #setLocalesToInitialize
+	 */
+	protected void initApplicationContext() throws ApplicationContextException {
+		if (this.localesToInitialize == null || !isCache()) {
+			return;
+		}
+		for (int i = 0; i < this.localesToInitialize.length; i++) {
+			Locale locale = this.localesToInitialize[i];
+			try {
+				ListableBeanFactory factory = (ListableBeanFactory) initFactory(locale);
+				String[] viewNames = factory.getBeanDefinitionNames(View.class);
+				for (int j = 0; j < viewNames.length; j++) {
+					resolveViewName(viewNames[j], locale);
+				}
+				logger.info("Initialized " + viewNames.length + " views for locale [" + locale + "]");
+			} catch (MissingResourceException ex) {
+				throw new ApplicationContextException("Cannot load resource bundle with basename '" + this.basename +
+				                                      "' for locale [" + locale + "]", ex);
+			} catch (BeansException ex) {
+				throw new ApplicationContextException("Cannot initialize views in resource bundle with basename '" +
+				                                      this.basename + "' for locale [" + locale + "]", ex);
+			} catch (ServletException ex) {
+				throw new ApplicationContextException("Cannot initialize views in resource bundle with basename '" +
+				                                      this.basename + "' for locale [" + locale + "]", ex);
+			}
+		}
+	}
+
 	protected View loadView(String viewName, Locale locale) throws ServletException {
 		try {
 			Object o = initFactory(locale).getBean(viewName);
@@ -109,15 +158,22 @@ public class ResourceBundleViewResolver extends AbstractCachingViewResolver {
 		if (parsedBundle != null) {
 			return parsedBundle;
 		}
+		parsedBundle = createFactory(locale);
+		if (isCache()) {
+			this.cachedFactories.put(locale, parsedBundle);
+		}
+		return parsedBundle;
+	}
 
+	/**
+	 * Build a new BeanFactory from the ResourceBundle for the given locale.
+	 */
+	private BeanFactory createFactory(Locale locale) throws MissingResourceException, BeansException {
 		ResourceBundle bundle = ResourceBundle.getBundle(this.basename, locale,
 				Thread.currentThread().getContextClassLoader());
 		ListableBeanFactoryImpl lbf = new ListableBeanFactoryImpl();
 		lbf.setDefaultParentBean(this.defaultParentView);
 		lbf.registerBeanDefinitions(bundle, null);
-		if (isCache()) {
-			this.cachedFactories.put(locale, lbf);
-		}
 		return lbf;
 	}
 
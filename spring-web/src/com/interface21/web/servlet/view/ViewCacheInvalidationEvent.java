@@ -0,0 +1,43 @@
+package com.interface21.web.servlet.view;
+
+import com.interface21.context.ApplicationEvent;
+
+/**
+ * Event that tells CachingViews to discard their rendered output,
+ * e.g. after the data shown by the views has been changed.
+ * Applies to the view with the given name, or to all CachingViews
+ * if no view name is specified.
+ *
+ * @see CachingView
+ * @see com.interface21.context.ApplicationContext#publishEvent
+ */
+public class ViewCacheInvalidationEvent extends ApplicationEvent {
+
+	private final String viewName;
+
+	/**
+	 * Create a new ViewCacheInvalidationEvent for all CachingViews.
+	 * @param source component that published the event
+	 */
+	public ViewCacheInvalidationEvent(Object source) {
+		this(source, null);
+	}
+
+	/**
+	 * Create a new ViewCacheInvalidationEvent for the given view.
+	 * @param source component that published the event
+	 * @param viewName the name of the view to invalidate, or null for all
+	 */
+	public ViewCacheInvalidationEvent(Object source, String viewName) {
+		super(source);
+		this.viewName = viewName;
+	}
+
+	/**
+	 * Return the name of the view to invalidate, or null for all.
+	 */
+	public String getViewName() {
+		return viewName;
+	}
+
+}